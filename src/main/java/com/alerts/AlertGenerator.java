@@ -4,20 +4,28 @@ package com.alerts;
 import com.data_management.DataStorage;
 import com.data_management.Patient;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.stream.Collectors;
-import com.data_management.PatientRecord;
-import java.util.Comparator;
+import java.util.Arrays;
+import com.data_management.RecordType;
+import com.data_management.SampleVisitor;
 import org.junit.jupiter.api.Test;
-import java.util.Deque;
 
 
 /**
- * Evaluates patient data and generates alerts based on predefined rules, such as threshold breaches, trends, ECG anomalies, and critical conditions
+ * Evaluates patient data and generates alerts based on predefined rules, such as threshold breaches, trends, ECG anomalies, and critical conditions.
+ * Records are scanned through {@link Patient#forEachRecord} into buffers that are reused across evaluations, so an
+ * evaluation pass allocates nothing per record. Because of these buffers a generator must not evaluate patients from
+ * several threads at once; use one generator per thread.
  */
 public class AlertGenerator implements AlertListener{
+    private static final int ECG_WINDOW_SIZE = 10;
+    private static final double ECG_THRESHOLD_FACTOR = 2.0;
+
     private DataStorage dataStorage;
+    private final Samples systolic = new Samples();
+    private final Samples diastolic = new Samples();
+    private final Samples saturation = new Samples();
+    private final Samples ecg = new Samples();
+    private final double[] ecgWindow = new double[ECG_WINDOW_SIZE]; // ring buffer of the latest ECG values
 
     /**
      * Constructs an {@code AlertGenerator} with a specified {@code DataStorage}.
@@ -37,40 +45,34 @@ public class AlertGenerator implements AlertListener{
      * @param patient the patient data to evaluate for alert conditions
      */
     public void evaluateData(Patient patient) {
-        List<PatientRecord> allRecords = patient.getRecords(Long.MIN_VALUE, Long.MAX_VALUE);
-
-        List<PatientRecord> systolic = allRecords.stream()
-                .filter(r -> r.getRecordType().equalsIgnoreCase("SystolicPressure"))
-                .sorted(Comparator.comparingLong(PatientRecord::getTimestamp))
-                .collect(Collectors.toList());
-
-        List<PatientRecord> diastolic = allRecords.stream()
-                .filter(r -> r.getRecordType().equalsIgnoreCase("DiastolicPressure"))
-                .sorted(Comparator.comparingLong(PatientRecord::getTimestamp))
-                .collect(Collectors.toList());
+        //Records of a single type come back already ordered by timestamp
+        systolic.load(patient, RecordType.SYSTOLIC_PRESSURE);
+        diastolic.load(patient, RecordType.DIASTOLIC_PRESSURE);
+        saturation.load(patient, RecordType.SATURATION);
+        ecg.load(patient, RecordType.ECG);
         //Trend-based detection
         checkTrends(systolic, patient.getPatientId(), "SystolicPressure");
         checkTrends(diastolic, patient.getPatientId(), "DiastolicPressure");
         //Threshold-based detection
         checkThresholds(systolic, diastolic, patient.getPatientId());
         //Specialized alerts
-        checkHypotensiveHypoxemiaAlert(patient);
-        checkEcgAlerts(patient);
+        checkHypotensiveHypoxemiaAlert(systolic, saturation, patient.getPatientId());
+        checkEcgAlerts(ecg, patient.getPatientId());
     }
 
     /**
      * Detects increasing or decreasing trends based on 3-point rolling window
-     * @param records
+     * @param samples
      * @param patientId
      * @param type
      */
-    private void checkTrends(List<PatientRecord> records, int patientId, String type) {
-        for (int i = 2; i < records.size(); i++) {
-            double v1 = records.get(i - 2).getMeasurementValue();
-            double v2 = records.get(i - 1).getMeasurementValue();
-            double v3 = records.get(i).getMeasurementValue();
+    private void checkTrends(Samples samples, int patientId, String type) {
+        for (int i = 2; i < samples.size; i++) {
+            double v1 = samples.values[i - 2];
+            double v2 = samples.values[i - 1];
+            double v3 = samples.values[i];
 
-            long ts = records.get(i).getTimestamp();
+            long ts = samples.timestamps[i];
 
             if ((v2 - v1 > 10 && v3 - v2 > 10)) {
                 triggerAlert(new Alert(String.valueOf(patientId), type + " Increasing Trend", ts));
@@ -86,12 +88,12 @@ public class AlertGenerator implements AlertListener{
      * @param diastolic
      * @param patientId
      */
-    private void checkThresholds(List<PatientRecord> systolic, List<PatientRecord> diastolic, int patientId) {
-        int size = Math.min(systolic.size(), diastolic.size());
+    private void checkThresholds(Samples systolic, Samples diastolic, int patientId) {
+        int size = Math.min(systolic.size, diastolic.size);
         for (int i = 0; i < size; i++) {
-            double sys = systolic.get(i).getMeasurementValue();
-            double dia = diastolic.get(i).getMeasurementValue();
-            long ts = Math.max(systolic.get(i).getTimestamp(), diastolic.get(i).getTimestamp());
+            double sys = systolic.values[i];
+            double dia = diastolic.values[i];
+            long ts = Math.max(systolic.timestamps[i], diastolic.timestamps[i]);
 
             if (sys > 180 || sys < 90 || dia > 120 || dia < 60) {
                 triggerAlert(new Alert(String.valueOf(patientId), "CriticalThresholdBreached", ts));
@@ -114,18 +116,17 @@ public class AlertGenerator implements AlertListener{
      * -systolic BP < 90 AND
      * -oxygen saturation < 92%
      * within a 60-second window.
-     * @param patient
+     * @param bp
+     * @param o2
+     * @param patientId
      */
-    private void checkHypotensiveHypoxemiaAlert(Patient patient){
-        List<PatientRecord> records = patient.getRecords(Long.MIN_VALUE, Long.MAX_VALUE);
-        List<PatientRecord> bpRecords = records.stream().filter(r -> r.getRecordType().equalsIgnoreCase("Systolic Blood Pressure")).sorted(Comparator.comparingLong(PatientRecord::getTimestamp)).toList();
-        List<PatientRecord> o2Records = records.stream().filter(r -> r.getRecordType().equalsIgnoreCase("Oxygen Saturation")).sorted(Comparator.comparingLong(PatientRecord::getTimestamp)).toList();
-        for(PatientRecord bp : bpRecords) {
-            if (bp.getMeasurementValue() >= 90) continue;
-            for (PatientRecord o2 : o2Records) {
-                if (Math.abs(bp.getTimestamp() - o2.getTimestamp()) <= 60000) {
-                    if (o2.getMeasurementValue() < 92) {
-                        triggerAlert(new Alert(String.valueOf(patient.getPatientId()), "Hypotensive Hypoxemia Alert", bp.getTimestamp()));
+    private void checkHypotensiveHypoxemiaAlert(Samples bp, Samples o2, int patientId){
+        for(int i = 0; i < bp.size; i++) {
+            if (bp.values[i] >= 90) continue;
+            for (int j = 0; j < o2.size; j++) {
+                if (Math.abs(bp.timestamps[i] - o2.timestamps[j]) <= 60000) {
+                    if (o2.values[j] < 92) {
+                        triggerAlert(new Alert(String.valueOf(patientId), "Hypotensive Hypoxemia Alert", bp.timestamps[i]));
                         return;
                     }
                 }
@@ -135,20 +136,21 @@ public class AlertGenerator implements AlertListener{
 
     /**
      * Detects ECG anomalies based on rolling standard deviation window
-     * @param patient
+     * @param samples
+     * @param patientId
      */
-    private void checkEcgAlerts(Patient patient){
-        List<PatientRecord> ecgRecords = patient.getRecords(Long.MIN_VALUE, Long.MAX_VALUE).stream().filter(r -> r.getRecordType().equalsIgnoreCase("ECG")).sorted(Comparator.comparingLong(PatientRecord::getTimestamp)).toList();
-        Deque<Double> ecgWindow = new LinkedList<>();
-        final int WINDOW_SIZE = 10;
-        final double THRESHOLD_FACTOR = 2.0;
-        for(PatientRecord record : ecgRecords){
-            double ecgValue = record.getMeasurementValue();
-            ecgWindow.addLast(ecgValue);
-            if(ecgWindow.size() > WINDOW_SIZE) ecgWindow.pollFirst();
-            double mean = ecgWindow.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-            double stdDev = Math.sqrt(ecgWindow.stream().mapToDouble(v -> Math.pow(v - mean, 2)).average().orElse(0.0));
-            if(ecgWindow.size() == WINDOW_SIZE && ecgValue > mean + THRESHOLD_FACTOR*stdDev) triggerAlert(new Alert(String.valueOf(patient.getPatientId()), "ECG Anomaly Detected", record.getTimestamp()));
+    private void checkEcgAlerts(Samples samples, int patientId){
+        for(int i = 0; i < samples.size; i++){
+            double ecgValue = samples.values[i];
+            ecgWindow[i % ECG_WINDOW_SIZE] = ecgValue;
+            int windowSize = Math.min(i + 1, ECG_WINDOW_SIZE);
+            double sum = 0;
+            for(int w = 0; w < windowSize; w++) sum += ecgWindow[w];
+            double mean = sum / windowSize;
+            double squares = 0;
+            for(int w = 0; w < windowSize; w++) squares += (ecgWindow[w] - mean) * (ecgWindow[w] - mean);
+            double stdDev = Math.sqrt(squares / windowSize);
+            if(windowSize == ECG_WINDOW_SIZE && ecgValue > mean + ECG_THRESHOLD_FACTOR*stdDev) triggerAlert(new Alert(String.valueOf(patientId), "ECG Anomaly Detected", samples.timestamps[i]));
         }
     }
 
@@ -160,6 +162,29 @@ public class AlertGenerator implements AlertListener{
     public void onAlert(Alert alert) {
         if("Triggered Alert".equalsIgnoreCase(alert.getCondition())) triggerAlert(alert);
     }
+
+    //Samples of one record type, in growable primitive arrays that are reused across patients
+    private static final class Samples implements SampleVisitor {
+        private long[] timestamps = new long[64];
+        private double[] values = new double[64];
+        private int size;
+
+        void load(Patient patient, int recordTypeId) {
+            size = 0;
+            patient.forEachRecord(recordTypeId, Long.MIN_VALUE, Long.MAX_VALUE, this);
+        }
+
+        @Override
+        public void visit(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+    }
 } /*Filters and sorts systolic and diastolic records.
 
 Detects increasing/decreasing trends across 3 values.
@@ -4,17 +4,16 @@ import com.alerts.Alert;
 import com.alerts.AlertListener;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.RecordType;
 
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class BloodPressureStrategy implements AlertStrategy {
 
     @Override
     public void checkAlert(Patient patient, AlertListener listener) {
-        List<PatientRecord> systolic = filterAndSort(patient, "SystolicPressure");
-        List<PatientRecord> diastolic = filterAndSort(patient, "DiastolicPressure");
+        List<PatientRecord> systolic = patient.getRecords(RecordType.SYSTOLIC_PRESSURE, Long.MIN_VALUE, Long.MAX_VALUE);
+        List<PatientRecord> diastolic = patient.getRecords(RecordType.DIASTOLIC_PRESSURE, Long.MIN_VALUE, Long.MAX_VALUE);
 
         checkTrends(systolic, patient.getPatientId(), "SystolicPressure", listener);
         checkTrends(diastolic, patient.getPatientId(), "DiastolicPressure", listener);
@@ -23,13 +22,6 @@ public class BloodPressureStrategy implements AlertStrategy {
         checkThresholds(diastolic, patient.getPatientId(), "DiastolicPressure", 60, 120, listener);
     }
 
-    private List<PatientRecord> filterAndSort(Patient patient, String type) {
-        return patient.getRecords(Long.MIN_VALUE, Long.MAX_VALUE).stream()
-                .filter(r -> r.getRecordType().equalsIgnoreCase(type))
-                .sorted(Comparator.comparingLong(PatientRecord::getTimestamp))
-                .collect(Collectors.toList());
-    }
-
     private void checkThresholds(List<PatientRecord> records, int id, String type, double low, double high, AlertListener listener) {
         for (PatientRecord r : records) {
             if (r.getMeasurementValue() > high) {
@@ -4,19 +4,15 @@ import com.alerts.Alert;
 import com.alerts.AlertListener;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.RecordType;
 
-import java.util.Comparator;
 import java.util.List;
 
 public class HeartRateStrategy implements AlertStrategy {
 
     @Override
     public void checkAlert(Patient patient, AlertListener listener) {
-        List<PatientRecord> heartRateRecords = patient.getRecords(Long.MIN_VALUE, Long.MAX_VALUE)
-                .stream()
-                .filter(r -> r.getRecordType().equalsIgnoreCase("HeartRate"))
-                .sorted(Comparator.comparingLong(PatientRecord::getTimestamp))
-                .toList();
+        List<PatientRecord> heartRateRecords = patient.getRecords(RecordType.HEART_RATE, Long.MIN_VALUE, Long.MAX_VALUE);
 
         for (PatientRecord r : heartRateRecords) {
             double value = r.getMeasurementValue();
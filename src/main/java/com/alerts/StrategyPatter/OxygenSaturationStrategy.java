@@ -3,19 +3,15 @@ import com.alerts.Alert;
 import com.alerts.AlertListener;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.RecordType;
 
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class OxygenSaturationStrategy implements AlertStrategy {
 
     @Override
     public void checkAlert(Patient patient, AlertListener listener) {
-        List<PatientRecord> records = patient.getRecords(Long.MIN_VALUE, Long.MAX_VALUE).stream()
-                .filter(r -> r.getRecordType().equalsIgnoreCase("BloodSaturation"))
-                .sorted(Comparator.comparingLong(PatientRecord::getTimestamp))
-                .collect(Collectors.toList());
+        List<PatientRecord> records = patient.getRecords(RecordType.SATURATION, Long.MIN_VALUE, Long.MAX_VALUE);
 
         for (PatientRecord r : records) {
             if (r.getMeasurementValue() < 92.0) {
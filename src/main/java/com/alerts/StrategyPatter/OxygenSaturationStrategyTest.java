@@ -1,11 +1,12 @@
 package com.alerts.StrategyPatter;
 
-import com.alerts.Alert;
-import com.alerts.AlertListener;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class OxygenSaturationStrategyTest {
@@ -18,12 +19,10 @@ public class OxygenSaturationStrategyTest {
         // Add low oxygen value to trigger alert (< 92)
         patient.addRecord(89, "Oxygen Saturation", System.currentTimeMillis());
 
-        strategy.checkAlert(patient, new AlertListener() {
-            @Override
-            public void onAlert(Alert alert) {
-                assertEquals("LowOxygenSaturationAlert", alert.getCondition());
-            }
-        });
+        // "Oxygen Saturation" is an alias of the Saturation record type the strategy reads
+        List<String> conditions = new ArrayList<>();
+        strategy.checkAlert(patient, alert -> conditions.add(alert.getCondition()));
+        assertEquals(List.of("LowSaturationAlert"), conditions);
     }
 
     @Test
@@ -38,11 +37,8 @@ public class OxygenSaturationStrategyTest {
         // Drop of more than 5% within 10 minutes
         patient.addRecord(89, "Oxygen Saturation", now + 5 * 60 * 1000); // 5 minutes later
 
-        strategy.checkAlert(patient, new AlertListener() {
-            @Override
-            public void onAlert(Alert alert) {
-                assertEquals("RapidOxygenDropAlert", alert.getCondition());
-            }
-        });
+        List<String> conditions = new ArrayList<>();
+        strategy.checkAlert(patient, alert -> conditions.add(alert.getCondition()));
+        assertTrue(conditions.contains("RapidDropSaturationAlert"));
     }
 }
\ No newline at end of file
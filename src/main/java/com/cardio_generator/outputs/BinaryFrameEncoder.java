@@ -0,0 +1,125 @@
+package com.cardio_generator.outputs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Packs samples into the binary frames a client may ask for instead of CSV
+ * lines. A frame is an 8 byte header: the magic "HD", the version, the kind of
+ * frame and the length of its body, followed by the body, all big-endian.
+ * A SAMPLES body holds fixed-width samples of {@link #SAMPLE_BYTES}: int32
+ * patient id, int16 type id, int64 timestamp and float64 value. A TYPES body
+ * holds the definitions of type ids: int16 type id, int16 name length and the
+ * UTF-8 name. Type ids are assigned per connection, and every id is defined in
+ * a TYPES frame before the first SAMPLES frame using it. On connections that
+ * resume, each SAMPLES frame is preceded by a SEQUENCE frame whose body holds the
+ * int64 sequence numbers of its first and last sample.
+ * Values are sent as numbers, so a unit such as the % of saturation is dropped,
+ * and samples whose value is not a number, like alert states, are not sent:
+ * readers skip them in CSV too.
+ * Not thread-safe, each connection has its own encoder.
+ */
+public final class BinaryFrameEncoder {
+    public static final short MAGIC = 0x4844; // "HD"
+    public static final byte VERSION = 1;
+    public static final byte SAMPLES = 0;
+    public static final byte TYPES = 1;
+    public static final byte SEQUENCE = 2;
+    public static final int SEQUENCE_BYTES = 16;
+    public static final int HEADER_BYTES = 8;
+    public static final int SAMPLE_BYTES = 22;
+    public static final int MAX_FRAME_SAMPLES = 512;
+    public static final int MAX_FRAME_BYTES = 1 << 20;
+
+    private final Map<String, Short> typeIds = new HashMap<>();
+    private ByteBuffer types = ByteBuffer.allocate(256); // definitions not sent yet, without header
+    private final ByteBuffer samples = ByteBuffer.allocate(MAX_FRAME_SAMPLES * SAMPLE_BYTES);
+    private long firstSequence = -1; // of the pending samples, -1 if they are not numbered
+    private long lastSequence;
+
+    /**
+     * Adds a sample to the pending frame.
+     *
+     * @param data the value as the generators format it, possibly followed by %
+     * @return false if the value is not a number and the sample was not added
+     */
+    public boolean add(int patientId, long timestamp, String label, String data) {
+        int end = data.length();
+        while (end > 0 && (data.charAt(end - 1) == '%' || Character.isWhitespace(data.charAt(end - 1)))) end--;
+        double value;
+        try {
+            value = Double.parseDouble(data.substring(0, end));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (samples.remaining() < SAMPLE_BYTES) throw new IllegalStateException("Frame is full, drain it first");
+        samples.putInt(patientId).putShort(typeId(label)).putLong(timestamp).putDouble(value);
+        return true;
+    }
+
+    /**
+     * Adds a sample numbered by its source, so the frame is preceded by a
+     * SEQUENCE frame. Sequence numbers must increase from sample to sample.
+     *
+     * @param sequence the sequence number of the sample
+     * @return false if the value is not a number and the sample was not added
+     */
+    public boolean add(long sequence, int patientId, long timestamp, String label, String data) {
+        if (!add(patientId, timestamp, label, data)) return false;
+        if (samples.position() == SAMPLE_BYTES) firstSequence = sequence;
+        lastSequence = sequence;
+        return true;
+    }
+
+    /**
+     * @return true if the pending frame must be drained before the next sample is added
+     */
+    public boolean isFull() {
+        return samples.remaining() < SAMPLE_BYTES;
+    }
+
+    public boolean isEmpty() {
+        return samples.position() == 0 && types.position() == 0;
+    }
+
+    /**
+     * Takes the pending frames: the new type definitions, if any, then the
+     * sequence numbers of the samples, if they are numbered, then the samples.
+     *
+     * @return the frames ready to be written, or null if nothing is pending
+     */
+    public ByteBuffer drain() {
+        if (isEmpty()) return null;
+        int typeBytes = types.position() == 0 ? 0 : HEADER_BYTES + types.position();
+        int sequenceBytes = firstSequence < 0 || samples.position() == 0 ? 0 : HEADER_BYTES + SEQUENCE_BYTES;
+        ByteBuffer frames = ByteBuffer.allocate(typeBytes + sequenceBytes + HEADER_BYTES + samples.position());
+        if (typeBytes > 0) {
+            frames.putShort(MAGIC).put(VERSION).put(TYPES).putInt(types.position()).put(types.flip());
+            types.clear();
+        }
+        if (sequenceBytes > 0) {
+            frames.putShort(MAGIC).put(VERSION).put(SEQUENCE).putInt(SEQUENCE_BYTES).putLong(firstSequence).putLong(lastSequence);
+            firstSequence = -1;
+        }
+        frames.putShort(MAGIC).put(VERSION).put(SAMPLES).putInt(samples.position()).put(samples.flip());
+        samples.clear();
+        return frames.flip();
+    }
+
+    private short typeId(String label) {
+        Short id = typeIds.get(label);
+        if (id != null) return id;
+        if (typeIds.size() > Short.MAX_VALUE) throw new IllegalStateException("Too many record types");
+        short newId = (short) typeIds.size();
+        typeIds.put(label, newId);
+        byte[] name = label.getBytes(StandardCharsets.UTF_8);
+        if (types.remaining() < 4 + name.length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(types.capacity() * 2, types.position() + 4 + name.length));
+            types = grown.put(types.flip());
+        }
+        types.putShort(newId).putShort((short) name.length).put(name);
+        return newId;
+    }
+}
@@ -1,16 +1,39 @@
 package com.cardio_generator.outputs;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sends every sample to one TCP client, as a CSV line from the moment it
+ * connects. A client whose first line is "FORMAT binary", sent within
+ * {@link #HELLO_MILLIS} of connecting, gets binary frames from a
+ * {@link BinaryFrameEncoder} after the lines sent until then; a partly filled
+ * frame is sent after at most {@link #FLUSH_MILLIS}. Clients that send nothing,
+ * such as netcat, keep getting CSV. A client that cannot be written to is
+ * dropped.
+ */
 public class TcpOutputStrategy implements OutputStrategy {
+    static final int HELLO_MILLIS = 500;
+    static final long FLUSH_MILLIS = 10;
+    static final String BINARY_HELLO = "FORMAT binary";
 
     private ServerSocket serverSocket;
     private Socket clientSocket;
-    private PrintWriter out;
+    //Written and switched under the encoder's lock, so no frame is sent before the last line
+    private volatile PrintWriter out;
+    private volatile OutputStream binaryOut;
+    private ScheduledExecutorService flusher;
+    private final BinaryFrameEncoder encoder = new BinaryFrameEncoder();
 
     public TcpOutputStrategy(int port) {
         try {
@@ -23,6 +46,16 @@ public class TcpOutputStrategy implements OutputStrategy {
                     clientSocket = serverSocket.accept();
                     out = new PrintWriter(clientSocket.getOutputStream(), true);
                     System.out.println("Client connected: " + clientSocket.getInetAddress());
+                    if (readsBinaryHello(clientSocket)) {
+                        synchronized (encoder) {
+                            if (out == null) return; // dropped meanwhile
+                            out.flush();
+                            out = null;
+                            binaryOut = clientSocket.getOutputStream();
+                            startFlusher();
+                        }
+                        System.out.println("Client " + clientSocket.getInetAddress() + " switched to binary frames");
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -34,9 +67,71 @@ public class TcpOutputStrategy implements OutputStrategy {
 
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        if (out != null) {
+        if (binaryOut != null) {
+            synchronized (encoder) {
+                if (binaryOut != null && encoder.add(patientId, timestamp, label, data) && encoder.isFull()) send(encoder.drain());
+            }
+        } else if (out != null) {
             String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
-            out.println(message);
+            synchronized (encoder) {
+                PrintWriter writer = out;
+                if (writer == null) return;
+                writer.println(message);
+                if (writer.checkError()) drop(new IOException("CSV line not sent"));
+            }
+        }
+    }
+
+    //Waits briefly for the optional hello line; anything else than the binary hello means CSV
+    private static boolean readsBinaryHello(Socket socket) throws IOException {
+        byte[] line = new byte[64];
+        int length = 0;
+        socket.setSoTimeout(HELLO_MILLIS);
+        try {
+            InputStream in = socket.getInputStream();
+            for (int b; length < line.length && (b = in.read()) >= 0 && b != '\n'; ) line[length++] = (byte) b;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        return new String(line, 0, length, StandardCharsets.US_ASCII).trim().equals(BINARY_HELLO);
+    }
+
+    //Called under the encoder's lock
+    private void startFlusher() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tcp-frame-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            synchronized (encoder) {
+                ByteBuffer frames = binaryOut != null ? encoder.drain() : null;
+                if (frames != null) send(frames);
+            }
+        }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    //Called under the encoder's lock, so frames leave in the order they were packed
+    private void send(ByteBuffer frames) {
+        try {
+            binaryOut.write(frames.array(), frames.arrayOffset() + frames.position(), frames.remaining());
+        } catch (IOException e) {
+            drop(e);
+        }
+    }
+
+    //Called under the encoder's lock; later samples are discarded instead of failing again
+    private void drop(IOException cause) {
+        System.err.println("TCP client dropped: " + cause.getMessage());
+        out = null;
+        binaryOut = null;
+        if (flusher != null) flusher.shutdown();
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            //Already gone
         }
     }
 }
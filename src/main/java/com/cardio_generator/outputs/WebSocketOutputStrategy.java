@@ -4,44 +4,204 @@ import org.java_websocket.WebSocket;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Broadcasts every sample to the connected WebSocket clients, as a CSV text
+ * message by default. A client connecting with ?format=binary in its URL gets
+ * binary frames from a {@link BinaryFrameEncoder} instead, each packing up to
+ * {@link BinaryFrameEncoder#MAX_FRAME_SAMPLES} samples; a partly filled frame is
+ * sent after at most {@link #FLUSH_MILLIS}.
+ * <p>
+ * Samples are numbered from 1 in the order they are output, and the last ones
+ * are kept in a replay buffer, so a client that lost its connection can resume
+ * without gaps or duplicates. A client asks for this with
+ * ?resume=&lt;source&gt;-&lt;sequence&gt; in its URL, giving the source id and the first
+ * sequence number it has not received, or 0-0 on its first connection. It is
+ * first sent a text message "SOURCE &lt;source&gt; &lt;sequence&gt;" with the id of this
+ * server and the sequence number it continues from: the one asked for if it is
+ * still buffered, otherwise the next live sample, so the client can count what
+ * it missed. Its CSV messages then carry the sequence number as a fifth field,
+ * and its binary frames are preceded by SEQUENCE frames. Clients that do not ask
+ * get the stream as before.
+ */
 public class WebSocketOutputStrategy implements OutputStrategy {
+    static final long FLUSH_MILLIS = 10;
+    public static final int DEFAULT_REPLAY_CAPACITY = 1 << 16;
 
     private WebSocketServer server;
     private final ConcurrentLinkedQueue<WebSocket> connections = new ConcurrentLinkedQueue<>();
+    //Identifies this run of the server, sequence numbers of an earlier run mean nothing to it
+    private final long sourceId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    //Replay buffer of the last samples, sample n is at n % capacity; guarded by itself
+    private final int[] replayPatientIds;
+    private final long[] replayTimestamps;
+    private final String[] replayLabels;
+    private final String[] replayData;
+    private long nextSequence = 1;
 
     public WebSocketOutputStrategy(int port) {
-        server = new SimpleWebSocketServer(new InetSocketAddress(port), connections);
+        this(port, DEFAULT_REPLAY_CAPACITY);
+    }
+
+    /**
+     * @param replayCapacity the number of recent samples kept for clients that resume
+     */
+    public WebSocketOutputStrategy(int port, int replayCapacity) {
+        if (replayCapacity < 1) throw new IllegalArgumentException("Replay capacity must be positive: " + replayCapacity);
+        replayPatientIds = new int[replayCapacity];
+        replayTimestamps = new long[replayCapacity];
+        replayLabels = new String[replayCapacity];
+        replayData = new String[replayCapacity];
+        server = new SimpleWebSocketServer(new InetSocketAddress(port));
         System.out.println("WebSocket server created on port: " + port + ", listening for connections...");
         server.start();
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "websocket-frame-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushFrames, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
-        // Broadcast the message to all connected clients
+        // Numbering, buffering and sending under one lock keeps every client's stream in sequence order
+        synchronized (replayData) {
+            long sequence = nextSequence++;
+            int slot = (int) (sequence % replayData.length);
+            replayPatientIds[slot] = patientId;
+            replayTimestamps[slot] = timestamp;
+            replayLabels[slot] = label;
+            replayData[slot] = data;
+            String message = null;
+            // Broadcast the message to all connected clients
+            for (WebSocket conn : connections) {
+                try{
+                    Subscriber subscriber = conn.getAttachment();
+                    if (subscriber.encoder == null && !subscriber.sequenced) {
+                        if (message == null) message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
+                        conn.send(message);
+                    } else {
+                        send(conn, subscriber, sequence, patientId, timestamp, label, data);
+                    }
+                }
+                catch(Exception e){
+                    System.err.println("failed to send message to WebSocket client: " + conn.getRemoteSocketAddress());
+                    e.printStackTrace();
+                    connections.remove(conn);
+                }
+            }
+        }
+    }
+
+    //Sends a sample to a client that asked for binary frames or sequence numbers
+    private static void send(WebSocket conn, Subscriber subscriber, long sequence, int patientId, long timestamp, String label, String data) {
+        BinaryFrameEncoder encoder = subscriber.encoder;
+        if (encoder == null) {
+            conn.send(patientId + "," + timestamp + "," + label + "," + data + "," + sequence);
+            return;
+        }
+        // Frames are sent under the encoder's lock so they leave in the order they were packed
+        synchronized (encoder) {
+            boolean added = subscriber.sequenced
+                    ? encoder.add(sequence, patientId, timestamp, label, data)
+                    : encoder.add(patientId, timestamp, label, data);
+            if (added && encoder.isFull()) conn.send(encoder.drain());
+        }
+    }
+
+    //Registers a new client, first replaying what it missed if it resumes; returns the sequence number it continues from
+    private long subscribe(WebSocket conn, Subscriber subscriber, long source, long from) {
+        synchronized (replayData) {
+            long oldest = Math.max(1, nextSequence - replayData.length);
+            long start = source == sourceId && from >= oldest && from <= nextSequence ? from : nextSequence;
+            if (subscriber.sequenced) {
+                conn.send("SOURCE " + sourceId + " " + start);
+                for (long sequence = start; sequence < nextSequence; sequence++) {
+                    int slot = (int) (sequence % replayData.length);
+                    send(conn, subscriber, sequence, replayPatientIds[slot], replayTimestamps[slot], replayLabels[slot], replayData[slot]);
+                }
+            }
+            connections.add(conn);
+            return start;
+        }
+    }
+
+    //Sends the partly filled frames, so that a slow feed is not held back
+    private void flushFrames() {
         for (WebSocket conn : connections) {
-            try{conn.send(message);}
-            catch(Exception e){
-                System.err.println("failed to send message to WebSocket client: " + conn.getRemoteSocketAddress());
-                e.printStackTrace();
+            BinaryFrameEncoder encoder = ((Subscriber) conn.getAttachment()).encoder;
+            if (encoder == null) continue;
+            try {
+                synchronized (encoder) {
+                    ByteBuffer frames = encoder.drain();
+                    if (frames != null) conn.send(frames);
+                }
+            } catch (Exception e) {
+                System.err.println("failed to send frames to WebSocket client: " + conn.getRemoteSocketAddress());
                 connections.remove(conn);
             }
         }
     }
 
-    private static class SimpleWebSocketServer extends WebSocketServer {
-        private final ConcurrentLinkedQueue<WebSocket> connections;
-        public SimpleWebSocketServer(InetSocketAddress address, ConcurrentLinkedQueue<WebSocket> connections) {
+    //True if the request URL asks for binary frames with a format=binary query parameter
+    static boolean requestsBinary(String resourceDescriptor) {
+        return "binary".equals(queryParameter(resourceDescriptor, "format"));
+    }
+
+    //The value of a query parameter of the request URL, null if it is absent
+    static String queryParameter(String resourceDescriptor, String name) {
+        int query = resourceDescriptor.indexOf('?');
+        if (query < 0) return null;
+        for (String parameter : resourceDescriptor.substring(query + 1).split("&")) {
+            if (parameter.startsWith(name + "=")) return parameter.substring(name.length() + 1);
+        }
+        return null;
+    }
+
+    //How a client wants its samples: its encoder if it asked for binary frames, and whether it resumes
+    private static final class Subscriber {
+        final BinaryFrameEncoder encoder;
+        final boolean sequenced;
+
+        Subscriber(BinaryFrameEncoder encoder, boolean sequenced) {
+            this.encoder = encoder;
+            this.sequenced = sequenced;
+        }
+    }
+
+    private class SimpleWebSocketServer extends WebSocketServer {
+        public SimpleWebSocketServer(InetSocketAddress address) {
             super(address);
-            this.connections = connections;
+            setReuseAddr(true); //a restarted simulator binds while connections of the last run linger
         }
 
         @Override
         public void onOpen(WebSocket conn, org.java_websocket.handshake.ClientHandshake handshake) {
-            System.out.println("New connection: " + conn.getRemoteSocketAddress());
-            connections.add(conn);
+            boolean binary = requestsBinary(handshake.getResourceDescriptor());
+            String resume = queryParameter(handshake.getResourceDescriptor(), "resume");
+            long source = 0;
+            long from = 0;
+            if (resume != null) {
+                int dash = resume.indexOf('-');
+                try {
+                    source = Long.parseLong(resume.substring(0, Math.max(dash, 0)));
+                    from = Long.parseLong(resume.substring(dash + 1));
+                } catch (NumberFormatException e) {
+                    //Resumes from the live stream
+                }
+            }
+            Subscriber subscriber = new Subscriber(binary ? new BinaryFrameEncoder() : null, resume != null);
+            conn.setAttachment(subscriber);
+            long start = subscribe(conn, subscriber, source, from);
+            System.out.println("New connection: " + conn.getRemoteSocketAddress() + (binary ? " (binary frames)" : "")
+                    + (resume != null ? " resuming at " + start : ""));
         }
 
         @Override
@@ -0,0 +1,118 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Result of {@link DataStorage#aggregate}: one row per non-empty time bucket, in
+ * bucket order, holding the requested aggregate functions. Buckets are aligned to
+ * multiples of the bucket width since the UNIX epoch.
+ * Rows are stored in primitive columns, one per requested function.
+ */
+public class Aggregates {
+    /**
+     * The aggregate functions a bucket can be reduced to.
+     */
+    public enum Function {
+        MIN, MAX, MEAN, SUM, COUNT
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long bucketWidth;
+    private final double[][] columns; // indexed by Function ordinal, null when not requested
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private int size;
+    //Bucket being accumulated, folded into the columns once a later bucket arrives
+    private long pendingStart;
+    private double pendingMin;
+    private double pendingMax;
+    private double pendingSum;
+    private long pendingCount;
+
+    Aggregates(long bucketWidth, Function... functions) {
+        if (bucketWidth <= 0) throw new IllegalArgumentException("Bucket width must be positive");
+        if (functions.length == 0) throw new IllegalArgumentException("At least one aggregate function is required");
+        this.bucketWidth = bucketWidth;
+        this.columns = new double[Function.values().length][];
+        for (Function function : functions) columns[function.ordinal()] = new double[INITIAL_CAPACITY];
+    }
+
+    public long getBucketWidth() {
+        return bucketWidth;
+    }
+
+    /**
+     * @return the number of non-empty buckets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row the bucket index, from 0 to size() - 1
+     * @return the start of the bucket, in milliseconds since UNIX epoch
+     */
+    public long getBucketStart(int row) {
+        if (row >= size) throw new IndexOutOfBoundsException("Bucket " + row + " of " + size);
+        return starts[row];
+    }
+
+    /**
+     * @param function one of the functions requested from {@link DataStorage#aggregate}
+     * @param row      the bucket index, from 0 to size() - 1
+     * @return the value of the function over the bucket
+     */
+    public double get(Function function, int row) {
+        double[] column = columns[function.ordinal()];
+        if (column == null) throw new IllegalArgumentException(function + " was not requested");
+        if (row >= size) throw new IndexOutOfBoundsException("Bucket " + row + " of " + size);
+        return column[row];
+    }
+
+    /**
+     * Folds a sample or a pre-aggregated bucket into the requested bucket covering
+     * its start. Input must arrive in time order.
+     */
+    void add(long start, double min, double max, double sum, long count) {
+        long bucket = Math.floorDiv(start, bucketWidth) * bucketWidth;
+        if (pendingCount > 0 && bucket == pendingStart) {
+            pendingMin = Math.min(pendingMin, min);
+            pendingMax = Math.max(pendingMax, max);
+            pendingSum += sum;
+            pendingCount += count;
+            return;
+        }
+        flush();
+        pendingStart = bucket;
+        pendingMin = min;
+        pendingMax = max;
+        pendingSum = sum;
+        pendingCount = count;
+    }
+
+    /**
+     * Completes the last bucket, called once all input was added.
+     */
+    void flush() {
+        if (pendingCount == 0) return;
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            for (int f = 0; f < columns.length; f++) {
+                if (columns[f] != null) columns[f] = Arrays.copyOf(columns[f], size * 2);
+            }
+        }
+        starts[size] = pendingStart;
+        set(Function.MIN, pendingMin);
+        set(Function.MAX, pendingMax);
+        set(Function.MEAN, pendingSum / pendingCount);
+        set(Function.SUM, pendingSum);
+        set(Function.COUNT, pendingCount);
+        size++;
+        pendingCount = 0;
+    }
+
+    private void set(Function function, double value) {
+        double[] column = columns[function.ordinal()];
+        if (column != null) column[size] = value;
+    }
+}
@@ -0,0 +1,13 @@
+package com.data_management;
+
+/**
+ * Receives decoded samples in columnar batches, such as
+ * {@link DataStorage#addPatientDataBatch} or {@link IngestQueue#offer(int[], long[], int[], double[], int)}.
+ * The arrays are reused by the decoder once it returns.
+ */
+public interface BatchSink {
+    /**
+     * @param count the number of rows, starting at index 0
+     */
+    void accept(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count);
+}
@@ -0,0 +1,151 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes the binary frames written by {@link BinaryFrameEncoder} into the
+ * columns of a batch for {@link DataStorage#addPatientDataBatch}, the way
+ * {@link CsvRowParser} does for CSV lines. The type ids of a connection are
+ * mapped to {@link RecordType} ids as their definitions arrive, so a sample
+ * costs a few fixed-offset reads and no allocation.
+ * Samples with a type id that was never defined, or defined with a label that
+ * matches no registered {@link RecordType}, are skipped and counted, frames
+ * of an unknown kind are skipped whole. A SAMPLES frame whose SEQUENCE frame
+ * shows it was already received, replayed after a reconnection, is skipped and
+ * its samples counted as duplicates.
+ * Not thread-safe, use one decoder per connection.
+ */
+final class BinaryFrameDecoder {
+    private final int[] patientIds;
+    private final long[] timestamps;
+    private final int[] recordTypeIds;
+    private final double[] values;
+    private int size;
+    private int[] typeIds = new int[0]; // by wire type id, -1 if undefined
+    private long rows;
+    private long skippedSamples;
+    private long nextSequence; // the first sequence number not received yet, 0 if nothing was
+    private boolean duplicateFrame; // the next SAMPLES frame was received before
+    private long duplicateSamples;
+
+    BinaryFrameDecoder() {
+        this(FileDataReader.BATCH_SIZE);
+    }
+
+    /**
+     * @param batchRows the most rows passed on at once, smaller for decoders that are flushed after every read
+     */
+    BinaryFrameDecoder(int batchRows) {
+        patientIds = new int[batchRows];
+        timestamps = new long[batchRows];
+        recordTypeIds = new int[batchRows];
+        values = new double[batchRows];
+    }
+
+    /**
+     * Decodes the complete frames from the position of in to its limit and
+     * passes the samples on in batches. The position is left at the first
+     * incomplete frame.
+     *
+     * @return false if the input is not a valid frame stream, nothing more can be decoded from it
+     */
+    boolean decode(ByteBuffer in, BatchSink sink) {
+        while (in.remaining() >= BinaryFrameEncoder.HEADER_BYTES) {
+            int start = in.position();
+            if (in.getShort(start) != BinaryFrameEncoder.MAGIC || in.get(start + 2) != BinaryFrameEncoder.VERSION) return false;
+            byte kind = in.get(start + 3);
+            int length = in.getInt(start + 4);
+            if (length < 0 || length > BinaryFrameEncoder.MAX_FRAME_BYTES) return false;
+            if (in.remaining() < BinaryFrameEncoder.HEADER_BYTES + length) break;
+            int body = start + BinaryFrameEncoder.HEADER_BYTES;
+            int end = body + length;
+            if (kind == BinaryFrameEncoder.SAMPLES && duplicateFrame) {
+                duplicateFrame = false;
+                duplicateSamples += length / BinaryFrameEncoder.SAMPLE_BYTES;
+            } else if (kind == BinaryFrameEncoder.SAMPLES) {
+                if (length % BinaryFrameEncoder.SAMPLE_BYTES != 0) return false;
+                for (int at = body; at < end; at += BinaryFrameEncoder.SAMPLE_BYTES) {
+                    int typeId = in.getShort(at + 4);
+                    int recordTypeId = typeId >= 0 && typeId < typeIds.length ? typeIds[typeId] : -1;
+                    if (recordTypeId < 0) {
+                        skippedSamples++;
+                        continue;
+                    }
+                    patientIds[size] = in.getInt(at);
+                    recordTypeIds[size] = recordTypeId;
+                    timestamps[size] = in.getLong(at + 6);
+                    values[size] = in.getDouble(at + 14);
+                    rows++;
+                    if (++size == patientIds.length) flush(sink);
+                }
+            } else if (kind == BinaryFrameEncoder.TYPES) {
+                if (!defineTypes(in, body, end)) return false;
+            } else if (kind == BinaryFrameEncoder.SEQUENCE) {
+                if (length != BinaryFrameEncoder.SEQUENCE_BYTES) return false;
+                long last = in.getLong(body + 8);
+                duplicateFrame = last < nextSequence;
+                if (!duplicateFrame) nextSequence = last + 1;
+            }
+            in.position(end);
+        }
+        return true;
+    }
+
+    /**
+     * Passes on the samples decoded since the last flush.
+     */
+    void flush(BatchSink sink) {
+        if (size == 0) return;
+        sink.accept(patientIds, timestamps, recordTypeIds, values, size);
+        size = 0;
+    }
+
+    long getRowCount() {
+        return rows;
+    }
+
+    long getSkippedSampleCount() {
+        return skippedSamples;
+    }
+
+    /**
+     * @return the sequence number after the last numbered sample received, 0 if none was
+     */
+    long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Carries the position in a source's sequence over from a previous connection.
+     */
+    void setNextSequence(long nextSequence) {
+        this.nextSequence = nextSequence;
+    }
+
+    long getDuplicateSampleCount() {
+        return duplicateSamples;
+    }
+
+    private boolean defineTypes(ByteBuffer in, int at, int end) {
+        while (at < end) {
+            if (end - at < 4) return false;
+            int typeId = in.getShort(at);
+            int nameLength = in.getShort(at + 2);
+            if (typeId < 0 || nameLength <= 0 || end - at - 4 < nameLength) return false;
+            byte[] name = new byte[nameLength];
+            in.get(at + 4, name);
+            if (typeId >= typeIds.length) {
+                int oldLength = typeIds.length;
+                typeIds = Arrays.copyOf(typeIds, Math.max(typeId + 1, oldLength * 2));
+                Arrays.fill(typeIds, oldLength, typeIds.length, -1);
+            }
+            typeIds[typeId] = RecordType.lookup(new String(name, StandardCharsets.UTF_8));
+            at += 4 + nameLength;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,335 @@
+package com.data_management;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses "patientId,timestamp,label,value" lines straight from bytes into the
+ * columns of a batch for {@link DataStorage#addPatientDataBatch}, without
+ * creating a String or any other object per row.
+ * Whitespace around fields and a trailing carriage return are ignored. Lines
+ * written by FileOutputStrategy ("Patient ID: 1, Timestamp: ..., Label: ECG,
+ * Data: 0.5") are recognized by their leading letter and have the name before
+ * each field's colon skipped, and a trailing % is dropped from values. Numbers
+ * are parsed by hand: integers digit by digit, decimals with up to 15
+ * significant digits and a power of ten exponent up to 22 exactly, by a single
+ * multiplication or division of two exact doubles; anything else falls back to
+ * Double.parseDouble, so every value rounds the same as with the JDK. Labels are
+ * interned: each distinct label is resolved in {@link RecordType} once and then
+ * found by its bytes; at most {@link RecordType#MAX_CACHED_LABELS} labels are
+ * interned per parser, so a feed of junk labels cannot grow the table.
+ * A parser reading trusted local files registers unknown labels as new types, as
+ * {@link DataStorage#addPatientData} does; one reading a network feed only looks
+ * them up, and rejects the lines whose label matches no registered type. Those are
+ * counted apart from the malformed lines, and a label registered later is
+ * accepted from then on, as misses are not interned.
+ * Lines with a wrong field count or an unparsable field are skipped and counted.
+ * Not thread-safe, use one parser per thread.
+ */
+final class CsvRowParser {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private final int[] patientIds = new int[FileDataReader.BATCH_SIZE];
+    private final long[] timestamps = new long[FileDataReader.BATCH_SIZE];
+    private final int[] recordTypeIds = new int[FileDataReader.BATCH_SIZE];
+    private final double[] values = new double[FileDataReader.BATCH_SIZE];
+    private int size;
+    private final LabelTable labels;
+    private long rows;
+    private long skippedLines;
+    private long unknownLabels;
+    //Bounds of the current field, trimmed, and where the next one starts
+    private int fieldStart;
+    private int fieldEnd;
+    private int next;
+    private boolean valid;
+    private boolean labeled; // fields are prefixed by their name and a colon
+
+    /**
+     * @param registerLabels true to register unknown labels as new types, for trusted input only
+     */
+    CsvRowParser(boolean registerLabels) {
+        labels = new LabelTable(registerLabels);
+    }
+
+    /**
+     * Parses the complete lines in in[from, limit) and passes them on in batches.
+     * A last line without a line feed is only parsed at the end of the input.
+     *
+     * @param atEnd true if limit is the end of the input
+     * @return the position after the last parsed line, from if no line is complete
+     */
+    int parse(ByteBuffer in, int from, int limit, boolean atEnd, BatchSink sink) {
+        return parse(in, from, limit, limit, atEnd, sink);
+    }
+
+    /**
+     * Parses the lines that start in in[from, lineStartLimit), reading up to limit
+     * to complete the last of them, and passes them on in batches.
+     *
+     * @param atEnd true if limit is the end of the input
+     * @return the position after the last parsed line; below lineStartLimit if a
+     *         line starting before it does not end before limit
+     */
+    int parse(ByteBuffer in, int from, int lineStartLimit, int limit, boolean atEnd, BatchSink sink) {
+        int position = from;
+        while (position < lineStartLimit) {
+            int lineEnd = indexOf(in, (byte) '\n', position, limit);
+            if (lineEnd < 0) {
+                if (!atEnd) break;
+                lineEnd = limit;
+            }
+            parseLine(in, position, lineEnd);
+            if (size == patientIds.length) flush(sink);
+            position = Math.min(lineEnd + 1, limit);
+        }
+        return position;
+    }
+
+    /**
+     * Passes on the rows parsed since the last flush.
+     */
+    void flush(BatchSink sink) {
+        if (size == 0) return;
+        sink.accept(patientIds, timestamps, recordTypeIds, values, size);
+        size = 0;
+    }
+
+    long getRowCount() {
+        return rows;
+    }
+
+    long getSkippedLineCount() {
+        return skippedLines;
+    }
+
+    long getUnknownLabelCount() {
+        return unknownLabels;
+    }
+
+    static int indexOf(ByteBuffer in, byte b, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (in.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    private void parseLine(ByteBuffer in, int start, int end) {
+        next = start;
+        int remaining = end;
+        while (remaining > start && isBlank(in.get(remaining - 1))) remaining--;
+        if (remaining == start) return; // blank line
+        valid = true;
+        int first = start;
+        while (isBlank(in.get(first))) first++;
+        byte lead = in.get(first);
+        labeled = (lead >= 'A' && lead <= 'Z') || (lead >= 'a' && lead <= 'z');
+        long patientId = nextField(in, remaining) ? parseLong(in) : 0;
+        long timestamp = nextField(in, remaining) ? parseLong(in) : 0;
+        boolean hasLabel = nextField(in, remaining) && fieldEnd > fieldStart;
+        int recordTypeId = hasLabel ? labels.resolve(in, fieldStart, fieldEnd) : -1;
+        double value = nextField(in, remaining) && dropPercent(in) ? parseDouble(in) : 0;
+        if (!valid || next <= remaining || !hasLabel || patientId != (int) patientId) {
+            skippedLines++;
+            return;
+        }
+        if (recordTypeId < 0) {
+            unknownLabels++;
+            return;
+        }
+        patientIds[size] = (int) patientId;
+        timestamps[size] = timestamp;
+        recordTypeIds[size] = recordTypeId;
+        values[size] = value;
+        size++;
+        rows++;
+    }
+
+    //Moves to the next comma separated field before end, false if there is none
+    private boolean nextField(ByteBuffer in, int end) {
+        if (next > end) {
+            valid = false;
+            return false;
+        }
+        int start = next;
+        int comma = indexOf(in, (byte) ',', start, end);
+        int stop = comma < 0 ? end : comma;
+        next = stop + 1;
+        if (labeled) {
+            int colon = indexOf(in, (byte) ':', start, stop);
+            if (colon >= 0) start = colon + 1;
+        }
+        while (start < stop && isBlank(in.get(start))) start++;
+        while (stop > start && isBlank(in.get(stop - 1))) stop--;
+        fieldStart = start;
+        fieldEnd = stop;
+        return true;
+    }
+
+    //Values such as saturation may carry their unit
+    private boolean dropPercent(ByteBuffer in) {
+        if (fieldEnd > fieldStart && in.get(fieldEnd - 1) == '%') {
+            fieldEnd--;
+            while (fieldEnd > fieldStart && isBlank(in.get(fieldEnd - 1))) fieldEnd--;
+        }
+        return true;
+    }
+
+    private long parseLong(ByteBuffer in) {
+        int i = fieldStart;
+        boolean negative = i < fieldEnd && in.get(i) == '-';
+        if (negative || (i < fieldEnd && in.get(i) == '+')) i++;
+        if (i == fieldEnd || fieldEnd - i > 18) {
+            //Empty, or too long to rule out an overflow digit by digit
+            return parseLongSlowly(in);
+        }
+        long result = 0;
+        for (; i < fieldEnd; i++) {
+            int digit = in.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                valid = false;
+                return 0;
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    private long parseLongSlowly(ByteBuffer in) {
+        try {
+            return Long.parseLong(text(in));
+        } catch (NumberFormatException e) {
+            valid = false;
+            return 0;
+        }
+    }
+
+    private double parseDouble(ByteBuffer in) {
+        int i = fieldStart;
+        boolean negative = i < fieldEnd && in.get(i) == '-';
+        if (negative || (i < fieldEnd && in.get(i) == '+')) i++;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < fieldEnd; i++) {
+            byte b = in.get(i);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    //Leading zeros are not significant
+                    if (seenPoint) exponent--;
+                    continue;
+                }
+                if (++digits > MAX_EXACT_DIGITS) return parseDoubleSlowly(in);
+                mantissa = mantissa * 10 + (b - '0');
+                if (seenPoint) exponent--;
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) return parseDoubleSlowly(in);
+        if (i < fieldEnd) {
+            //Only an exponent may follow the digits
+            byte b = in.get(i);
+            if (b != 'e' && b != 'E') return parseDoubleSlowly(in);
+            i++;
+            boolean negativeExponent = i < fieldEnd && in.get(i) == '-';
+            if (negativeExponent || (i < fieldEnd && in.get(i) == '+')) i++;
+            if (i == fieldEnd || fieldEnd - i > 3) return parseDoubleSlowly(in);
+            int written = 0;
+            for (; i < fieldEnd; i++) {
+                int digit = in.get(i) - '0';
+                if (digit < 0 || digit > 9) return parseDoubleSlowly(in);
+                written = written * 10 + digit;
+            }
+            exponent += negativeExponent ? -written : written;
+        }
+        if (exponent < -22 || exponent > 22) return parseDoubleSlowly(in);
+        //Both operands are exact doubles, so the single rounding of the operation is the correct one
+        double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlowly(ByteBuffer in) {
+        try {
+            return Double.parseDouble(text(in));
+        } catch (NumberFormatException e) {
+            valid = false;
+            return 0;
+        }
+    }
+
+    private String text(ByteBuffer in) {
+        byte[] bytes = new byte[fieldEnd - fieldStart];
+        in.get(fieldStart, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    //Open-addressing table from label bytes to record type id
+    private static final class LabelTable {
+        private final boolean register;
+        private byte[][] keys = new byte[64][];
+        private int[] ids = new int[64];
+        private int size;
+
+        LabelTable(boolean register) {
+            this.register = register;
+        }
+
+        int resolve(ByteBuffer in, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) hash = 31 * hash + in.get(i);
+            int mask = keys.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for (byte[] key; (key = keys[slot]) != null; slot = (slot + 1) & mask) {
+                if (matches(key, in, start, end)) return ids[slot];
+            }
+            byte[] key = new byte[end - start];
+            in.get(start, key);
+            String label = new String(key, StandardCharsets.UTF_8);
+            int id = register ? RecordType.resolve(label) : RecordType.lookup(label);
+            if (id < 0 || size >= RecordType.MAX_CACHED_LABELS) return id;
+            keys[slot] = key;
+            ids[slot] = id;
+            if (++size * 2 > keys.length) rehash();
+            return id;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer in, int start, int end) {
+            if (key.length != end - start) return false;
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != in.get(start + i)) return false;
+            }
+            return true;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            ids = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int s = 0; s < oldKeys.length; s++) {
+                byte[] key = oldKeys[s];
+                if (key == null) continue;
+                int hash = 0;
+                for (byte b : key) hash = 31 * hash + b;
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = key;
+                ids[slot] = oldIds[s];
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.data_management;
 import com.alerts.AlertGenerator;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 /*
   Entrypoint for batch or real-time ingest of CSV‐formatted health data.
@@ -21,7 +22,11 @@ public class DataIngestionMain {
         if (args.length < 2) {
             System.err.println("Usage:");
             System.err.println("  java com.data_management.DataIngestionMain file <path/to/data.csv>");
+            System.err.println("  java com.data_management.DataIngestionMain mapped <path/to/large.csv>");
+            System.err.println("  java com.data_management.DataIngestionMain parallel <path/to/large.csv or directory>");
+            System.err.println("  java com.data_management.DataIngestionMain follow <path/to/file or directory> [path/to/checkpoint]");
             System.err.println("  java com.data_management.DataIngestionMain ws   <ws://host:port>");
+            System.err.println("  java com.data_management.DataIngestionMain tcp  <listen:port or host:port, comma separated>");
             System.exit(1);
         }
 
@@ -38,34 +43,66 @@ public class DataIngestionMain {
                 reader.readData(storage, source);
                 break;
 
+            case "mapped":
+                // batch-mode for large files: memory-mapped, parsed from bytes
+                MappedCsvReader mapped = new MappedCsvReader();
+                mapped.readData(storage, source);
+                printThroughput(mapped.getRowCount(), mapped.getByteCount(), mapped.getSkippedLineCount(), mapped.getElapsedNanos());
+                break;
+
+            case "parallel":
+                // batch-mode for large files or directories: chunks parsed and stored on all cores
+                ParallelCsvReader parallel = new ParallelCsvReader();
+                parallel.readData(storage, source);
+                printThroughput(parallel.getRowCount(), parallel.getByteCount(), parallel.getSkippedLineCount(), parallel.getElapsedNanos());
+                break;
+
+            case "follow":
+                // real-time mode: tail a growing file or directory, resuming from the checkpoint
+                TailingFileReader tailing = new TailingFileReader(args.length > 2 ? Path.of(args[2]) : null);
+                tailing.readData(storage, source);
+                break;
+
             case "ws":
                 // real-time mode: connect to WebSocket server
                 reader = new WebSocketDataReader();
                 reader.readData(storage, source);
                 break;
 
+            case "tcp":
+                // real-time mode: accept producer connections, or connect to the simulator, on one selector thread
+                reader = new TcpDataReader();
+                reader.readData(storage, source);
+                break;
+
             default:
                 System.err.println("Unknown mode: " + mode);
                 System.exit(2);
         }
-        System.out.println("----- All patients and their records -----");
-        for (Patient p : storage.getAllPatients()) {
-            System.out.println("Patient " + p.getPatientId() + ":");
-            for (PatientRecord rec : p.getRecords(Long.MIN_VALUE, Long.MAX_VALUE)) {
-                System.out.printf("  [%d] %s = %.2f%n",
-                        rec.getTimestamp(), rec.getRecordType(), rec.getMeasurementValue());
+        if (!mode.equals("mapped") && !mode.equals("parallel")) { // too many records to print for the files that mode is meant for
+            System.out.println("----- All patients and their records -----");
+            for (Patient p : storage.getAllPatients()) {
+                System.out.println("Patient " + p.getPatientId() + ":");
+                for (PatientRecord rec : p.getRecords(Long.MIN_VALUE, Long.MAX_VALUE)) {
+                    System.out.printf("  [%d] %s = %.2f%n",
+                            rec.getTimestamp(), rec.getRecordType(), rec.getMeasurementValue());
 
-            }
+                }
 
+            }
         }
         System.out.println("----- Evaluating alerts -----");
         AlertGenerator alertGen = new AlertGenerator(storage);
-        for (Patient p : storage.getAllPatients()) {
-            alertGen.evaluateData(p);
-        }
+        storage.forEachPatient(alertGen::evaluateData);
         System.out.println("Alert evaluation finished.");
 
 
         System.out.println("Data ingestion finished.");
     }
+
+    private static void printThroughput(long rows, long bytes, long skippedLines, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("Read %d rows (%.1f MB, %d skipped lines) in %.2f s: %.0f rows/s, %.1f MB/s%n",
+                rows, bytes / 1e6, skippedLines, seconds, rows / seconds, bytes / 1e6 / seconds);
+    }
 }
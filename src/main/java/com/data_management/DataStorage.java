@@ -1,10 +1,20 @@
 package com.data_management;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
 
 import com.alerts.AlertGenerator;
 
@@ -13,10 +23,434 @@ import com.alerts.AlertGenerator;
  * system.
  * This class serves as a repository for all patient records, organized by
  * patient IDs.
+ * An optional {@link RetentionPolicy} bounds memory by compacting old raw samples
+ * into minute and hour rollups, and an optional {@link WriteAheadLog} makes the
+ * stored samples survive a restart.
+ * A storage opened from a directory also takes checkpoints: a memory-mapped
+ * snapshot of every patient plus the log segments written since, so a restart
+ * only maps the snapshot and replays the log tail, and patients are decoded from
+ * the snapshot the first time they are accessed.
+ * Recent samples are also kept in a {@link PopulationIndex}, which answers
+ * questions across patients, such as who had a low saturation in the last minutes,
+ * without scanning every patient.
+ * With a cold tier enabled, old sealed chunks beyond a heap budget are spilled to
+ * segment files and read back on demand; queries span both tiers transparently.
+ * With hibernation enabled, patients that stopped receiving data are written to
+ * disk and dropped from memory, and reloaded on their next access, so the heap
+ * tracks the active patients rather than every patient ever seen.
+ * Samples may arrive out of order, e.g. from a reconnecting feed replaying old
+ * data; they are merged into the sorted series, so readers never sort. With
+ * watermarks enabled, samples too far behind their series' event time are
+ * routed to a side channel instead, and evaluators are told about the others.
  */
 public class DataStorage {
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
     //Thread-safe map for concurrent access by real-time data inputs
     private final Map<Integer, Patient> patientMap = new ConcurrentHashMap<>(); // Stores patient objects indexed by their unique patient ID.
+    private final RetentionPolicy retention;
+    private final PopulationIndex index;
+    private final Path directory; // null unless the storage takes checkpoints
+    private WriteAheadLog log; // null when the storage is not durable, set while opening
+    private volatile Snapshot snapshot; // patients not accessed yet are decoded from it, null if none
+    private final Object checkpointLock = new Object();
+    private long walSequence; // segment the log currently writes to, guarded by checkpointLock
+    private ScheduledExecutorService checkpointer; // guarded by checkpointLock
+    private volatile HibernationStore hibernation; // null until hibernation is enabled, set under checkpointLock
+    private long idleMillis; // guarded by checkpointLock
+    private ScheduledExecutorService hibernator; // guarded by checkpointLock
+    private final Object spillLock = new Object();
+    private SegmentStore coldStore; // null until the cold tier is enabled, guarded by spillLock
+    private long hotBudget; // guarded by spillLock
+    private ScheduledExecutorService spiller; // guarded by spillLock
+    private volatile Watermarks watermarks; // null until watermarks are enabled
+    private final AtomicLong outOfOrderCount = new AtomicLong();
+    private final AtomicLong lateCount = new AtomicLong();
+    private static final ThreadLocal<LateSample> LATE_SAMPLE = ThreadLocal.withInitial(LateSample::new);
+
+    //Set once by enableWatermarks, read by every writer
+    private static final class Watermarks {
+        final long allowedLateness;
+        final BatchSink lateSink; // null to drop late samples
+        final LateDataListener listener; // null if nobody is told
+
+        Watermarks(long allowedLateness, BatchSink lateSink, LateDataListener listener) {
+            this.allowedLateness = allowedLateness;
+            this.lateSink = lateSink;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Creates a storage that keeps every sample.
+     */
+    public DataStorage() {
+        this(RetentionPolicy.KEEP_ALL);
+    }
+
+    /**
+     * Creates a storage that compacts old data according to a retention policy,
+     * e.g. 24 hours of raw ECG followed by minute and hour rollups.
+     *
+     * @param retention how long raw samples and rollups are kept per record type
+     */
+    public DataStorage(RetentionPolicy retention) {
+        this(retention, null);
+    }
+
+    private DataStorage(RetentionPolicy retention, Path directory) {
+        this.retention = retention;
+        this.index = new PopulationIndex(retention.getIndexRetention());
+        this.directory = directory;
+    }
+
+    /**
+     * Opens a durable storage backed by a write-ahead log. The patient map is first
+     * rebuilt by replaying the log, then every newly stored sample is appended to it.
+     * Samples are fsynced in groups every syncIntervalMillis, so a crash loses at
+     * most that interval.
+     *
+     * @param logFile            the log file, created if it does not exist
+     * @param retention          how long raw samples and rollups are kept per record type
+     * @param syncIntervalMillis the group commit interval; 0 fsyncs every sample
+     * @return the recovered storage
+     * @throws IOException if the log cannot be read or opened for appending
+     */
+    public static DataStorage recover(Path logFile, RetentionPolicy retention, long syncIntervalMillis) throws IOException {
+        DataStorage storage = new DataStorage(retention, null);
+        storage.log = WriteAheadLog.open(logFile, syncIntervalMillis, storage::replay);
+        return storage;
+    }
+
+    /**
+     * Opens a durable storage that keeps a snapshot and write-ahead log segments in
+     * a directory. Startup maps the last snapshot, replays only the log segments
+     * written after it, and leaves every other patient in the snapshot until it is
+     * first accessed. Call {@link #checkpoint()} or {@link #scheduleCheckpoints(long)}
+     * to write new snapshots.
+     *
+     * @param directory          the data directory, created if it does not exist
+     * @param retention          how long raw samples and rollups are kept per record type
+     * @param syncIntervalMillis the group commit interval of the log; 0 fsyncs every sample
+     * @return the recovered storage
+     * @throws IOException if the snapshot or the log cannot be read or opened
+     */
+    public static DataStorage open(Path directory, RetentionPolicy retention, long syncIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        DataStorage storage = new DataStorage(retention, directory);
+        Path snapshotFile = directory.resolve(Snapshot.FILE_NAME);
+        long first = 0;
+        if (Files.exists(snapshotFile)) {
+            storage.snapshot = Snapshot.open(snapshotFile);
+            first = storage.snapshot.getWalSequence();
+        }
+        List<Long> sequences = new ArrayList<>();
+        for (long sequence : segmentSequences(directory)) {
+            //Segments before the snapshot are left over from a checkpoint that stopped before cleaning up
+            if (sequence < first) Files.delete(segment(directory, sequence));
+            else sequences.add(sequence);
+        }
+        if (sequences.isEmpty()) sequences.add(first);
+        for (int i = 0; i < sequences.size(); i++) {
+            WriteAheadLog segmentLog = WriteAheadLog.open(segment(directory, sequences.get(i)), syncIntervalMillis, storage::replay);
+            if (i < sequences.size() - 1) segmentLog.close();
+            else storage.log = segmentLog;
+        }
+        storage.walSequence = sequences.get(sequences.size() - 1);
+        return storage;
+    }
+
+    private void replay(int patientId, int recordTypeId, long timestamp, double value) {
+        if (patientFor(patientId).addRecord(value, recordTypeId, timestamp)) index.add(patientId, recordTypeId, timestamp, value);
+    }
+
+    private static Path segment(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    //Sequence numbers of the log segments in the directory, ascending
+    private static List<Long> segmentSequences(Path directory) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    //Not a segment
+                }
+            }
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    /**
+     * Writes a snapshot of every patient and drops the log segments it covers.
+     * The log is first rotated to a new segment, then each patient is copied under
+     * its own lock only, so addPatientData keeps running while the snapshot is
+     * written. Patients still waiting in the previous snapshot are carried over
+     * without being decoded.
+     *
+     * @throws IOException           if the snapshot or the new log segment cannot be written
+     * @throws IllegalStateException if the storage was not opened with {@link #open}
+     */
+    public void checkpoint() throws IOException {
+        if (directory == null) throw new IllegalStateException("Checkpoints need a storage opened with DataStorage.open");
+        synchronized (checkpointLock) {
+            long next = walSequence + 1;
+            log.rotate(segment(directory, next));
+            walSequence = next;
+            //Every sample logged before the rotation is already in its patient, so the snapshot covers all earlier segments
+            Path snapshotFile = directory.resolve(Snapshot.FILE_NAME);
+            Snapshot.write(snapshotFile, next, patientMap, hibernation, snapshot);
+            snapshot = Snapshot.open(snapshotFile);
+            for (long sequence : segmentSequences(directory)) {
+                if (sequence < next) Files.deleteIfExists(segment(directory, sequence));
+            }
+        }
+    }
+
+    /**
+     * Takes a checkpoint in the background every intervalMillis until the storage
+     * is closed.
+     *
+     * @param intervalMillis the time between the end of one checkpoint and the start of the next
+     * @throws IllegalStateException if the storage was not opened with {@link #open}
+     */
+    public void scheduleCheckpoints(long intervalMillis) {
+        if (directory == null) throw new IllegalStateException("Checkpoints need a storage opened with DataStorage.open");
+        synchronized (checkpointLock) {
+            if (checkpointer != null) checkpointer.shutdown();
+            checkpointer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "storage-checkpointer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Enables hibernation: a patient that stored no sample for idleMillis is
+     * written to its own file in a directory, in the snapshot format, and dropped
+     * from memory. The next access through this storage, such as addPatientData,
+     * getRecords or getPatient, reloads it transparently; reloads are counted, see
+     * {@link #getPatientReloadCount()}. Idle patients are found by a sweep that runs
+     * every sweepIntervalMillis until the storage is closed, so a patient is
+     * hibernated between idleMillis and idleMillis plus one interval after its last
+     * sample. Hibernated patients are skipped by {@link #forEachPatient} and
+     * {@link #getAllPatients}, which serve the live patients, and are included in
+     * checkpoints. Patient objects obtained before a patient was hibernated stay
+     * readable but refuse writes.
+     * Like the cold tier, the files only back the heap: they are deleted when the
+     * storage is reopened, durability comes from the snapshot and the write-ahead log.
+     *
+     * @param directory           the directory of the patient files, created if it does not exist
+     * @param idleMillis          how long a patient must go without new samples to be hibernated
+     * @param sweepIntervalMillis the time between the end of one sweep and the start of the next
+     * @throws IOException           if the directory cannot be prepared
+     * @throws IllegalStateException if hibernation is already enabled
+     */
+    public void enableHibernation(Path directory, long idleMillis, long sweepIntervalMillis) throws IOException {
+        if (idleMillis < 0) throw new IllegalArgumentException("Idle period must not be negative");
+        synchronized (checkpointLock) {
+            if (hibernation != null) throw new IllegalStateException("Hibernation is already enabled");
+            this.idleMillis = idleMillis;
+            hibernation = HibernationStore.open(directory, retention);
+            hibernator = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "storage-hibernator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            hibernator.scheduleWithFixedDelay(this::hibernateQuietly, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a hibernation sweep now: patients that stored samples since the previous
+     * sweep start a new idle period, patients idle for the configured period are
+     * written to disk and dropped from memory. Files of patients reloaded since the
+     * previous sweep are deleted. Runs under the checkpoint lock, so a sweep and a
+     * checkpoint never overlap.
+     *
+     * @return the number of patients hibernated
+     * @throws IOException           if a patient cannot be written, the patients written so far stay hibernated
+     * @throws IllegalStateException if hibernation is not enabled
+     */
+    public int hibernateIdlePatients() throws IOException {
+        synchronized (checkpointLock) {
+            HibernationStore store = hibernation;
+            if (store == null) throw new IllegalStateException("Hibernation is not enabled");
+            store.deleteReloaded();
+            long now = System.currentTimeMillis();
+            int hibernated = 0;
+            for (Patient patient : patientMap.values()) {
+                if (!patient.hibernateIfIdle(now, idleMillis, store)) continue;
+                patientMap.remove(patient.getPatientId(), patient);
+                hibernated++;
+            }
+            return hibernated;
+        }
+    }
+
+    private void hibernateQuietly() {
+        try {
+            hibernateIdlePatients();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Hibernation sweep failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of patients currently hibernated on disk
+     */
+    public int getHibernatedPatientCount() {
+        HibernationStore store = hibernation;
+        return store == null ? 0 : store.size();
+    }
+
+    /**
+     * @return how many times a hibernated patient was reloaded into memory
+     */
+    public long getPatientReloadCount() {
+        HibernationStore store = hibernation;
+        return store == null ? 0 : store.getReloadCount();
+    }
+
+    /**
+     * Enables the cold tier: sealed chunks are spilled to segment files in a
+     * directory once the sealed chunks on the heap exceed a budget, oldest first,
+     * so recent data stays in memory. A spill pass runs every intervalMillis until
+     * the storage is closed. Queries read spilled chunks back from disk on demand.
+     * The budget covers sealed chunks only, the raw head chunk of every series,
+     * the rollups and the indexes always stay on the heap.
+     * Segment files only back the heap: they are deleted when the storage is
+     * reopened, durability comes from the snapshot and the write-ahead log.
+     *
+     * @param directory      the directory of the segment files, created if it does not exist
+     * @param hotBudgetBytes the heap bytes sealed chunks may use
+     * @param intervalMillis the time between the end of one spill pass and the start of the next
+     * @throws IOException           if the directory cannot be prepared
+     * @throws IllegalStateException if the cold tier is already enabled
+     */
+    public void enableColdTier(Path directory, long hotBudgetBytes, long intervalMillis) throws IOException {
+        if (hotBudgetBytes < 0) throw new IllegalArgumentException("Hot budget must not be negative");
+        synchronized (spillLock) {
+            if (coldStore != null) throw new IllegalStateException("The cold tier is already enabled");
+            coldStore = SegmentStore.open(directory);
+            hotBudget = hotBudgetBytes;
+            spiller = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "storage-spiller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            spiller.scheduleWithFixedDelay(this::spillQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a spill pass now: if the sealed chunks on the heap exceed the hot
+     * budget, the oldest of them are written to the segment files until about 90%
+     * of the budget is used, so the next passes do not spill a chunk at a time.
+     * Each patient is only locked while its chunks are swapped for their spilled
+     * form, readers never wait for the disk.
+     *
+     * @return the heap bytes released
+     * @throws IOException           if a segment cannot be written
+     * @throws IllegalStateException if the cold tier is not enabled
+     */
+    public long spillColdChunks() throws IOException {
+        synchronized (spillLock) {
+            if (coldStore == null) throw new IllegalStateException("The cold tier is not enabled");
+            LongStream.Builder ends = LongStream.builder();
+            long hotBytes = 0;
+            for (Patient patient : patientMap.values()) hotBytes += patient.hotChunks(ends);
+            if (hotBytes <= hotBudget) return 0;
+            long[] lastTimestamps = ends.build().toArray();
+            Arrays.sort(lastTimestamps);
+            //Chunks are about the same size, so spill the oldest share that brings the heap under the target
+            double share = (hotBytes - hotBudget * 0.9) / hotBytes;
+            int spilled = (int) Math.min(lastTimestamps.length, Math.ceil(share * lastTimestamps.length));
+            long cutoff = lastTimestamps[spilled - 1];
+            long released = 0;
+            for (Patient patient : patientMap.values()) released += patient.spill(cutoff, coldStore);
+            return released;
+        }
+    }
+
+    private void spillQuietly() {
+        try {
+            spillColdChunks();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Spill failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of segment files the cold tier currently uses, 0 if it is not enabled
+     */
+    public int getColdSegmentCount() {
+        synchronized (spillLock) {
+            return coldStore == null ? 0 : coldStore.segmentCount();
+        }
+    }
+
+    //Single-row batch reused per ingest thread to pass a late sample to the sink
+    private static final class LateSample {
+        final int[] patientIds = new int[1];
+        final long[] timestamps = new long[1];
+        final int[] recordTypeIds = new int[1];
+        final double[] values = new double[1];
+    }
+
+    /**
+     * Enables event-time watermarks. Every record type of every patient is a
+     * source, fed by its own generator or file, whose event time is the newest
+     * timestamp stored for it; its watermark trails that by the allowed lateness,
+     * so one source running ahead never makes another late. Duplicates are
+     * dropped first, as always. A new sample at or above the watermark is stored
+     * even when it is older than the event time: it is merged into the sorted
+     * series, indexed and logged like any other, and the listener is told so it
+     * can re-evaluate the patient. A new sample below the watermark is not stored;
+     * it is passed to the late sink, if any, and counted, see {@link #getLateSampleCount()}.
+     * The log replay at startup is not subject to watermarks.
+     *
+     * @param allowedLateness how far behind its source's event time a sample is still stored, in milliseconds
+     * @param lateSink        receives the samples below the watermark, on the ingest thread, or null to drop them
+     * @param listener        told about samples stored out of order, or null
+     * @throws IllegalStateException if watermarks are already enabled
+     */
+    public void enableWatermarks(long allowedLateness, BatchSink lateSink, LateDataListener listener) {
+        if (allowedLateness < 0) throw new IllegalArgumentException("Allowed lateness must not be negative");
+        synchronized (checkpointLock) {
+            if (watermarks != null) throw new IllegalStateException("Watermarks are already enabled");
+            watermarks = new Watermarks(allowedLateness, lateSink, listener);
+        }
+    }
+
+    /**
+     * @return the samples stored behind their source's event time, merged into the series
+     */
+    public long getOutOfOrderSampleCount() {
+        return outOfOrderCount.get();
+    }
+
+    /**
+     * @return the samples below their source's watermark, routed to the late sink instead of being stored
+     */
+    public long getLateSampleCount() {
+        return lateCount.get();
+    }
 
     /**
      * Adds or updates data for a patient
@@ -29,11 +463,173 @@ public class DataStorage {
      * @param timestamp        the time at which the measurement was taken, in
      *                         milliseconds since the Unix epoch
      */
-    public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {patientMap.computeIfAbsent(patientId, id -> new Patient(id)).addRecord(measurementValue, recordType, timestamp);}
+    public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {addPatientData(patientId, measurementValue, RecordType.resolve(recordType), timestamp);}
+
+    /**
+     * Adds data for a patient whose record type was already resolved through {@link RecordType}
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordTypeId     the {@link RecordType} id of the record
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     * @throws IllegalArgumentException if the type id is not registered
+     */
+    public void addPatientData(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+        if (recordTypeId < 0 || recordTypeId >= RecordType.count()) throw new IllegalArgumentException("Unknown record type id " + recordTypeId);
+        Watermarks current = watermarks;
+        long allowedLateness = current == null ? RetentionPolicy.UNLIMITED : current.allowedLateness;
+        Patient patient = patientFor(patientId);
+        int stored;
+        while ((stored = patient.tryAddRecord(recordTypeId, timestamp, measurementValue, allowedLateness)) == Patient.HIBERNATED) patient = reload(patient);
+        if (stored == Patient.TOO_LATE) {
+            lateCount.incrementAndGet();
+            if (current.lateSink != null) {
+                LateSample late = LATE_SAMPLE.get();
+                late.patientIds[0] = patientId;
+                late.timestamps[0] = timestamp;
+                late.recordTypeIds[0] = recordTypeId;
+                late.values[0] = measurementValue;
+                current.lateSink.accept(late.patientIds, late.timestamps, late.recordTypeIds, late.values, 1);
+            }
+            return;
+        }
+        //Only samples that were actually stored are indexed and logged, duplicates never reach the log
+        if (stored > 0) {
+            index.add(patientId, recordTypeId, timestamp, measurementValue);
+            if (log != null) log.append(patientId, recordTypeId, timestamp, measurementValue);
+        }
+        if (stored == Patient.STORED_OUT_OF_ORDER) {
+            outOfOrderCount.incrementAndGet();
+            if (current != null && current.listener != null) current.listener.onLateData(patientId, timestamp);
+        }
+    }
+
+    /**
+     * Adds a columnar batch of samples, e.g. everything a reader received in one
+     * burst. The batch is grouped by patient, keeping the order of each patient's
+     * rows, and every patient's rows are stored under a single acquisition of its
+     * lock with a single map lookup. The stored rows are indexed per patient and
+     * written to the log, if any, in one append, so per-sample overhead is paid
+     * once per patient and once per batch instead of once per sample.
+     * With watermarks enabled, the rows below their source's watermark are passed
+     * to the late sink in one batch, and the listener is told once per patient.
+     *
+     * @param patientIds    the patient of each row
+     * @param timestamps    the timestamp of each row, in milliseconds since the Unix epoch
+     * @param recordTypeIds the {@link RecordType} id of each row
+     * @param values        the measured value of each row
+     * @param count         the number of rows, starting at index 0
+     * @return the number of rows stored, duplicates are not counted
+     * @throws IllegalArgumentException if an array holds fewer than count rows or a type id is not registered
+     */
+    public int addPatientDataBatch(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+        if (count < 0 || patientIds.length < count || timestamps.length < count || recordTypeIds.length < count || values.length < count) {
+            throw new IllegalArgumentException("Batch arrays hold fewer than " + count + " rows");
+        }
+        int types = RecordType.count();
+        //Sort rows by patient, the row index in the low bits keeps each patient's rows in order
+        long[] order = new long[count];
+        for (int row = 0; row < count; row++) {
+            if (recordTypeIds[row] < 0 || recordTypeIds[row] >= types) throw new IllegalArgumentException("Unknown record type id " + recordTypeIds[row]);
+            order[row] = ((long) patientIds[row] << 32) | row;
+        }
+        Arrays.sort(order);
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) rows[i] = (int) order[i];
+
+        Watermarks current = watermarks;
+        long allowedLateness = current == null ? RetentionPolicy.UNLIMITED : current.allowedLateness;
+        int[] stored = new int[count];
+        int storedCount = 0;
+        int late = 0;
+        long[] outOfOrder = new long[2];
+        for (int from = 0, to; from < count; from = to) {
+            int patientId = patientIds[rows[from]];
+            to = from + 1;
+            while (to < count && patientIds[rows[to]] == patientId) to++;
+            Patient patient = patientFor(patientId);
+            int n;
+            outOfOrder[0] = 0;
+            outOfOrder[1] = Long.MAX_VALUE;
+            while ((n = patient.addRecords(rows, from, to, recordTypeIds, timestamps, values, stored, storedCount, allowedLateness, outOfOrder)) == Patient.HIBERNATED) {
+                patient = reload(patient);
+            }
+            index.add(patientId, recordTypeIds, timestamps, values, stored, storedCount, storedCount + n);
+            storedCount += n;
+            if (allowedLateness != RetentionPolicy.UNLIMITED) {
+                for (int i = from; i < to; i++) if (rows[i] < 0) late++;
+            }
+            if (outOfOrder[0] > 0) {
+                outOfOrderCount.addAndGet(outOfOrder[0]);
+                if (current != null && current.listener != null) current.listener.onLateData(patientId, outOfOrder[1]);
+            }
+        }
+        if (log != null && storedCount > 0) log.append(patientIds, recordTypeIds, timestamps, values, stored, storedCount);
+        if (late > 0) routeLate(current, rows, patientIds, timestamps, recordTypeIds, values, late);
+        return storedCount;
+    }
+
+    //Counts the rows addRecords refused as too late, flipped to ~row, and passes them to the late sink in their original order
+    private void routeLate(Watermarks current, int[] rows, int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int late) {
+        lateCount.addAndGet(late);
+        if (current.lateSink == null) return;
+        int[] lateRows = new int[late];
+        int n = 0;
+        for (int row : rows) if (row < 0) lateRows[n++] = ~row;
+        Arrays.sort(lateRows);
+        int[] latePatientIds = new int[late];
+        long[] lateTimestamps = new long[late];
+        int[] lateRecordTypeIds = new int[late];
+        double[] lateValues = new double[late];
+        for (int i = 0; i < late; i++) {
+            int row = lateRows[i];
+            latePatientIds[i] = patientIds[row];
+            lateTimestamps[i] = timestamps[row];
+            lateRecordTypeIds[i] = recordTypeIds[row];
+            lateValues[i] = values[row];
+        }
+        current.lateSink.accept(latePatientIds, lateTimestamps, lateRecordTypeIds, lateValues, late);
+    }
+
+    private Patient patientFor(int patientId) {
+        return patientMap.computeIfAbsent(patientId, this::loadOrCreatePatient);
+    }
+
+    //A writer raced with the sweep that hibernated the patient, drop it if the sweep has not yet and load it back
+    private Patient reload(Patient hibernated) {
+        patientMap.remove(hibernated.getPatientId(), hibernated);
+        return patientFor(hibernated.getPatientId());
+    }
+
+    private boolean isHibernated(int patientId) {
+        HibernationStore store = hibernation;
+        return store != null && store.contains(patientId);
+    }
+
+    private Patient loadOrCreatePatient(int patientId) {
+        HibernationStore store = hibernation;
+        Patient reloaded = store == null ? null : store.reload(patientId);
+        //Its samples are still in the population index, which is never purged of hibernated patients
+        if (reloaded != null) return reloaded;
+        Snapshot pending = snapshot;
+        Patient patient = pending == null ? null : pending.load(patientId, retention);
+        if (patient == null) return new Patient(patientId, retention);
+        //Samples restored from a snapshot enter the population index when their patient is first accessed
+        for (int recordTypeId = 0; recordTypeId < RecordType.count(); recordTypeId++) {
+            PatientRecord latest = patient.getLatest(recordTypeId);
+            if (latest == null) continue;
+            int typeId = recordTypeId;
+            patient.forEachRecord(typeId, RetentionPolicy.cutoff(latest.getTimestamp(), retention.getIndexRetention()), latest.getTimestamp(),
+                    (timestamp, value) -> index.add(patientId, typeId, timestamp, value));
+        }
+        return patient;
+    }
 
     /**
      * Retrieves a list of PatientRecord objects for a specific patient, filtered by
-     * a time range.
+     * a time range. Parts of the range older than the raw retention are returned
+     * as one record per rollup bucket holding the bucket mean.
      *
      * @param patientId the unique identifier of the patient whose records are to be
      *                  retrieved
@@ -45,20 +641,211 @@ public class DataStorage {
      *         range
      */
     public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
-        Patient patient = patientMap.get(patientId);
+        Patient patient = getPatient(patientId);
         if (patient != null) return patient.getRecords(startTime, endTime);
         return new ArrayList<>(); // return an empty list if no patient is found
     }
 
+    /**
+     * Passes the samples of one record type of a patient within a time range to a
+     * visitor, in timestamp order. Unlike {@link #getRecords} this allocates no
+     * PatientRecord or list, so it suits loops that scan every patient repeatedly.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, any alias known to {@link RecordType}
+     * @param startTime  the start of the time range, in milliseconds since the Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix epoch
+     * @param visitor    receives each sample's timestamp and value
+     */
+    public void forEachRecord(int patientId, String recordType, long startTime, long endTime, SampleVisitor visitor) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) patient.forEachRecord(RecordType.lookup(recordType), startTime, endTime, visitor);
+    }
+
+    /**
+     * Retrieves the newest sample of one record type of a patient, e.g. the
+     * current saturation. Costs O(1): the newest sample of every type is cached
+     * on insert and read without scanning or locking.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, any alias known to {@link RecordType}
+     * @return the newest record, or null if the patient has no sample of that type
+     */
+    public PatientRecord getLatest(int patientId, String recordType) {
+        Patient patient = getPatient(patientId);
+        return patient == null ? null : patient.getLatest(RecordType.lookup(recordType));
+    }
+
+    /**
+     * Retrieves the newest n samples of one record type of a patient, ordered by
+     * timestamp.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, any alias known to {@link RecordType}
+     * @param n          the maximum number of records
+     * @return up to n records, oldest first, empty if the patient or type is unknown
+     */
+    public List<PatientRecord> getLatest(int patientId, String recordType, int n) {
+        Patient patient = getPatient(patientId);
+        return patient == null ? new ArrayList<>() : patient.getLatest(RecordType.lookup(recordType), n);
+    }
+
+    /**
+     * Collects the newest sample of each given record type for every patient, e.g.
+     * the current saturation and blood pressure of the whole ward. Each patient is
+     * read from its latest-value cache without locking, so a ward of thousands of
+     * patients takes a few hundred microseconds.
+     *
+     * @param recordTypes the record types, any alias known to {@link RecordType}
+     * @return one row per patient
+     * @throws IllegalArgumentException if no record type is given
+     */
+    public LatestValues getLatestValues(String... recordTypes) {
+        if (recordTypes.length == 0) throw new IllegalArgumentException("At least one record type is required");
+        int[] recordTypeIds = new int[recordTypes.length];
+        for (int i = 0; i < recordTypes.length; i++) recordTypeIds[i] = RecordType.lookup(recordTypes[i]);
+        LatestValues latest = new LatestValues(recordTypeIds, patientMap.size());
+        forEachPatient(latest::add);
+        return latest;
+    }
+
+    /**
+     * Finds the patients that had a sample of a record type with a value within
+     * [low, high] during [startTime, endTime], e.g. everyone whose saturation was
+     * between 85 and 90 in the last 5 minutes. Served from the population index:
+     * buckets and patients whose bounds miss the value range are skipped without
+     * touching their samples, so the cost grows with the patients active in the
+     * time range rather than with all patients and all samples. Only samples
+     * within the index retention of the {@link RetentionPolicy} are searched, and
+     * after a restart only patients accessed since then.
+     *
+     * @param recordType the type of record, any alias known to {@link RecordType}
+     * @param startTime  the start of the time range, in milliseconds since the Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix epoch
+     * @param low        the lowest matching value, inclusive
+     * @param high       the highest matching value, inclusive
+     * @return the ids of the matching patients, sorted
+     */
+    public int[] findPatients(String recordType, long startTime, long endTime, double low, double high) {
+        return index.query(RecordType.lookup(recordType), startTime, endTime, low, high, this::hasSampleWithin);
+    }
+
+    /**
+     * Finds the patients that had a sample of a record type strictly below a
+     * threshold during a time range, e.g. Saturation below 92, see {@link #findPatients}.
+     *
+     * @return the ids of the matching patients, sorted
+     */
+    public int[] findPatientsBelow(String recordType, long startTime, long endTime, double threshold) {
+        return findPatients(recordType, startTime, endTime, Double.NEGATIVE_INFINITY, Math.nextDown(threshold));
+    }
+
+    /**
+     * Finds the patients that had a sample of a record type strictly above a
+     * threshold during a time range, e.g. SystolicPressure above 180, see {@link #findPatients}.
+     *
+     * @return the ids of the matching patients, sorted
+     */
+    public int[] findPatientsAbove(String recordType, long startTime, long endTime, double threshold) {
+        return findPatients(recordType, startTime, endTime, Math.nextUp(threshold), Double.POSITIVE_INFINITY);
+    }
+
+    //Confirms an index candidate against the patient's samples
+    private boolean hasSampleWithin(int patientId, int recordTypeId, long startTime, long endTime, double low, double high) {
+        Patient patient = getPatient(patientId);
+        if (patient == null) return false;
+        boolean[] found = new boolean[1];
+        patient.forEachRecord(recordTypeId, startTime, endTime, (timestamp, value) -> {
+            if (value >= low && value <= high) found[0] = true;
+        });
+        return found[0];
+    }
+
+    /**
+     * Computes per-bucket aggregates of one record type of a patient, e.g. the mean,
+     * min and max of SystolicPressure per minute over the last 6 hours. Bucket
+     * widths that are whole minutes or hours are served from rollups maintained on
+     * every insert, so the cost grows with the number of buckets rather than the
+     * number of samples; other widths scan the raw samples.
+     *
+     * @param patientId   the unique identifier of the patient
+     * @param recordType  the type of record, any alias known to {@link RecordType}
+     * @param startTime   the start of the time range, in milliseconds since the Unix epoch
+     * @param endTime     the end of the time range, in milliseconds since the Unix epoch
+     * @param bucketWidth the bucket width in milliseconds, e.g. 60000 for one minute
+     * @param functions   the aggregate functions to compute per bucket
+     * @return the non-empty buckets in time order, empty if the patient or type is unknown
+     * @throws IllegalArgumentException if the width is not positive or no function is given
+     */
+    public Aggregates aggregate(int patientId, String recordType, long startTime, long endTime, long bucketWidth, Aggregates.Function... functions) {
+        Patient patient = getPatient(patientId);
+        if (patient == null) return new Aggregates(bucketWidth, functions);
+        return patient.aggregate(RecordType.lookup(recordType), startTime, endTime, bucketWidth, functions);
+    }
+
+    /**
+     * Retrieves a single patient.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the patient, or null if no data was stored for that ID
+     */
+    public Patient getPatient(int patientId) {
+        Patient patient = patientMap.get(patientId);
+        if (patient != null) return patient;
+        if (isHibernated(patientId)) return patientFor(patientId);
+        Snapshot pending = snapshot;
+        return pending != null && pending.contains(patientId) ? patientFor(patientId) : null;
+    }
+
     /**
      * Retrieves a collection of all patients stored in the data storage.
+     * The list is a copy, prefer {@link #forEachPatient} in loops that run often.
+     * Hibernated patients are not included, see {@link #enableHibernation}.
      *
      * @return a list of all patients
      */
     public List<Patient> getAllPatients() {
+        Snapshot pending = snapshot;
+        if (pending != null) for (int patientId : pending.getPatientIds()) if (!isHibernated(patientId)) patientFor(patientId);
         return new ArrayList<>(patientMap.values());
     }
 
+    /**
+     * Passes every patient to an action without copying the patient map. Patients
+     * added while the iteration runs may or may not be visited. Hibernated patients
+     * are skipped, they have not received data for the idle period.
+     *
+     * @param action the action to run for each patient
+     */
+    public void forEachPatient(Consumer<Patient> action) {
+        Snapshot pending = snapshot;
+        if (pending != null) {
+            for (int i = 0; i < pending.getPatientCount(); i++) if (!isHibernated(pending.getPatientId(i))) patientFor(pending.getPatientId(i));
+        }
+        patientMap.values().forEach(action);
+    }
+
+    /**
+     * Stops background checkpoints, hibernation sweeps and spill passes, then
+     * flushes and closes the write-ahead log and the segment files, if the storage
+     * has them.
+     *
+     * @throws IOException if the final sync fails
+     */
+    public void close() throws IOException {
+        synchronized (spillLock) {
+            //Waits for a running spill pass, which holds the lock
+            if (spiller != null) spiller.shutdown();
+            if (coldStore != null) coldStore.close();
+        }
+        synchronized (checkpointLock) {
+            //Not shutdownNow, interrupting a checkpoint would close the log channel under it
+            if (checkpointer != null) checkpointer.shutdown();
+            if (hibernator != null) hibernator.shutdown();
+            if (log != null) log.close();
+        }
+    }
+
     /**
      * The main method for the DataStorage class.
      * Initializes the system, reads data into storage, and continuously monitors
@@ -88,8 +875,6 @@ public class DataStorage {
         AlertGenerator alertGenerator = new AlertGenerator(storage);
 
         // Evaluate all patients' data to check for conditions that may trigger alerts
-        for (Patient patient : storage.getAllPatients()) {
-            alertGenerator.evaluateData(patient);
-        }
+        storage.forEachPatient(alertGenerator::evaluateData);
     }
 }
@@ -1,34 +1,59 @@
 package com.data_management;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+/**
+ * Reads "patientId,timestamp,label,value" lines from a file and stores them in
+ * batches of {@link #BATCH_SIZE} rows through {@link DataStorage#addPatientDataBatch}.
+ * The file is read in chunks of {@link #READ_BYTES} and decoded by an
+ * {@link IngestPipeline}, so lines that cannot be parsed are skipped and counted
+ * like on any other transport. A local file is trusted: unknown labels are
+ * registered as new types, as they were when every line went through
+ * {@link DataStorage#addPatientData}.
+ */
 public class FileDataReader implements DataReader {
+    static final int BATCH_SIZE = 4096;
+    static final int READ_BYTES = 1 << 20;
     private final DataStorage storage;
+    private IngestPipeline pipeline;
 
     // this is the one we need:
     public FileDataReader(DataStorage storage) {
         this.storage = storage;
     }
 
+    /**
+     * @throws IOException if the file cannot be read or holds a line longer than {@link #READ_BYTES}
+     */
     @Override
     public void readData(DataStorage storage, String path) throws IOException {
         // using 'path' instead of the old single arg.
-        try (BufferedReader r = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line = r.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 4) {
-                    int    id    = Integer.parseInt(parts[0]);
-                    long   ts    = Long.parseLong(parts[1]);
-                    String lbl   = parts[2];
-                    double val   = Double.parseDouble(parts[3]);
-                    storage.addPatientData(id, val, lbl, ts);
-                }
+        IngestPipeline pipeline = new IngestPipeline(storage::addPatientDataBatch, BATCH_SIZE, true);
+        this.pipeline = pipeline;
+        IngestPipeline.Stream stream = pipeline.open(IngestPipeline.Format.CSV);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BYTES);
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            boolean atEnd = false;
+            while (!atEnd) {
+                atEnd = channel.read(buffer) < 0;
+                buffer.flip();
+                if (!stream.feed(buffer, atEnd)) throw new IOException("Line longer than " + READ_BYTES + " bytes in " + path);
+                buffer.compact();
             }
+        } finally {
+            //Rows parsed before a failure are still stored, as with per-line inserts
+            pipeline.flush();
         }
     }
 
-
+    /**
+     * @return the pipeline of the current or last read, with its row and error counts, null before the first one
+     */
+    public IngestPipeline getPipeline() {
+        return pipeline;
+    }
 }
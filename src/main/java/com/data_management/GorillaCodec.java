@@ -0,0 +1,201 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Bit-packed encoding of a block of (timestamp, value) samples, after the Gorilla
+ * time series compression scheme.
+ * Timestamps are stored as the difference between consecutive deltas, so a regular
+ * 1 s or 1 min period costs one bit per sample. Values are XORed with the previous
+ * value and only the bits that changed are stored, reusing the previous window of
+ * meaningful bits when it still fits, so slowly moving vitals cost a few bits each.
+ * Blocks are decoded front to back through a {@link Decoder}.
+ */
+final class GorillaCodec {
+    private GorillaCodec() {
+    }
+
+    /**
+     * Encodes the first count samples of the arrays.
+     *
+     * @return the encoded bits, trimmed to size
+     */
+    static long[] encode(long[] timestamps, double[] values, int count) {
+        BitWriter out = new BitWriter(count);
+        long previousTimestamp = 0;
+        long previousDelta = 0;
+        long previousBits = 0;
+        int previousLeading = -1; // no window yet
+        int previousTrailing = 0;
+        for (int i = 0; i < count; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (i == 0) {
+                out.write(timestamps[0], 64);
+                out.write(bits, 64);
+            } else {
+                long delta = timestamps[i] - previousTimestamp;
+                long deltaOfDelta = delta - previousDelta;
+                if (deltaOfDelta == 0) {
+                    out.write(0, 1);
+                } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+                    out.write(0b10, 2);
+                    out.write(deltaOfDelta, 7);
+                } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+                    out.write(0b110, 3);
+                    out.write(deltaOfDelta, 9);
+                } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+                    out.write(0b1110, 4);
+                    out.write(deltaOfDelta, 12);
+                } else {
+                    out.write(0b1111, 4);
+                    out.write(deltaOfDelta, 64);
+                }
+                previousDelta = delta;
+
+                long xor = bits ^ previousBits;
+                if (xor == 0) {
+                    out.write(0, 1);
+                } else {
+                    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                        //The changed bits fit in the previous window
+                        out.write(0b10, 2);
+                        out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                    } else {
+                        int length = 64 - leading - trailing;
+                        out.write(0b11, 2);
+                        out.write(leading, 5);
+                        out.write(length - 1, 6);
+                        out.write(xor >>> trailing, length);
+                        previousLeading = leading;
+                        previousTrailing = trailing;
+                    }
+                }
+            }
+            previousTimestamp = timestamps[i];
+            previousBits = bits;
+        }
+        return out.toArray();
+    }
+
+    /**
+     * Decodes every sample of a block into the arrays.
+     */
+    static void decode(long[] encoded, int count, long[] timestamps, double[] values) {
+        Decoder decoder = new Decoder(encoded, count);
+        for (int i = 0; decoder.next(); i++) {
+            timestamps[i] = decoder.timestamp();
+            values[i] = decoder.value();
+        }
+    }
+
+    /**
+     * Streams the samples of an encoded block in order, without materializing them.
+     */
+    static final class Decoder {
+        private final long[] words;
+        private final int count;
+        private int position; // in bits
+        private int read;
+        private long timestamp;
+        private long delta;
+        private long bits;
+        private int leading;
+        private int trailing;
+
+        Decoder(long[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+
+        /**
+         * Advances to the next sample.
+         *
+         * @return false if the block has no more samples
+         */
+        boolean next() {
+            if (read == count) return false;
+            if (read == 0) {
+                timestamp = readBits(64);
+                bits = readBits(64);
+            } else {
+                long deltaOfDelta;
+                if (readBits(1) == 0) {
+                    deltaOfDelta = 0;
+                } else if (readBits(1) == 0) {
+                    deltaOfDelta = signed(readBits(7), 7);
+                } else if (readBits(1) == 0) {
+                    deltaOfDelta = signed(readBits(9), 9);
+                } else if (readBits(1) == 0) {
+                    deltaOfDelta = signed(readBits(12), 12);
+                } else {
+                    deltaOfDelta = readBits(64);
+                }
+                delta += deltaOfDelta;
+                timestamp += delta;
+
+                if (readBits(1) != 0) {
+                    if (readBits(1) != 0) {
+                        leading = (int) readBits(5);
+                        int length = (int) readBits(6) + 1;
+                        trailing = 64 - leading - length;
+                    }
+                    bits ^= readBits(64 - leading - trailing) << trailing;
+                }
+            }
+            read++;
+            return true;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        double value() {
+            return Double.longBitsToDouble(bits);
+        }
+
+        private long readBits(int n) {
+            int index = position >>> 6;
+            int offset = position & 63;
+            long result = (words[index] << offset) >>> (64 - n);
+            if (n > 64 - offset) result |= words[index + 1] >>> (128 - offset - n);
+            position += n;
+            return result;
+        }
+
+        private static long signed(long raw, int n) {
+            return (raw << (64 - n)) >> (64 - n);
+        }
+    }
+
+    //Appends bits most significant first into a growing word array
+    private static final class BitWriter {
+        private long[] words;
+        private int position; // in bits
+
+        BitWriter(int count) {
+            //Room for about 16 bits per sample, enough for regular vitals without growing
+            words = new long[Math.max(4, count / 4 + 2)];
+        }
+
+        void write(long value, int n) {
+            if (n < 64) value &= (1L << n) - 1;
+            int index = position >>> 6;
+            if (index + 1 >= words.length) words = Arrays.copyOf(words, words.length * 2);
+            int free = 64 - (position & 63);
+            if (n <= free) {
+                words[index] |= value << (free - n);
+            } else {
+                words[index] |= value >>> (n - free);
+                words[index + 1] |= value << (64 - (n - free));
+            }
+            position += n;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+}
@@ -2,12 +2,12 @@ package com.data_management;
 
 import com.data_management.DataStorage;
 import com.alerts.AlertGenerator;
-import com.data_management.Patient;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.concurrent.CountDownLatch;
 
 /*Reads a live stream of CSV‐formatted data from a WebSocket server.
@@ -18,18 +18,41 @@ java -cp "target\classes;target\dependency\*" com.cardio_generator.HealthDataSim
 
 then open 2nd terminal and run
 java ` -cp "target\classes;target\dependency\*" ` com.data_management.HealthDataWebSocketClient ws://localhost:8080
-it will show the data*/
+it will show the data, reconnecting and resuming where it stopped if the connection is lost
+append ?format=binary to the URI to receive binary frames instead of CSV text*/
 
 public class HealthDataWebSocketClient extends WebSocketClient {
-    private final DataStorage storage;
+    private final IngestQueue queue;
+    private final IngestPipeline pipeline;
+    private final IngestPipeline.Stream stream;
     public final CountDownLatch closeLatch;
 
     public HealthDataWebSocketClient(String serverUri, DataStorage storage) throws Exception {
+        this(serverUri, new IngestQueue(storage));
+    }
+
+    /**
+     * @param queue the queue that stores the messages, decoupling storage from the socket's read thread
+     */
+    public HealthDataWebSocketClient(String serverUri, IngestQueue queue) throws Exception {
         super(new URI(serverUri));
-        this.storage    = storage;
+        this.queue      = queue;
+        this.pipeline   = new IngestPipeline(queue::offer);
+        this.stream     = pipeline.open(IngestPipeline.Format.BINARY);
         this.closeLatch = new CountDownLatch(1);
     }
 
+    public IngestQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * @return the pipeline decoding the messages, with its row and error counts
+     */
+    public IngestPipeline getPipeline() {
+        return pipeline;
+    }
+
     @Override
     public void onOpen(ServerHandshake handshake) {
         System.out.println("⟳ Connected to WebSocket server at " + getURI());
@@ -37,35 +60,23 @@ public class HealthDataWebSocketClient extends WebSocketClient {
 
     @Override
     public void onMessage(String message) {
-        // Expecting CSV: patientId,timestamp,label,value
-        String[] parts = message.split(",");
-        if (parts.length != 4) {
-            System.err.println("Invalid message format: " + message);
-            return;
-        }
-
-        try {
-            int    patientId = Integer.parseInt(parts[0].trim());
-            long   ts        = Long.parseLong(parts[1].trim());
-            String label     = parts[2].trim();
-            String rawValue  = parts[3].trim();
-
-
-            rawValue = rawValue.replaceAll("[^0-9.\\-]","");
-
-            double value     = Double.parseDouble(rawValue);
+        // Expecting CSV: patientId,timestamp,label,value; a unit such as % after the value is dropped
+        // No per-message logging: at full rate printing costs more than storing; malformed messages are counted
+        stream.feed(message);
+        pipeline.flush();
+    }
 
-            storage.addPatientData(patientId, value, label, ts);
-            System.out.println(" Stored: " + message);
-        } catch (NumberFormatException e) {
-            System.err.println(" Number parse error on message: " + message);
-            e.printStackTrace();
-        }
+    @Override
+    public void onMessage(ByteBuffer frames) {
+        // Binary frames, sent instead of CSV when the URI ends with ?format=binary
+        stream.feed(frames, true);
     }
 
     @Override
     public void onClose(int code, String reason, boolean remote) {
         System.out.println("⤫ WebSocket closed: " + reason);
+        // Everything received is stored before waiters are released
+        queue.close();
         closeLatch.countDown();
     }
 
@@ -81,14 +92,13 @@ public class HealthDataWebSocketClient extends WebSocketClient {
             System.exit(1);
         }
 
-        // Set up storage & client
+        // Set up storage & a reader that reconnects and resumes if the connection is lost
         DataStorage storage = new DataStorage();
-        HealthDataWebSocketClient client =
-                new HealthDataWebSocketClient(args[0], storage);
+        WebSocketDataReader reader = new WebSocketDataReader();
 
-        // Connect and block until the server closes the socket
-        client.connectBlocking();
-        client.closeLatch.await();
+        // Block until the server closes the socket
+        reader.readData(storage, args[0]);
+        if (reader.getGapCount() > 0) System.err.println(" Samples lost while disconnected: " + reader.getGapCount());
 
         // 3) Dump everything received
         System.out.println("\n----- All patients and their records -----");
@@ -103,9 +113,7 @@ public class HealthDataWebSocketClient extends WebSocketClient {
         // 4) Run alerts
         System.out.println("\n----- Evaluating alerts -----");
         AlertGenerator alertGen = new AlertGenerator(storage);
-        for (Patient p : storage.getAllPatients()) {
-            alertGen.evaluateData(p);
-        }
+        storage.forEachPatient(alertGen::evaluateData);
 
         System.out.println("\n Data ingestion & alert evaluation complete.");
     }
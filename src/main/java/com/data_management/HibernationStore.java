@@ -0,0 +1,137 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Idle patients of a {@link DataStorage}, moved off the heap. Each one is written
+ * to its own file in the {@link Snapshot} format, a snapshot holding a single
+ * patient, and decoded again the next time the patient is accessed.
+ * The file of a reloaded patient is only deleted by the next sweep, which runs
+ * under the storage's checkpoint lock, so a checkpoint that missed the patient in
+ * the patient map still finds its file.
+ * Like the cold tier, these files only back the heap: a durable storage recovers
+ * hibernated patients from its snapshot and log, so files left over from an
+ * earlier process are deleted on open.
+ */
+final class HibernationStore {
+    private static final String PREFIX = "patient-";
+    private static final String SUFFIX = ".snp";
+
+    private final Path directory;
+    private final RetentionPolicy retention;
+    private final Set<Integer> hibernated = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> reloaded = ConcurrentHashMap.newKeySet(); // files to delete on the next sweep
+    private final AtomicLong reloads = new AtomicLong();
+
+    private HibernationStore(Path directory, RetentionPolicy retention) {
+        this.directory = directory;
+        this.retention = retention;
+    }
+
+    /**
+     * Opens an empty store in a directory, deleting patient files left over from
+     * an earlier process.
+     *
+     * @throws IOException if the directory cannot be created or cleaned
+     */
+    static HibernationStore open(Path directory, RetentionPolicy retention) throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) Files.delete(file);
+        }
+        return new HibernationStore(directory, retention);
+    }
+
+    /**
+     * Writes a patient to its file. The caller holds the patient lock and drops
+     * the patient from memory once this returns.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    void write(Patient patient) throws IOException {
+        int patientId = patient.getPatientId();
+        Snapshot.write(file(patientId), 0, Map.of(patientId, patient), null, null);
+        reloaded.remove(patientId);
+        hibernated.add(patientId);
+    }
+
+    boolean contains(int patientId) {
+        return hibernated.contains(patientId);
+    }
+
+    /**
+     * @return the ids of the patients that have a file, hibernated or reloaded since the last sweep
+     */
+    Set<Integer> patientIds() {
+        Set<Integer> ids = new HashSet<>(reloaded);
+        ids.addAll(hibernated);
+        return ids;
+    }
+
+    /**
+     * Decodes a hibernated patient so it can go back into memory, and counts the
+     * reload. Called while the patient map is computing the patient's entry, so a
+     * patient is never reloaded twice at once.
+     *
+     * @return the patient, or null if it is not hibernated
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    Patient reload(int patientId) {
+        if (!hibernated.contains(patientId)) return null;
+        Patient patient = read(patientId);
+        //Listed as reloaded before it stops being hibernated, so a checkpoint always sees its id
+        reloaded.add(patientId);
+        hibernated.remove(patientId);
+        reloads.incrementAndGet();
+        return patient;
+    }
+
+    /**
+     * Decodes a patient from its file without reloading it, for checkpoints.
+     *
+     * @return the patient, or null if it has no file
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    Patient read(int patientId) {
+        try {
+            return Snapshot.open(file(patientId)).load(patientId, retention);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot reload hibernated patient " + patientId, e);
+        }
+    }
+
+    /**
+     * Deletes the files of the patients reloaded since the last call.
+     * The caller holds the checkpoint lock.
+     */
+    void deleteReloaded() throws IOException {
+        for (Integer patientId : reloaded) {
+            reloaded.remove(patientId);
+            if (!hibernated.contains(patientId)) Files.deleteIfExists(file(patientId));
+        }
+    }
+
+    int size() {
+        return hibernated.size();
+    }
+
+    long getReloadCount() {
+        return reloads.get();
+    }
+
+    private Path file(int patientId) {
+        return directory.resolve(PREFIX + patientId + SUFFIX);
+    }
+}
@@ -0,0 +1,265 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The decoding stage every transport shares: bytes or text messages go in,
+ * columnar batches come out to a {@link BatchSink}. A transport, such as a
+ * {@link DataReader}, owns the I/O and opens a {@link Stream} per connection or
+ * file. CSV lines of all streams are parsed by one {@link CsvRowParser}, binary
+ * frames by a {@link BinaryFrameDecoder} per stream, as type ids are defined per
+ * connection; a stream opened as {@link Format#AUTO} is told by its first bytes.
+ * The sink decides where rows go: DataStorage::addPatientDataBatch stores them
+ * on the transport's thread, IngestQueue::offer hands them to a drainer.
+ * <p>
+ * Errors are accounted the same way for every transport: a line or sample that
+ * cannot be decoded is skipped and counted; a line whose label matches no
+ * registered type is rejected and counted apart, unless the pipeline reads a
+ * trusted file and registers the label; a stream of invalid frames, or with a
+ * line that fills the transport's whole buffer, is counted as malformed and
+ * reported to the transport, which drops it. Decoding allocates nothing per
+ * row or message, text messages included, unless they hold non-ASCII characters.
+ * Rows of binary frames are passed on at the end of each feed; CSV rows when a
+ * batch of {@link FileDataReader#BATCH_SIZE} is full and on {@link #flush}, so a
+ * transport serving many streams sends their lines in one batch.
+ * Not thread-safe, use one pipeline per transport thread.
+ */
+public final class IngestPipeline {
+    /**
+     * What a stream carries.
+     */
+    public enum Format {
+        /** "patientId,timestamp,label,value" lines. */
+        CSV,
+        /** Frames of {@link BinaryFrameEncoder}. */
+        BINARY,
+        /** Frames if the first bytes are a frame header, lines otherwise. */
+        AUTO
+    }
+
+    private final BatchSink sink;
+    private final int frameBatchRows;
+    private final CsvRowParser parser;
+    private ByteBuffer text = ByteBuffer.allocate(1024); // the current text message as bytes
+    private long byteCount;
+    private long frameRows;
+    private long skippedSamples;
+    private long malformedCount;
+
+    /**
+     * Creates a pipeline for a network feed, which only accepts labels of registered types.
+     *
+     * @param sink where the decoded rows go
+     */
+    public IngestPipeline(BatchSink sink) {
+        this(sink, FileDataReader.BATCH_SIZE, false);
+    }
+
+    /**
+     * @param frameBatchRows the most rows of frames passed on at once, smaller for streams fed often
+     */
+    IngestPipeline(BatchSink sink, int frameBatchRows) {
+        this(sink, frameBatchRows, false);
+    }
+
+    /**
+     * @param registerLabels true to register unknown labels of CSV lines as new types, for trusted files only
+     */
+    IngestPipeline(BatchSink sink, int frameBatchRows, boolean registerLabels) {
+        this.sink = sink;
+        this.frameBatchRows = frameBatchRows;
+        this.parser = new CsvRowParser(registerLabels);
+    }
+
+    /**
+     * Opens a stream, such as a connection or a file, whose input is fed in order.
+     */
+    public Stream open(Format format) {
+        return new Stream(format);
+    }
+
+    /**
+     * Passes on the CSV rows decoded since the last flush.
+     */
+    public void flush() {
+        parser.flush(sink);
+    }
+
+    /**
+     * @return the bytes decoded, text messages included
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return the rows decoded from lines and frames
+     */
+    public long getRowCount() {
+        return parser.getRowCount() + frameRows;
+    }
+
+    /**
+     * @return the lines that could not be parsed and the samples of undefined types
+     */
+    public long getSkippedCount() {
+        return parser.getSkippedLineCount() + skippedSamples;
+    }
+
+    /**
+     * @return the lines rejected because their label matches no registered type, see {@link RecordType#lookup}
+     */
+    public long getUnknownLabelCount() {
+        return parser.getUnknownLabelCount();
+    }
+
+    /**
+     * @return the streams and binary messages found malformed, nothing more was decoded from them
+     */
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+
+    /**
+     * The input of one connection or file. Bytes may be fed in pieces of any
+     * size, an incomplete line or frame is left in the buffer for the next feed.
+     */
+    public final class Stream {
+        private Format format;
+        private BinaryFrameDecoder decoder;
+        private long nextSequence;
+        private boolean framesMayFollow;
+
+        private Stream(Format format) {
+            this.format = format;
+        }
+
+        /**
+         * @return what the stream carries, AUTO until its first bytes tell
+         */
+        public Format getFormat() {
+            return format;
+        }
+
+        /**
+         * Decodes the complete lines or frames from the position of in to its
+         * limit and leaves the position at the first incomplete one.
+         *
+         * @param atEnd true if no more input follows, so a last line without a line feed is complete
+         * @return false if the input is malformed and the stream must be dropped
+         */
+        public boolean feed(ByteBuffer in, boolean atEnd) {
+            int start = in.position();
+            if (format == Format.AUTO) {
+                if (in.remaining() < 3 && !atEnd) return true;
+                boolean binary = in.remaining() >= 3 && in.get(start) == (byte) (BinaryFrameEncoder.MAGIC >> 8)
+                        && in.get(start + 1) == (byte) BinaryFrameEncoder.MAGIC && in.get(start + 2) == BinaryFrameEncoder.VERSION;
+                format = binary ? Format.BINARY : Format.CSV;
+            }
+            boolean valid;
+            if (format == Format.BINARY) {
+                if (decoder == null) {
+                    decoder = new BinaryFrameDecoder(frameBatchRows);
+                    decoder.setNextSequence(nextSequence);
+                }
+                long rows = decoder.getRowCount();
+                long skipped = decoder.getSkippedSampleCount();
+                valid = decoder.decode(in, sink) && !(atEnd && in.hasRemaining());
+                decoder.flush(sink);
+                frameRows += decoder.getRowCount() - rows;
+                skippedSamples += decoder.getSkippedSampleCount() - skipped;
+            } else {
+                int limit = framesMayFollow ? frameStart(in, start, in.limit()) : in.limit();
+                if (limit < in.limit()) {
+                    //The lines before the first frame are complete, and stored before its rows
+                    in.position(parser.parse(in, start, limit, true, sink));
+                    flush();
+                    byteCount += in.position() - start;
+                    format = Format.BINARY;
+                    framesMayFollow = false;
+                    return feed(in, atEnd);
+                }
+                in.position(parser.parse(in, start, limit, atEnd, sink));
+                //A line filling the whole buffer can never be completed
+                valid = !(in.position() == 0 && in.limit() == in.capacity() && in.hasRemaining());
+            }
+            byteCount += in.position() - start;
+            if (!valid) malformedCount++;
+            return valid;
+        }
+
+        /**
+         * Decodes a text message of CSV lines, such as a WebSocket text message.
+         */
+        public void feed(CharSequence message) {
+            feed(message, 0, message.length());
+        }
+
+        /**
+         * Decodes the CSV lines of message[start, end), the rest of the message
+         * being something the transport understands, such as a sequence number.
+         */
+        public void feed(CharSequence message, int start, int end) {
+            ByteBuffer in = ascii(message, start, end);
+            if (in == null) in = ByteBuffer.wrap(message.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8));
+            byteCount += in.remaining();
+            parser.parse(in, 0, in.limit(), true, sink);
+        }
+
+        /**
+         * Lets a CSV stream turn into frames at the start of a line, for a producer
+         * that was asked for frames and may send lines until the request reaches it.
+         */
+        void expectFrames() {
+            framesMayFollow = true;
+        }
+
+        /**
+         * @return the sequence number after the last numbered sample received in frames, see {@link BinaryFrameDecoder}
+         */
+        long getNextSequence() {
+            return decoder != null ? decoder.getNextSequence() : nextSequence;
+        }
+
+        /**
+         * Carries the position in a source's sequence over from a previous connection.
+         */
+        void setNextSequence(long nextSequence) {
+            this.nextSequence = nextSequence;
+            if (decoder != null) decoder.setNextSequence(nextSequence);
+        }
+
+        /**
+         * @return the samples of frames received a second time and skipped
+         */
+        long getDuplicateSampleCount() {
+            return decoder != null ? decoder.getDuplicateSampleCount() : 0;
+        }
+    }
+
+    //Where the first line of in[from, limit) that starts like a frame header begins, limit if there is none
+    private static int frameStart(ByteBuffer in, int from, int limit) {
+        for (int i = from; i < limit; ) {
+            if (in.get(i) == (byte) (BinaryFrameEncoder.MAGIC >> 8)) return i;
+            int lineFeed = CsvRowParser.indexOf(in, (byte) '\n', i, limit);
+            if (lineFeed < 0) break;
+            i = lineFeed + 1;
+        }
+        return limit;
+    }
+
+    //The message in the reused text buffer, null if it is not ASCII
+    private ByteBuffer ascii(CharSequence message, int start, int end) {
+        if (text.capacity() < end - start) text = ByteBuffer.allocate(Math.max(text.capacity() * 2, end - start));
+        text.clear();
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if (c >= 0x80) return null;
+            text.put((byte) c);
+        }
+        return text.flip();
+    }
+}
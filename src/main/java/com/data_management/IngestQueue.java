@@ -0,0 +1,262 @@
+package com.data_management;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded ring buffer of samples between the threads that receive them, such
+ * as a WebSocket read thread, and {@link DataStorage}. A drainer thread takes
+ * whatever has accumulated, up to {@link FileDataReader#BATCH_SIZE} rows, and
+ * stores it through {@link DataStorage#addPatientDataBatch}, so a slow storage
+ * operation delays the drainer instead of the socket, and a burst is stored in a
+ * few large batches. The ring holds the samples in primitive columns, so
+ * queueing a sample allocates nothing.
+ * When the ring is full, the {@link OverflowPolicy} decides: BLOCK stalls the
+ * producer until the drainer makes room, which lets TCP flow control slow down
+ * the sender and loses nothing; DROP_NEWEST rejects the incoming sample and
+ * DROP_OLDEST overwrites the oldest queued one, both counted, for live
+ * monitoring where stale samples are worth less than a responsive feed.
+ * Any number of producers may offer samples concurrently.
+ */
+public class IngestQueue implements AutoCloseable {
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * What {@link #offer} does when the ring is full.
+     */
+    public enum OverflowPolicy {
+        /** Waits until the drainer makes room. */
+        BLOCK,
+        /** Rejects the incoming sample. */
+        DROP_NEWEST,
+        /** Overwrites the oldest queued sample. */
+        DROP_OLDEST
+    }
+
+    private final DataStorage storage;
+    private final OverflowPolicy policy;
+    private final int[] patientIds;
+    private final long[] timestamps;
+    private final int[] recordTypeIds;
+    private final double[] values;
+    private final int mask;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Thread drainer;
+    //Guarded by lock; head is the next row to drain, tail the next free slot
+    private long head;
+    private long tail;
+    private long applied; // rows taken by the drainer and stored
+    private long dropped;
+    private boolean storing; // the drainer is storing rows it took
+    private boolean closed;
+
+    /**
+     * Creates a queue of 65536 samples that blocks producers when full.
+     *
+     * @param storage the storage the samples are added to
+     */
+    public IngestQueue(DataStorage storage) {
+        this(storage, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Creates a queue and starts its drainer thread.
+     *
+     * @param storage  the storage the samples are added to
+     * @param capacity the number of samples the ring holds, rounded up to a power of two
+     * @param policy   what to do with a sample offered while the ring is full
+     */
+    public IngestQueue(DataStorage storage, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0 || capacity > 1 << 30) throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.storage = storage;
+        this.policy = policy;
+        patientIds = new int[size];
+        timestamps = new long[size];
+        recordTypeIds = new int[size];
+        values = new double[size];
+        mask = size - 1;
+        drainer = new Thread(this::drain, "ingest-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Queues a sample, applying the overflow policy if the ring is full.
+     *
+     * @param recordTypeId the {@link RecordType} id of the sample
+     * @return false if the sample was rejected, because the ring is full under
+     *         DROP_NEWEST or the queue is closed
+     */
+    public boolean offer(int patientId, long timestamp, int recordTypeId, double value) {
+        lock.lock();
+        try {
+            return enqueue(patientId, timestamp, recordTypeId, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a columnar batch of samples, such as a decoded binary frame, under a
+     * single acquisition of the lock, applying the overflow policy to each.
+     *
+     * @param count the number of rows, starting at index 0
+     * @return the number of samples queued
+     */
+    public int offer(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+        int queued = 0;
+        lock.lock();
+        try {
+            for (int row = 0; row < count; row++) {
+                if (enqueue(patientIds[row], timestamps[row], recordTypeIds[row], values[row])) queued++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return queued;
+    }
+
+    /**
+     * Waits until every sample queued before the call has been stored.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        lock.lock();
+        try {
+            long target = tail;
+            //Rows before the target were either dropped or taken, and the last taken batch is stored once storing is false
+            while ((head < target || storing) && drainer.isAlive()) drained.await(100, TimeUnit.MILLISECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects further samples, stores the queued ones and stops the drainer.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the samples queued and not yet taken by the drainer
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the samples taken by the drainer and passed to the storage, including duplicates it rejected
+     */
+    public long getAppliedCount() {
+        lock.lock();
+        try {
+            return applied;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the samples lost to the overflow policy
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Called with the lock held
+    private boolean enqueue(int patientId, long timestamp, int recordTypeId, double value) {
+        while (!closed && tail - head > mask) {
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                dropped++;
+                return false;
+            }
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                head++;
+                dropped++;
+                break;
+            }
+            notFull.awaitUninterruptibly();
+        }
+        if (closed) return false;
+        int slot = (int) tail & mask;
+        patientIds[slot] = patientId;
+        timestamps[slot] = timestamp;
+        recordTypeIds[slot] = recordTypeId;
+        values[slot] = value;
+        if (tail++ == head) notEmpty.signal();
+        return true;
+    }
+
+    private void drain() {
+        int[] batchPatientIds = new int[FileDataReader.BATCH_SIZE];
+        long[] batchTimestamps = new long[FileDataReader.BATCH_SIZE];
+        int[] batchRecordTypeIds = new int[FileDataReader.BATCH_SIZE];
+        double[] batchValues = new double[FileDataReader.BATCH_SIZE];
+        while (true) {
+            int count;
+            lock.lock();
+            try {
+                while (head == tail && !closed) notEmpty.awaitUninterruptibly();
+                if (head == tail) return;
+                count = (int) Math.min(tail - head, FileDataReader.BATCH_SIZE);
+                for (int row = 0; row < count; row++) {
+                    int slot = (int) (head + row) & mask;
+                    batchPatientIds[row] = patientIds[slot];
+                    batchTimestamps[row] = timestamps[slot];
+                    batchRecordTypeIds[row] = recordTypeIds[slot];
+                    batchValues[row] = values[slot];
+                }
+                head += count;
+                storing = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                storage.addPatientDataBatch(batchPatientIds, batchTimestamps, batchRecordTypeIds, batchValues, count);
+            } catch (RuntimeException e) {
+                //A failed batch must not stop the feed
+                e.printStackTrace();
+            }
+            lock.lock();
+            try {
+                applied += count;
+                storing = false;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.data_management;
+
+/**
+ * Told when samples arrived out of order but within the allowed lateness of
+ * {@link DataStorage#enableWatermarks}, so an evaluator that already looked at a
+ * patient's history can look again from the earliest revised timestamp. By the
+ * time it is called the samples are merged into the sorted series and readable.
+ * It is called on the ingest thread that stored the samples, outside any patient
+ * lock, once per patient and batch.
+ */
+@FunctionalInterface
+public interface LateDataListener {
+    /**
+     * @param patientId         the patient whose history changed
+     * @param earliestTimestamp the oldest out-of-order sample stored, in milliseconds since UNIX epoch
+     */
+    void onLateData(int patientId, long earliestTimestamp);
+}
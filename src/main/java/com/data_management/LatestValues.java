@@ -0,0 +1,103 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Result of {@link DataStorage#getLatestValues}: the newest sample of each
+ * requested record type for every patient, e.g. the current saturation and blood
+ * pressure of a whole ward. One row per patient, in no particular order.
+ * Rows are stored in primitive columns, a timestamp and a value column per
+ * requested type; a patient without samples of a type has no value for it.
+ */
+public class LatestValues {
+    private static final long MISSING = Long.MIN_VALUE; // see Patient#copyLatest
+
+    private final int[] recordTypeIds;
+    private int[] patientIds;
+    private final long[][] timestamps; // indexed by requested type, then row
+    private final double[][] values;
+    private int size;
+
+    LatestValues(int[] recordTypeIds, int expectedRows) {
+        this.recordTypeIds = recordTypeIds;
+        int capacity = Math.max(expectedRows, 16);
+        this.patientIds = new int[capacity];
+        this.timestamps = new long[recordTypeIds.length][capacity];
+        this.values = new double[recordTypeIds.length][capacity];
+    }
+
+    /**
+     * @return the number of patients
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row the patient index, from 0 to size() - 1
+     * @return the id of the patient
+     */
+    public int getPatientId(int row) {
+        checkRow(row);
+        return patientIds[row];
+    }
+
+    /**
+     * @param recordType one of the types requested from {@link DataStorage#getLatestValues}
+     * @param row        the patient index, from 0 to size() - 1
+     * @return true if the patient has a sample of that type
+     */
+    public boolean hasValue(String recordType, int row) {
+        checkRow(row);
+        return timestamps[columnOf(recordType)][row] != MISSING;
+    }
+
+    /**
+     * @param recordType one of the types requested from {@link DataStorage#getLatestValues}
+     * @param row        the patient index, from 0 to size() - 1
+     * @return the time of the newest sample, in milliseconds since UNIX epoch, or
+     *         Long.MIN_VALUE if the patient has no sample of that type
+     */
+    public long getTimestamp(String recordType, int row) {
+        checkRow(row);
+        return timestamps[columnOf(recordType)][row];
+    }
+
+    /**
+     * @param recordType one of the types requested from {@link DataStorage#getLatestValues}
+     * @param row        the patient index, from 0 to size() - 1
+     * @return the value of the newest sample, or NaN if the patient has no sample of that type
+     */
+    public double getValue(String recordType, int row) {
+        checkRow(row);
+        return values[columnOf(recordType)][row];
+    }
+
+    private void checkRow(int row) {
+        if (row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+    }
+
+    private int columnOf(String recordType) {
+        int recordTypeId = RecordType.lookup(recordType);
+        for (int c = 0; c < recordTypeIds.length; c++) {
+            if (recordTypeIds[c] == recordTypeId) return c;
+        }
+        throw new IllegalArgumentException(recordType + " was not requested");
+    }
+
+    /**
+     * Adds a row for a patient, filled from the newest sample of each requested type.
+     */
+    void add(Patient patient) {
+        if (size == patientIds.length) {
+            patientIds = Arrays.copyOf(patientIds, size * 2);
+            for (int c = 0; c < recordTypeIds.length; c++) {
+                timestamps[c] = Arrays.copyOf(timestamps[c], size * 2);
+                values[c] = Arrays.copyOf(values[c], size * 2);
+            }
+        }
+        patientIds[size] = patient.getPatientId();
+        patient.copyLatest(recordTypeIds, size, timestamps, values);
+        size++;
+    }
+}
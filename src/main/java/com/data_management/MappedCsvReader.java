@@ -0,0 +1,105 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads "patientId,timestamp,label,value" lines from a file like
+ * {@link FileDataReader}, but for large files: the file is memory-mapped in
+ * windows and every field is parsed straight from the mapped bytes by a
+ * {@link CsvRowParser}, so no line, String or boxed number is created per row.
+ * Whitespace around fields is ignored and lines that cannot be parsed are
+ * skipped and counted instead of ending the read.
+ * Each window ends at a line boundary, the partial line at its end is parsed from
+ * the start of the next window. The counters of the last read report its
+ * throughput.
+ */
+public class MappedCsvReader implements DataReader {
+    static final long DEFAULT_WINDOW_BYTES = 256L << 20;
+
+    private final long windowBytes;
+    private long rowCount;
+    private long skippedLineCount;
+    private long byteCount;
+    private long elapsedNanos;
+
+    /**
+     * Creates a reader mapping 256 MB at a time.
+     */
+    public MappedCsvReader() {
+        this(DEFAULT_WINDOW_BYTES);
+    }
+
+    /**
+     * Creates a reader mapping a given number of bytes at a time.
+     *
+     * @param windowBytes the size of a mapped window, at least the length of the longest line
+     */
+    public MappedCsvReader(long windowBytes) {
+        if (windowBytes <= 0 || windowBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Window must be between 1 byte and 2 GB");
+        this.windowBytes = windowBytes;
+    }
+
+    /**
+     * Reads every line of a file and stores the rows in batches. Rows parsed before
+     * an I/O error are still stored.
+     *
+     * @param storage the storage the rows are added to
+     * @param path    the file to read
+     * @throws IOException if the file cannot be read or a line is longer than the window
+     */
+    @Override
+    public void readData(DataStorage storage, String path) throws IOException {
+        long start = System.nanoTime();
+        CsvRowParser parser = new CsvRowParser(true);
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            while (position < size) {
+                int length = (int) Math.min(windowBytes, size - position);
+                boolean atEnd = position + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = parser.parse(window, 0, length, atEnd, storage::addPatientDataBatch);
+                if (consumed == 0) throw new IOException("Line at byte " + position + " of " + path + " is longer than the " + windowBytes + " byte window");
+                position += consumed;
+            }
+        } finally {
+            parser.flush(storage::addPatientDataBatch);
+            rowCount = parser.getRowCount();
+            skippedLineCount = parser.getSkippedLineCount();
+            byteCount = position;
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return the rows parsed by the last read, including duplicates the storage rejected
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the lines of the last read that could not be parsed
+     */
+    public long getSkippedLineCount() {
+        return skippedLineCount;
+    }
+
+    /**
+     * @return the bytes consumed by the last read
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return the duration of the last read, storing included
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,239 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads large CSV files, or every file of a directory such as the ones written
+ * by FileOutputStrategy, on a fork-join pool. Each file is cut into chunks of
+ * about {@link #DEFAULT_CHUNK_BYTES}; a chunk owns the lines that start within
+ * it, so chunk boundaries need no pre-scan, and is memory-mapped and parsed from
+ * bytes by its own {@link CsvRowParser}.
+ * Both phases run in parallel, a window of chunks at a time to bound memory:
+ * first the chunks are parsed, each into per-shard columns where a shard is a
+ * fixed subset of the patients, then every shard stores its rows chunk by chunk
+ * in file order through {@link DataStorage#addPatientDataBatch}. Shards never
+ * share a patient and every patient sees its rows in file order, so duplicates,
+ * late samples and retention resolve exactly as in a serial load and the stored
+ * content is identical.
+ */
+public class ParallelCsvReader implements DataReader {
+    static final long DEFAULT_CHUNK_BYTES = 16L << 20;
+    static final int MAX_LINE_BYTES = 1 << 20;
+
+    private final ForkJoinPool pool;
+    private final long chunkBytes;
+    private long rowCount;
+    private long skippedLineCount;
+    private long byteCount;
+    private long elapsedNanos;
+
+    /**
+     * Creates a reader running on the common fork-join pool, with 16 MB chunks.
+     */
+    public ParallelCsvReader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Creates a reader running on a given pool.
+     *
+     * @param pool       the pool parsing and storing the chunks, its parallelism is the number of shards
+     * @param chunkBytes the nominal size of a chunk
+     */
+    public ParallelCsvReader(ForkJoinPool pool, long chunkBytes) {
+        if (chunkBytes <= 0 || chunkBytes > Integer.MAX_VALUE - MAX_LINE_BYTES) throw new IllegalArgumentException("Chunk size out of range: " + chunkBytes);
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Reads a file, or every regular file of a directory in name order, and
+     * stores the rows. Rows of the windows completed before an error are stored.
+     *
+     * @param storage the storage the rows are added to
+     * @param source  a file or a directory
+     * @throws IOException if a file cannot be read or has a line longer than 1 MB
+     */
+    @Override
+    public void readData(DataStorage storage, String source) throws IOException {
+        long start = System.nanoTime();
+        rowCount = 0;
+        skippedLineCount = 0;
+        byteCount = 0;
+        try {
+            List<Chunk> chunks = new ArrayList<>();
+            for (Path file : filesOf(Path.of(source))) {
+                long size = Files.size(file);
+                for (long from = 0; from < size; from += chunkBytes) chunks.add(new Chunk(file, from, Math.min(size, from + chunkBytes), size));
+                byteCount += size;
+            }
+            int shards = pool.getParallelism();
+            int window = 2 * shards;
+            for (int from = 0; from < chunks.size(); from += window) {
+                List<Chunk> batch = chunks.subList(from, Math.min(chunks.size(), from + window));
+                List<Callable<Rows[]>> parses = new ArrayList<>(batch.size());
+                for (Chunk chunk : batch) parses.add(() -> chunk.parse(shards));
+                List<Rows[]> parsed = await(pool.invokeAll(parses));
+                List<Callable<Void>> inserts = new ArrayList<>(shards);
+                for (int s = 0; s < shards; s++) {
+                    int shard = s;
+                    inserts.add(() -> {
+                        for (Rows[] chunkRows : parsed) chunkRows[shard].storeIn(storage);
+                        return null;
+                    });
+                }
+                await(pool.invokeAll(inserts));
+                for (Chunk chunk : batch) {
+                    rowCount += chunk.rows;
+                    skippedLineCount += chunk.skippedLines;
+                }
+            }
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return the rows parsed by the last read, including duplicates the storage rejected
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the lines of the last read that could not be parsed
+     */
+    public long getSkippedLineCount() {
+        return skippedLineCount;
+    }
+
+    /**
+     * @return the size of the files of the last read
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return the duration of the last read, storing included
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    private static List<Path> filesOf(Path source) throws IOException {
+        if (!Files.isDirectory(source)) return List.of(source);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(source, Files::isRegularFile)) {
+            for (Path file : entries) files.add(file);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static <T> List<T> await(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        return results;
+    }
+
+    //Byte range [start, end) of a file, owning the lines that start within it
+    private static final class Chunk {
+        final Path file;
+        final long start;
+        final long end;
+        final long fileSize;
+        long rows; // set by parse
+        long skippedLines;
+
+        Chunk(Path file, long start, long end, long fileSize) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.fileSize = fileSize;
+        }
+
+        Rows[] parse(int shards) throws IOException {
+            Rows[] rowsByShard = new Rows[shards];
+            for (int s = 0; s < shards; s++) rowsByShard[s] = new Rows();
+            //Mapped from the byte before the chunk, to tell whether a line starts right at it, to the end of its last line
+            long mapStart = start == 0 ? 0 : start - 1;
+            long mapEnd = Math.min(fileSize, end + MAX_LINE_BYTES);
+            int limit = (int) (mapEnd - mapStart);
+            int lineStartLimit = (int) (end - mapStart);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, limit);
+                int from = 0;
+                if (start > 0) {
+                    //The line running into the chunk belongs to the previous one
+                    int lineFeed = CsvRowParser.indexOf(bytes, (byte) '\n', 0, lineStartLimit);
+                    if (lineFeed < 0) return rowsByShard;
+                    from = lineFeed + 1;
+                }
+                CsvRowParser parser = new CsvRowParser(true);
+                BatchSink sink = (patientIds, timestamps, recordTypeIds, values, count) -> {
+                    for (int row = 0; row < count; row++) {
+                        rowsByShard[Math.floorMod(patientIds[row], shards)].add(patientIds[row], timestamps[row], recordTypeIds[row], values[row]);
+                    }
+                };
+                int parsed = parser.parse(bytes, from, lineStartLimit, limit, mapEnd == fileSize, sink);
+                if (parsed < lineStartLimit) throw new IOException("Line at byte " + (mapStart + parsed) + " of " + file + " is longer than " + MAX_LINE_BYTES + " bytes");
+                parser.flush(sink);
+                rows = parser.getRowCount();
+                skippedLines = parser.getSkippedLineCount();
+            }
+            return rowsByShard;
+        }
+    }
+
+    //Growable columns of the rows of one shard in one chunk, in file order
+    private static final class Rows {
+        int[] patientIds = new int[256];
+        long[] timestamps = new long[256];
+        int[] recordTypeIds = new int[256];
+        double[] values = new double[256];
+        int size;
+
+        void add(int patientId, long timestamp, int recordTypeId, double value) {
+            if (size == patientIds.length) {
+                patientIds = Arrays.copyOf(patientIds, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                recordTypeIds = Arrays.copyOf(recordTypeIds, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            patientIds[size] = patientId;
+            timestamps[size] = timestamp;
+            recordTypeIds[size] = recordTypeId;
+            values[size] = value;
+            size++;
+        }
+
+        void storeIn(DataStorage storage) {
+            if (size > 0) storage.addPatientDataBatch(patientIds, timestamps, recordTypeIds, values, size);
+        }
+    }
+}
@@ -1,51 +1,241 @@
 package com.data_management;
 
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongConsumer;
 
 /**
  * Represents a patient and manages their medical records.
  * This class stores patient-specific data, allowing for the addition and
  * retrieval
  * of medical records based on specified criteria.
+ * Records are kept in one columnar {@link TimeSeries} per record type instead of
+ * one object per measurement.
+ * Writers are serialized on the patient's monitor, so each patient has a single
+ * writer at a time. Readers do not take the monitor: they read immutable snapshots
+ * published by the series and never block ingest, or get blocked by it.
+ * The newest sample of every type is also cached in two small arrays, guarded by a
+ * sequence counter instead of a lock, so "current value" reads never touch the series.
+ * A storage may hibernate a patient that stopped receiving data, see
+ * {@link DataStorage#enableHibernation}; the object then becomes a read-only copy
+ * and the storage reloads a new one on the next access.
+ * The newest timestamp stored for a type is that type's event time; with
+ * {@link DataStorage#enableWatermarks} a new sample older than its type's event
+ * time minus the allowed lateness is refused, see {@link #TOO_LATE}.
  */
 public class Patient {
+    static final int HIBERNATED = -1;
+    static final int TOO_LATE = -2;
+    static final int STORED_OUT_OF_ORDER = 2;
+
     private final int patientId;
-    //Synchronized list ensures thread-safe access for concurrent data writes
-    private final List<PatientRecord> patientRecords = Collections.synchronizedList(new ArrayList<>());
+    //One series per record type, indexed by RecordType id
+    //Replaced, never modified, under the patient's monitor when a type is added
+    private volatile TimeSeries[] series = new TimeSeries[RecordType.count()];
+    private final RetentionPolicy retention;
+    //Newest sample per record type, indexed by RecordType id, Long.MIN_VALUE when none
+    //Written under the patient's monitor; the version is odd while a write is in progress
+    private volatile int latestVersion;
+    private long[] latestTimestamps = new long[0];
+    private double[] latestValues = new double[0];
+    //Hibernation bookkeeping, guarded by the monitor: stored samples, the count the last sweep saw and since when it has not changed
+    private long writes;
+    private long writesSeen = -1;
+    private long idleSince;
+    private boolean hibernated; // moved off the heap, writes must go to the reloaded patient
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of record series.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
+        this(patientId, RetentionPolicy.KEEP_ALL);
+    }
+
+    /**
+     * Constructs a new Patient whose records are compacted according to a retention policy.
+     *
+     * @param patientId the unique identifier for the patient
+     * @param retention how long raw samples and rollups are kept
+     */
+    public Patient(int patientId, RetentionPolicy retention) {
         this.patientId = patientId;
+        this.retention = retention;
     }
 
     /**
      * Adds a new record only if no existing record has the same timestamp and type
      * Ensures no duplicate entries under concurrent conditions
+     * The duplicate check does not scan the existing records, see {@link TimeSeries#add}
      *
      * @param measurementValue the measurement value to store in the record
      * @param recordType       the type of record, e.g., "HeartRate",
      *                         "BloodPressure"
      * @param timestamp        the time at which the measurement was taken, in
      *                         milliseconds since UNIX epoch
+     * @return true if the record was stored, false if it was a duplicate
+     */
+    public boolean addRecord(double measurementValue, String recordType, long timestamp) {
+        return addRecord(measurementValue, RecordType.resolve(recordType), timestamp);
+    }
+
+    /**
+     * Adds a new record of an already resolved type, see {@link #addRecord(double, String, long)}.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param recordTypeId     the {@link RecordType} id of the record
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     * @return true if the record was stored, false if it was a duplicate
+     * @throws IllegalStateException if the storage hibernated this patient
      */
-    public void addRecord(double measurementValue, String recordType, long timestamp) {
-        synchronized(patientRecords){
-            boolean duplicate = patientRecords.stream().anyMatch(record -> record.getTimestamp() == timestamp && record.getRecordType().equalsIgnoreCase(recordType));
-            if(!duplicate) patientRecords.add(new PatientRecord(patientId, measurementValue, recordType, timestamp));
+    public boolean addRecord(double measurementValue, int recordTypeId, long timestamp) {
+        int stored = tryAddRecord(recordTypeId, timestamp, measurementValue, RetentionPolicy.UNLIMITED);
+        if(stored == HIBERNATED) throw new IllegalStateException("Patient " + patientId + " was hibernated, add its records through the DataStorage");
+        return stored > 0;
+    }
+
+    /**
+     * Adds a record unless the patient was hibernated meanwhile or the record is
+     * new and older than the event time of its type minus the allowed lateness.
+     *
+     * @param allowedLateness how far behind the event time a record is still stored, {@link RetentionPolicy#UNLIMITED} for any
+     * @return 1 if the record was stored, {@link #STORED_OUT_OF_ORDER} if it was stored
+     *         behind the event time, 0 if it was a duplicate, {@link #TOO_LATE} if it
+     *         was refused as too late, {@link #HIBERNATED} if the patient was moved off the heap
+     *         and must be reloaded first
+     */
+    int tryAddRecord(int recordTypeId, long timestamp, double measurementValue, long allowedLateness) {
+        synchronized(this){
+            if(hibernated) return HIBERNATED;
+            if(belowWatermark(recordTypeId, timestamp, allowedLateness)) return series[recordTypeId].contains(timestamp) ? 0 : TOO_LATE;
+            boolean outOfOrder = timestamp < eventTime(recordTypeId);
+            if(!store(recordTypeId, timestamp, measurementValue)) return 0;
+            return outOfOrder ? STORED_OUT_OF_ORDER : 1;
         }
     }
 
+    /**
+     * Adds the rows[from..to) of a columnar batch under a single acquisition of
+     * the patient lock, in row order, see {@link DataStorage#addPatientDataBatch}.
+     *
+     * New rows older than the event time of their type minus the allowed lateness
+     * are refused and flipped to ~row in rows, see {@link #tryAddRecord}.
+     *
+     * @param stored     receives the rows that were stored, starting at storedFrom
+     * @param outOfOrder receives the number of rows stored behind the event time at
+     *                   index 0 and the oldest of them at index 1, which must be
+     *                   preset to 0 and Long.MAX_VALUE
+     * @return the number of rows stored, duplicates are skipped, or {@link #HIBERNATED}
+     *         if the patient was moved off the heap and must be reloaded first
+     */
+    int addRecords(int[] rows, int from, int to, int[] recordTypeIds, long[] timestamps, double[] values, int[] stored, int storedFrom,
+                   long allowedLateness, long[] outOfOrder) {
+        int n = 0;
+        synchronized(this){
+            if(hibernated) return HIBERNATED;
+            for(int i = from; i < to; i++){
+                int row = rows[i];
+                int recordTypeId = recordTypeIds[row];
+                long timestamp = timestamps[row];
+                if(belowWatermark(recordTypeId, timestamp, allowedLateness)){
+                    if(!series[recordTypeId].contains(timestamp)) rows[i] = ~row;
+                    continue;
+                }
+                boolean late = timestamp < eventTime(recordTypeId);
+                if(!store(recordTypeId, timestamp, values[row])) continue;
+                stored[storedFrom + n++] = row;
+                if(late){
+                    outOfOrder[0]++;
+                    outOfOrder[1] = Math.min(outOfOrder[1], timestamp);
+                }
+            }
+        }
+        return n;
+    }
+
+    //Newest timestamp stored for the type, Long.MIN_VALUE if none; caller holds the monitor
+    private long eventTime(int recordTypeId) {
+        return recordTypeId < latestTimestamps.length ? latestTimestamps[recordTypeId] : Long.MIN_VALUE;
+    }
+
+    //Caller holds the monitor; a type with samples has a series
+    private boolean belowWatermark(int recordTypeId, long timestamp, long allowedLateness) {
+        return timestamp < RetentionPolicy.cutoff(eventTime(recordTypeId), allowedLateness);
+    }
+
+    //Caller holds the monitor
+    private boolean store(int recordTypeId, long timestamp, double measurementValue) {
+        TimeSeries[] current = series;
+        TimeSeries typeSeries = recordTypeId < current.length ? current[recordTypeId] : null;
+        if(typeSeries == null){
+            typeSeries = new TimeSeries(recordTypeId, retention, this);
+            TimeSeries[] updated = Arrays.copyOf(current, Math.max(recordTypeId + 1, Math.max(current.length, RecordType.count())));
+            updated[recordTypeId] = typeSeries;
+            series = updated;
+        }
+        if(!typeSeries.add(timestamp, measurementValue)) return false;
+        writes++;
+        if(recordTypeId >= latestTimestamps.length || timestamp > latestTimestamps[recordTypeId]){
+            int version = latestVersion;
+            latestVersion = version + 1;
+            VarHandle.storeStoreFence(); // the cache writes must not become visible before the odd version
+            setLatest(recordTypeId, timestamp, measurementValue);
+            latestVersion = version + 2;
+        }
+        return true;
+    }
+
+    //Caller holds the monitor and has made the version odd, or the patient is not published yet
+    private void setLatest(int recordTypeId, long timestamp, double value) {
+        if(recordTypeId >= latestTimestamps.length){
+            int length = Math.max(recordTypeId + 1, RecordType.count());
+            long[] timestamps = Arrays.copyOf(latestTimestamps, length);
+            double[] values = Arrays.copyOf(latestValues, length);
+            Arrays.fill(timestamps, latestTimestamps.length, length, Long.MIN_VALUE);
+            Arrays.fill(values, latestValues.length, length, Double.NaN);
+            latestTimestamps = timestamps;
+            latestValues = values;
+        }
+        latestTimestamps[recordTypeId] = timestamp;
+        latestValues[recordTypeId] = value;
+    }
+
+    /**
+     * Copies the newest sample of each requested type into a row of the output
+     * columns, as one consistent read of the cache: retried if a writer updated it
+     * meanwhile, so it never blocks. Missing types get Long.MIN_VALUE and NaN.
+     */
+    void copyLatest(int[] recordTypeIds, int row, long[][] timestampsOut, double[][] valuesOut) {
+        int version;
+        do {
+            version = latestVersion;
+            long[] timestamps = latestTimestamps;
+            double[] values = latestValues;
+            for(int c = 0; c < recordTypeIds.length; c++){
+                int id = recordTypeIds[c];
+                //Lengths may disagree while the arrays are being grown, the version check retries then
+                boolean known = id >= 0 && id < timestamps.length && id < values.length;
+                timestampsOut[c][row] = known ? timestamps[id] : Long.MIN_VALUE;
+                valuesOut[c][row] = known ? values[id] : Double.NaN;
+            }
+            VarHandle.loadLoadFence(); // finish the cache reads before validating the version
+        } while((version & 1) != 0 || version != latestVersion);
+    }
+
     /**
      * Retrieves a list of PatientRecord objects for this patient that fall within a
      * specified time range.
      * The method filters records based on the start and end times provided.
+     * The returned records are a view materialized from the columnar storage,
+     * ordered by timestamp.
      *
      * @param startTime the start of the time range, in milliseconds since UNIX
      *                  epoch
@@ -54,14 +244,255 @@ public class Patient {
      *         range
      */
     public List<PatientRecord> getRecords(long startTime, long endTime) {
+        List<List<PatientRecord>> perType = new ArrayList<>();
+        for(TimeSeries typeSeries: series){
+            if(typeSeries == null) continue;
+            List<PatientRecord> typeRecords = new ArrayList<>();
+            typeSeries.collect(patientId, startTime, endTime, typeRecords);
+            if(!typeRecords.isEmpty()) perType.add(typeRecords);
+        }
+        return mergeByTimestamp(perType);
+    }
+
+    /**
+     * Retrieves the records of a single type that fall within a specified time
+     * range, ordered by timestamp. The label may be any alias known to {@link RecordType}.
+     *
+     * @param recordType the type of record, e.g., "ECG"
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX epoch
+     * @return a list of PatientRecord objects of that type within the time range
+     */
+    public List<PatientRecord> getRecords(String recordType, long startTime, long endTime) {
+        return getRecords(RecordType.lookup(recordType), startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of a single type that fall within a specified time
+     * range, ordered by timestamp.
+     *
+     * @param recordTypeId the {@link RecordType} id, e.g., {@link RecordType#ECG}
+     * @param startTime    the start of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param endTime      the end of the time range, in milliseconds since UNIX epoch
+     * @return a list of PatientRecord objects of that type within the time range
+     */
+    public List<PatientRecord> getRecords(int recordTypeId, long startTime, long endTime) {
         List<PatientRecord> filteredRecords = new ArrayList<>();
-        synchronized(patientRecords){
-            for(PatientRecord record: patientRecords){
-                long timestamp = record.getTimestamp();
-                if(timestamp >= startTime && timestamp <= endTime) filteredRecords.add(record);
+        TimeSeries[] current = series;
+        if(recordTypeId < 0 || recordTypeId >= current.length || current[recordTypeId] == null) return filteredRecords;
+        current[recordTypeId].collect(patientId, startTime, endTime, filteredRecords);
+        return filteredRecords;
+    }
+
+    /**
+     * Passes the samples of a single type within a time range to a visitor, in
+     * timestamp order, without materializing PatientRecord objects. Evicted parts
+     * of the range are visited as rollup bucket means, like {@link #getRecords}.
+     *
+     * @param recordTypeId the {@link RecordType} id, e.g., {@link RecordType#ECG}
+     * @param startTime    the start of the time range, in milliseconds since UNIX
+     *                     epoch
+     * @param endTime      the end of the time range, in milliseconds since UNIX epoch
+     * @param visitor      receives each sample's timestamp and value
+     */
+    public void forEachRecord(int recordTypeId, long startTime, long endTime, SampleVisitor visitor) {
+        TimeSeries[] current = series;
+        if(recordTypeId < 0 || recordTypeId >= current.length || current[recordTypeId] == null) return;
+        current[recordTypeId].scan(startTime, endTime, visitor);
+    }
+
+    /**
+     * Retrieves the newest sample of a single type from the cache, in O(1).
+     *
+     * @param recordTypeId the {@link RecordType} id, e.g., {@link RecordType#SATURATION}
+     * @return the newest record of that type, or null if there is none
+     */
+    public PatientRecord getLatest(int recordTypeId) {
+        long[][] timestamp = new long[1][1];
+        double[][] value = new double[1][1];
+        copyLatest(new int[]{recordTypeId}, 0, timestamp, value);
+        if(timestamp[0][0] == Long.MIN_VALUE) return null;
+        return new PatientRecord(patientId, value[0][0], RecordType.name(recordTypeId), recordTypeId, timestamp[0][0]);
+    }
+
+    /**
+     * Retrieves the newest n samples of a single type, ordered by timestamp.
+     * Samples that are only kept in the rollups are not included.
+     *
+     * @param recordTypeId the {@link RecordType} id, e.g., {@link RecordType#SATURATION}
+     * @param n            the maximum number of records
+     * @return up to n records of that type, oldest first
+     */
+    public List<PatientRecord> getLatest(int recordTypeId, int n) {
+        List<PatientRecord> latest = new ArrayList<>(Math.max(0, Math.min(n, TimeSeries.CHUNK_SIZE)));
+        forEachLatest(recordTypeId, n, (timestamp, value) -> latest.add(new PatientRecord(patientId, value, RecordType.name(recordTypeId), recordTypeId, timestamp)));
+        return latest;
+    }
+
+    /**
+     * Passes the newest n samples of a single type to a visitor, oldest first,
+     * without locking or allocating per sample.
+     *
+     * @param recordTypeId the {@link RecordType} id, e.g., {@link RecordType#SATURATION}
+     * @param n            the maximum number of samples
+     * @param visitor      receives each sample's timestamp and value
+     * @return the number of samples visited
+     */
+    public int forEachLatest(int recordTypeId, int n, SampleVisitor visitor) {
+        TimeSeries[] current = series;
+        if(recordTypeId < 0 || recordTypeId >= current.length || current[recordTypeId] == null) return 0;
+        return current[recordTypeId].scanLatest(n, visitor);
+    }
+
+    /**
+     * Reduces the records of a single type within a time range to fixed-width
+     * buckets, see {@link DataStorage#aggregate}. The rollups are read under the
+     * patient's monitor, so this briefly excludes writers of this patient.
+     *
+     * @param recordTypeId the {@link RecordType} id
+     * @param startTime    the start of the time range, in milliseconds since UNIX epoch
+     * @param endTime      the end of the time range, in milliseconds since UNIX epoch
+     * @param bucketWidth  the bucket width in milliseconds
+     * @param functions    the aggregate functions to compute per bucket
+     * @return the non-empty buckets in time order
+     */
+    public Aggregates aggregate(int recordTypeId, long startTime, long endTime, long bucketWidth, Aggregates.Function... functions) {
+        Aggregates aggregates = new Aggregates(bucketWidth, functions);
+        synchronized(this){
+            if(recordTypeId >= 0 && recordTypeId < series.length && series[recordTypeId] != null){
+                series[recordTypeId].aggregate(startTime, endTime, aggregates);
             }
         }
-        return filteredRecords;
+        aggregates.flush();
+        return aggregates;
+    }
+
+    /**
+     * Passes the last timestamp of every sealed chunk of this patient still on
+     * the heap to the consumer.
+     *
+     * @return the bytes held by those chunks
+     */
+    long hotChunks(LongConsumer lastTimestamps) {
+        long bytes = 0;
+        for(TimeSeries typeSeries: series){
+            if(typeSeries != null) bytes += typeSeries.hotChunks(lastTimestamps);
+        }
+        return bytes;
+    }
+
+    /**
+     * Spills the sealed chunks of every series that end at or before the cutoff to
+     * the segment store, see {@link TimeSeries#spill}.
+     *
+     * @return the bytes released from the heap
+     */
+    long spill(long cutoff, SegmentStore store) throws IOException {
+        synchronized(this){
+            long bytes = 0;
+            for(TimeSeries typeSeries: series){
+                if(typeSeries != null) bytes += typeSeries.spill(cutoff, store);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Called by every hibernation sweep: starts the idle period when the patient
+     * stored samples since the previous sweep, and writes the patient to the store
+     * once it has been idle for idleMillis. After that every write is refused with
+     * {@link #HIBERNATED}, so none is lost in the patient being dropped.
+     *
+     * @return true if the patient was hibernated and can be dropped from memory
+     * @throws IOException if the patient cannot be written, it stays in memory then
+     */
+    boolean hibernateIfIdle(long now, long idleMillis, HibernationStore store) throws IOException {
+        synchronized(this){
+            if(hibernated) return false;
+            if(writes != writesSeen){
+                writesSeen = writes;
+                idleSince = now;
+                return false;
+            }
+            if(now - idleSince < idleMillis) return false;
+            store.write(this);
+            hibernated = true;
+            for(TimeSeries typeSeries: series){
+                if(typeSeries != null) typeSeries.releaseChunks();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Serializes every series into a snapshot block. The copy is taken under the
+     * patient lock, so writers of this patient only wait for a memory copy, never
+     * for the disk.
+     *
+     * @param snapshotTypeIds maps {@link RecordType} ids to the type ids of the snapshot
+     * @return the block, positioned at 0
+     */
+    ByteBuffer serialize(IntUnaryOperator snapshotTypeIds) {
+        synchronized(this){
+            long bytes = 4;
+            int count = 0;
+            for(TimeSeries typeSeries: series){
+                if(typeSeries == null) continue;
+                bytes += 4 + typeSeries.serializedSize();
+                count++;
+            }
+            if(bytes > Integer.MAX_VALUE) throw new IllegalStateException("Patient " + patientId + " is too large for a snapshot block");
+            ByteBuffer out = ByteBuffer.allocate((int) bytes);
+            out.putInt(count);
+            for(TimeSeries typeSeries: series){
+                if(typeSeries == null) continue;
+                out.putInt(snapshotTypeIds.applyAsInt(typeSeries.getRecordTypeId()));
+                typeSeries.writeTo(out);
+            }
+            return out.flip();
+        }
+    }
+
+    /**
+     * Rebuilds a patient from a block written by {@link #serialize}.
+     *
+     * @param recordTypeIds maps the type ids of the snapshot to {@link RecordType} ids
+     */
+    static Patient deserialize(int patientId, ByteBuffer in, int[] recordTypeIds, RetentionPolicy retention) {
+        Patient patient = new Patient(patientId, retention);
+        int count = in.getInt();
+        for(int i = 0; i < count; i++){
+            int recordTypeId = recordTypeIds[in.getInt()];
+            if(recordTypeId >= patient.series.length) patient.series = Arrays.copyOf(patient.series, Math.max(recordTypeId + 1, RecordType.count()));
+            patient.series[recordTypeId] = TimeSeries.readFrom(in, recordTypeId, retention, patient);
+            patient.series[recordTypeId].scanLatest(1, (timestamp, value) -> patient.setLatest(recordTypeId, timestamp, value));
+        }
+        return patient;
+    }
+
+    //K-way merge of per-type lists that are each already sorted by timestamp
+    private static List<PatientRecord> mergeByTimestamp(List<List<PatientRecord>> perType) {
+        if(perType.isEmpty()) return new ArrayList<>();
+        if(perType.size() == 1) return perType.get(0);
+        int total = 0;
+        for(List<PatientRecord> typeRecords: perType) total += typeRecords.size();
+        List<PatientRecord> merged = new ArrayList<>(total);
+        int[] positions = new int[perType.size()];
+        while(merged.size() < total){
+            int next = -1;
+            long nextTimestamp = Long.MAX_VALUE;
+            for(int i = 0; i < positions.length; i++){
+                List<PatientRecord> typeRecords = perType.get(i);
+                if(positions[i] < typeRecords.size() && (next < 0 || typeRecords.get(positions[i]).getTimestamp() < nextTimestamp)){
+                    next = i;
+                    nextTimestamp = typeRecords.get(positions[i]).getTimestamp();
+                }
+            }
+            merged.add(perType.get(next).get(positions[next]++));
+        }
+        return merged;
     }
     public int getPatientId(){return patientId;}
 }
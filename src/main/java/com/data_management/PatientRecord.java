@@ -12,6 +12,7 @@ package com.data_management;
 public class PatientRecord {
     private int patientId;
     private String recordType; // Example: ECG, blood pressure, etc.
+    private int recordTypeId; // RecordType id of recordType
     private double measurementValue; // Example: heart rate
     private long timestamp;
 
@@ -26,9 +27,25 @@ public class PatientRecord {
      *                         milliseconds since epoch
      */
     public PatientRecord(int patientId, double measurementValue, String recordType, long timestamp) {
+        this(patientId, measurementValue, recordType, RecordType.resolve(recordType), timestamp);
+    }
+
+    /**
+     * Constructs a new patient record whose type is already resolved.
+     *
+     * @param patientId        the unique identifier for the patient
+     * @param measurementValue the numerical value of the recorded measurement
+     * @param recordType       the type of measurement (e.g., "ECG", "Blood
+     *                         Pressure")
+     * @param recordTypeId     the {@link RecordType} id of recordType
+     * @param timestamp        the time at which the measurement was recorded, in
+     *                         milliseconds since epoch
+     */
+    PatientRecord(int patientId, double measurementValue, String recordType, int recordTypeId, long timestamp) {
         this.patientId = patientId;
         this.measurementValue = measurementValue;
         this.recordType = recordType;
+        this.recordTypeId = recordTypeId;
         this.timestamp = timestamp;
     }
 
@@ -67,4 +84,13 @@ public class PatientRecord {
     public String getRecordType() {
         return recordType;
     }
+
+    /**
+     * Returns the {@link RecordType} id of this record.
+     * 
+     * @return the record type id
+     */
+    public int getRecordTypeId() {
+        return recordTypeId;
+    }
 }
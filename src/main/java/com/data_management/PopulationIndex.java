@@ -0,0 +1,300 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Cross-patient secondary index answering population queries such as "which
+ * patients had Saturation below 92 in the last 5 minutes" without scanning every
+ * patient. For each record type it keeps one-minute buckets, and in each bucket
+ * the min and max of every patient that had a sample in it, plus the min and max
+ * over the whole bucket.
+ * A query skips buckets outside its time range and buckets whose overall bounds
+ * miss the value range, then skips the patients whose own bounds miss it. A patient
+ * whose bucket lies entirely inside the time range and whose min or max falls in
+ * the value range matches without touching its samples; only buckets cut by the
+ * ends of the time range, and bounds that straddle a two-sided value range, are
+ * confirmed against the patient's samples.
+ * Buckets older than the index retention of the {@link RetentionPolicy} are
+ * dropped, so memory is bounded by the number of patients active in the window.
+ * Patients are spread over stripes with a lock each, so concurrent writers of
+ * different patients rarely contend and queries only block one stripe at a time.
+ */
+final class PopulationIndex {
+    static final long BUCKET_WIDTH = 60 * 1000L;
+    private static final int STRIPES = 16; // power of two
+
+    /**
+     * Confirms that a patient has a sample within [low, high] in a time range.
+     */
+    interface Verifier {
+        boolean matches(int patientId, int recordTypeId, long startTime, long endTime, double low, double high);
+    }
+
+    private final long retention;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    PopulationIndex(long retention) {
+        this.retention = retention;
+        for (int s = 0; s < STRIPES; s++) stripes[s] = new Stripe();
+    }
+
+    /**
+     * Indexes a stored sample. Samples older than the retention window are ignored.
+     */
+    void add(int patientId, int recordTypeId, long timestamp, double value) {
+        Stripe stripe = stripes[patientId & (STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.add(patientId, recordTypeId, timestamp, value, retention);
+        }
+    }
+
+    /**
+     * Indexes stored samples of one patient, the rows[from..to) of a columnar
+     * batch, under a single acquisition of the stripe lock.
+     */
+    void add(int patientId, int[] recordTypeIds, long[] timestamps, double[] values, int[] rows, int from, int to) {
+        Stripe stripe = stripes[patientId & (STRIPES - 1)];
+        synchronized (stripe) {
+            for (int i = from; i < to; i++) {
+                int row = rows[i];
+                stripe.add(patientId, recordTypeIds[row], timestamps[row], values[row], retention);
+            }
+        }
+    }
+
+    /**
+     * Finds the patients with at least one sample of a type whose value is within
+     * [low, high] and whose timestamp is within [startTime, endTime].
+     *
+     * @return the matching patient ids, sorted
+     */
+    int[] query(int recordTypeId, long startTime, long endTime, double low, double high, Verifier verifier) {
+        //Stripes evict on their own writes only, so clamp to the window of the newest sample of any stripe
+        long newest = Long.MIN_VALUE;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                newest = Math.max(newest, stripe.newest(recordTypeId));
+            }
+        }
+        startTime = Math.max(startTime, RetentionPolicy.cutoff(newest, retention));
+        IntList matches = new IntList();
+        Candidates candidates = new Candidates();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.query(recordTypeId, startTime, endTime, low, high, matches, candidates);
+            }
+        }
+        int[] exact = matches.toSortedUnique();
+        //Confirmed outside the stripe locks, the verifier reads patient data
+        IntList confirmed = new IntList();
+        for (int i = 0; i < candidates.size; i++) {
+            int patientId = candidates.patientIds[i];
+            if (Arrays.binarySearch(exact, patientId) >= 0) continue;
+            if (verifier.matches(patientId, recordTypeId, candidates.starts[i], candidates.ends[i], low, high)) confirmed.add(patientId);
+        }
+        if (confirmed.size == 0) return exact;
+        for (int patientId : exact) confirmed.add(patientId);
+        return confirmed.toSortedUnique();
+    }
+
+    //Buckets of every record type for the patients of one stripe, guarded by the stripe's monitor
+    private static final class Stripe {
+        private TypeBuckets[] byType = new TypeBuckets[0];
+
+        void add(int patientId, int recordTypeId, long timestamp, double value, long retention) {
+            if (recordTypeId >= byType.length) byType = Arrays.copyOf(byType, Math.max(recordTypeId + 1, RecordType.count()));
+            TypeBuckets buckets = byType[recordTypeId];
+            if (buckets == null) byType[recordTypeId] = buckets = new TypeBuckets();
+            buckets.add(patientId, timestamp, value, retention);
+        }
+
+        long newest(int recordTypeId) {
+            if (recordTypeId < 0 || recordTypeId >= byType.length || byType[recordTypeId] == null) return Long.MIN_VALUE;
+            return byType[recordTypeId].newest;
+        }
+
+        void query(int recordTypeId, long startTime, long endTime, double low, double high, IntList matches, Candidates candidates) {
+            if (recordTypeId < 0 || recordTypeId >= byType.length || byType[recordTypeId] == null) return;
+            byType[recordTypeId].query(startTime, endTime, low, high, matches, candidates);
+        }
+    }
+
+    //Buckets of one record type, sorted by start
+    private static final class TypeBuckets {
+        private Bucket[] buckets = new Bucket[4];
+        private int count;
+        private long newest = Long.MIN_VALUE;
+
+        void add(int patientId, long timestamp, double value, long retention) {
+            if (timestamp > newest) {
+                newest = timestamp;
+                evictBefore(RetentionPolicy.cutoff(newest, retention));
+            } else if (timestamp < RetentionPolicy.cutoff(newest, retention)) {
+                return;
+            }
+            long start = Math.floorDiv(timestamp, BUCKET_WIDTH) * BUCKET_WIDTH;
+            Bucket bucket;
+            if (count > 0 && buckets[count - 1].start == start) {
+                bucket = buckets[count - 1];
+            } else {
+                int i = indexOf(start);
+                if (i >= 0) {
+                    bucket = buckets[i];
+                } else {
+                    i = -i - 1;
+                    if (count == buckets.length) buckets = Arrays.copyOf(buckets, count * 2);
+                    System.arraycopy(buckets, i, buckets, i + 1, count - i);
+                    buckets[i] = bucket = new Bucket(start);
+                    count++;
+                }
+            }
+            bucket.add(patientId, value);
+        }
+
+        //Drops the buckets that end before the cutoff
+        private void evictBefore(long cutoff) {
+            int evicted = 0;
+            while (evicted < count && buckets[evicted].start + BUCKET_WIDTH <= cutoff) evicted++;
+            if (evicted == 0) return;
+            System.arraycopy(buckets, evicted, buckets, 0, count - evicted);
+            Arrays.fill(buckets, count - evicted, count, null);
+            count -= evicted;
+        }
+
+        private int indexOf(long start) {
+            int low = 0, high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (buckets[mid].start < start) low = mid + 1;
+                else if (buckets[mid].start > start) high = mid - 1;
+                else return mid;
+            }
+            return -low - 1;
+        }
+
+        private int firstEndingAtOrAfter(long timestamp) {
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (buckets[mid].start + BUCKET_WIDTH - 1 < timestamp) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        void query(long startTime, long endTime, double low, double high, IntList matches, Candidates candidates) {
+            for (int b = firstEndingAtOrAfter(startTime); b < count && buckets[b].start <= endTime; b++) {
+                Bucket bucket = buckets[b];
+                if (bucket.max < low || bucket.min > high) continue;
+                long bucketEnd = bucket.start + BUCKET_WIDTH - 1;
+                boolean inside = bucket.start >= startTime && bucketEnd <= endTime;
+                for (int i = 0; i < bucket.size; i++) {
+                    double min = bucket.mins[i], max = bucket.maxs[i];
+                    if (max < low || min > high) continue;
+                    if (inside && (min >= low || max <= high)) {
+                        //The min or the max is a sample within both ranges
+                        matches.add(bucket.patientIds[i]);
+                    } else {
+                        candidates.add(bucket.patientIds[i], Math.max(startTime, bucket.start), Math.min(endTime, bucketEnd));
+                    }
+                }
+            }
+        }
+    }
+
+    //Per-patient bounds within one time bucket, with an open-addressing table from patient id to entry
+    private static final class Bucket {
+        final long start;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int[] patientIds = new int[8];
+        double[] mins = new double[8];
+        double[] maxs = new double[8];
+        int size;
+        private int[] slots = new int[16]; // entry index + 1, 0 when free
+
+        Bucket(long start) {
+            this.start = start;
+        }
+
+        void add(int patientId, double value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            int mask = slots.length - 1;
+            int slot = hash(patientId) & mask;
+            while (slots[slot] != 0) {
+                int entry = slots[slot] - 1;
+                if (patientIds[entry] == patientId) {
+                    mins[entry] = Math.min(mins[entry], value);
+                    maxs[entry] = Math.max(maxs[entry], value);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == patientIds.length) {
+                patientIds = Arrays.copyOf(patientIds, size * 2);
+                mins = Arrays.copyOf(mins, size * 2);
+                maxs = Arrays.copyOf(maxs, size * 2);
+            }
+            patientIds[size] = patientId;
+            mins[size] = value;
+            maxs[size] = value;
+            slots[slot] = ++size;
+            if (size * 2 > slots.length) rehash();
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int entry = 0; entry < size; entry++) {
+                int slot = hash(patientIds[entry]) & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = entry + 1;
+            }
+        }
+
+        private static int hash(int patientId) {
+            return (patientId * 0x9E3779B9) >>> 7;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toSortedUnique() {
+            int[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) sorted[unique++] = sorted[i];
+            }
+            return Arrays.copyOf(sorted, unique);
+        }
+    }
+
+    //Patients whose bounds could not decide a bucket, with the part of the query range the bucket covers
+    private static final class Candidates {
+        int[] patientIds = new int[16];
+        long[] starts = new long[16];
+        long[] ends = new long[16];
+        int size;
+
+        void add(int patientId, long start, long end) {
+            if (size == patientIds.length) {
+                patientIds = Arrays.copyOf(patientIds, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            patientIds[size] = patientId;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+}
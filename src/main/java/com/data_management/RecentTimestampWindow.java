@@ -0,0 +1,132 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Bounded set of the most recent timestamps of a time series, used to reject
+ * duplicate samples in constant time without searching the series itself.
+ * Timestamps live in a primitive open-addressing hash table and are evicted in
+ * insertion order once they fall out of the time horizon or the table is full.
+ * Every stored timestamp at or above {@link #floor()} is guaranteed to be in the
+ * window, so a miss above the floor proves the timestamp is new; below the floor
+ * callers have to fall back to the series index.
+ * This class is not thread-safe, callers must synchronize on the owning patient.
+ */
+class RecentTimestampWindow {
+    static final long DEFAULT_HORIZON = 5 * 60 * 1000L; // 5 minutes
+    static final int DEFAULT_MAX_SIZE = 4096;
+    private static final long EMPTY = Long.MIN_VALUE; // Long.MIN_VALUE is never stored, it is below any floor
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final long horizon;
+    private final int maxSize;
+    private long[] table = newTable(INITIAL_CAPACITY * 2);
+    private long[] fifo = new long[INITIAL_CAPACITY]; // ring buffer in insertion order
+    private int head;
+    private int size;
+    private long floor = Long.MIN_VALUE + 1;
+
+    RecentTimestampWindow() {
+        this(DEFAULT_HORIZON, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param horizon how far behind the newest timestamp keys are kept, in milliseconds
+     * @param maxSize the maximum number of keys kept regardless of the horizon
+     */
+    RecentTimestampWindow(long horizon, int maxSize) {
+        this.horizon = horizon;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the lowest timestamp the window answers for exactly
+     */
+    long floor() {
+        return floor;
+    }
+
+    /**
+     * Checks whether the window holds the timestamp. Only meaningful for
+     * timestamps at or above {@link #floor()}.
+     */
+    boolean contains(long timestamp) {
+        int mask = table.length - 1;
+        for (int i = slot(timestamp, mask); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == timestamp) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a newly stored timestamp and evicts keys that fell out of the window.
+     * Timestamps below the floor are ignored, the series index already covers them.
+     *
+     * @param timestamp the stored timestamp
+     * @param newest    the newest timestamp of the series after the insert
+     */
+    void add(long timestamp, long newest) {
+        if (timestamp < floor) return;
+        while (size > 0 && (size == maxSize || fifo[head] < newest - horizon)) evictOldest();
+        if (size == fifo.length) grow();
+        fifo[(head + size) % fifo.length] = timestamp;
+        size++;
+        int mask = table.length - 1;
+        int i = slot(timestamp, mask);
+        while (table[i] != EMPTY) i = (i + 1) & mask;
+        table[i] = timestamp;
+    }
+
+    //Drops the key inserted first and raises the floor above it
+    private void evictOldest() {
+        long timestamp = fifo[head];
+        head = (head + 1) % fifo.length;
+        size--;
+        floor = Math.max(floor, timestamp + 1);
+        remove(timestamp);
+    }
+
+    //Linear probing removal with backward shift, so no tombstones are needed
+    private void remove(long timestamp) {
+        int mask = table.length - 1;
+        int i = slot(timestamp, mask);
+        while (table[i] != timestamp) i = (i + 1) & mask;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == EMPTY) break;
+            int home = slot(table[j], mask);
+            //Move the entry back if its home slot is not cyclically within (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = EMPTY;
+    }
+
+    private void grow() {
+        long[] ring = new long[fifo.length * 2];
+        for (int k = 0; k < size; k++) ring[k] = fifo[(head + k) % fifo.length];
+        fifo = ring;
+        head = 0;
+        table = newTable(ring.length * 2);
+        int mask = table.length - 1;
+        for (int k = 0; k < size; k++) {
+            int i = slot(fifo[k], mask);
+            while (table[i] != EMPTY) i = (i + 1) & mask;
+            table[i] = fifo[k];
+        }
+    }
+
+    private static long[] newTable(int capacity) {
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int slot(long timestamp, int mask) {
+        long h = timestamp * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
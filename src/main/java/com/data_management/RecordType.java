@@ -0,0 +1,117 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of record types. Every free-form label ("Saturation", "Oxygen Saturation",
+ * "BloodSaturation", ...) is resolved once at the ingest boundary to a small int id
+ * with a canonical name, so storage, filtering and alert routing compare ints
+ * instead of strings. Labels are matched ignoring case, spaces and punctuation, and
+ * unknown labels passed to {@link #resolve} are registered on first use so arbitrary
+ * types can still be stored through the API and from local files. Labels received
+ * by the network transports only go through {@link #lookup}: a feed cannot
+ * register types, so junk labels cannot grow the registry, nor the per-type
+ * arrays of every patient.
+ * At most {@link #MAX_CACHED_LABELS} raw spellings are cached, later ones are
+ * normalized on every call.
+ */
+public final class RecordType {
+    static final int MAX_CACHED_LABELS = 1024;
+    private static final Map<String, Integer> idsByLabel = new ConcurrentHashMap<>(); // raw label cache, bounded
+    private static final Map<String, Integer> idsByKey = new ConcurrentHashMap<>(); // normalized label
+    private static volatile String[] names = new String[0];
+
+    public static final int ECG = register("ECG");
+    public static final int HEART_RATE = register("HeartRate", "Heart Rate", "HR", "Pulse");
+    public static final int SATURATION = register("Saturation", "BloodSaturation", "Oxygen Saturation", "SpO2");
+    public static final int SYSTOLIC_PRESSURE = register("SystolicPressure", "Systolic Blood Pressure", "Systolic");
+    public static final int DIASTOLIC_PRESSURE = register("DiastolicPressure", "Diastolic Blood Pressure", "Diastolic");
+    public static final int CHOLESTEROL = register("Cholesterol");
+    public static final int WHITE_BLOOD_CELLS = register("WhiteBloodCells");
+    public static final int RED_BLOOD_CELLS = register("RedBloodCells");
+    public static final int ALERT = register("Alert");
+
+    private RecordType() {
+    }
+
+    /**
+     * Resolves a label to its type id, registering it as a new type if no known
+     * name or alias matches.
+     *
+     * @param label the record type label as received, e.g. "Oxygen Saturation"
+     * @return the id of the type
+     */
+    public static int resolve(String label) {
+        Integer id = idsByLabel.get(label);
+        if (id != null) return id;
+        synchronized (RecordType.class) {
+            String key = normalize(label);
+            id = idsByKey.get(key);
+            if (id == null) {
+                //The name is published before the id, so lock-free lookups never find an id without a name
+                id = names.length;
+                names = append(names, label.trim());
+                idsByKey.put(key, id);
+            }
+            if (idsByLabel.size() < MAX_CACHED_LABELS) idsByLabel.put(label, id);
+            return id;
+        }
+    }
+
+    /**
+     * Looks a label up without registering it.
+     *
+     * @param label the record type label
+     * @return the id of the type, or -1 if no type matches the label
+     */
+    public static int lookup(String label) {
+        Integer id = idsByLabel.get(label);
+        if (id == null) id = idsByKey.get(normalize(label));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the canonical name of a type, e.g. "Saturation" for every saturation alias.
+     *
+     * @param id the type id
+     * @return the canonical name
+     */
+    public static String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the number of registered types, ids range from 0 to count() - 1
+     */
+    public static int count() {
+        return names.length;
+    }
+
+    private static synchronized int register(String canonicalName, String... aliases) {
+        int id = names.length;
+        names = append(names, canonicalName);
+        idsByKey.put(normalize(canonicalName), id);
+        idsByLabel.put(canonicalName, id);
+        for (String alias : aliases) idsByKey.put(normalize(alias), id);
+        return id;
+    }
+
+    //Lower case without whitespace or punctuation, so "Oxygen Saturation" matches "oxygensaturation"
+    private static String normalize(String label) {
+        StringBuilder key = new StringBuilder(label.length());
+        for (int i = 0; i < label.length(); i++) {
+            char c = label.charAt(i);
+            if (Character.isLetterOrDigit(c)) key.append(c);
+        }
+        return key.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static String[] append(String[] array, String name) {
+        String[] copy = Arrays.copyOf(array, array.length + 1);
+        copy[array.length] = name;
+        return copy;
+    }
+}
@@ -0,0 +1,100 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Configures how long {@link DataStorage} keeps data. Raw samples older than the
+ * raw retention of their record type are compacted into minute and hour rollups
+ * (min/max/mean/count), which are in turn dropped after their own retention, so
+ * memory stays bounded however long the process runs. The population index of a
+ * DataStorage covers its own, shorter window, one hour by default.
+ * Durations are in milliseconds and measured back from the newest sample of each
+ * series. Instances are immutable, the with* methods return modified copies.
+ */
+public class RetentionPolicy {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /** Keeps every raw sample forever, the behavior of a DataStorage without a policy. */
+    public static final RetentionPolicy KEEP_ALL = new RetentionPolicy(UNLIMITED, UNLIMITED, UNLIMITED);
+
+    private static final long DEFAULT_INDEX_RETENTION = 60 * 60 * 1000L;
+
+    private final long defaultRawRetention;
+    private final long[] rawRetentionByType; // indexed by RecordType id, 0 means use the default
+    private final long minuteRollupRetention;
+    private final long hourRollupRetention;
+    private final long indexRetention;
+
+    /**
+     * @param defaultRawRetention   how long raw samples of any type are kept, e.g. 24 hours
+     * @param minuteRollupRetention how long minute rollups are kept
+     * @param hourRollupRetention   how long hour rollups are kept
+     */
+    public RetentionPolicy(long defaultRawRetention, long minuteRollupRetention, long hourRollupRetention) {
+        this(defaultRawRetention, new long[0], minuteRollupRetention, hourRollupRetention, DEFAULT_INDEX_RETENTION);
+    }
+
+    private RetentionPolicy(long defaultRawRetention, long[] rawRetentionByType, long minuteRollupRetention, long hourRollupRetention, long indexRetention) {
+        if (defaultRawRetention <= 0 || minuteRollupRetention <= 0 || hourRollupRetention <= 0 || indexRetention <= 0) {
+            throw new IllegalArgumentException("Retention durations must be positive");
+        }
+        this.defaultRawRetention = defaultRawRetention;
+        this.rawRetentionByType = rawRetentionByType;
+        this.minuteRollupRetention = minuteRollupRetention;
+        this.hourRollupRetention = hourRollupRetention;
+        this.indexRetention = indexRetention;
+    }
+
+    /**
+     * Returns a copy of this policy with a specific raw retention for one record type.
+     *
+     * @param recordType the record type label, any {@link RecordType} alias
+     * @param retention  how long raw samples of that type are kept
+     * @return the modified policy
+     */
+    public RetentionPolicy withRawRetention(String recordType, long retention) {
+        if (retention <= 0) throw new IllegalArgumentException("Retention durations must be positive");
+        int id = RecordType.resolve(recordType);
+        long[] byType = Arrays.copyOf(rawRetentionByType, Math.max(rawRetentionByType.length, id + 1));
+        byType[id] = retention;
+        return new RetentionPolicy(defaultRawRetention, byType, minuteRollupRetention, hourRollupRetention, indexRetention);
+    }
+
+    /**
+     * Returns a copy of this policy with a different window for the population
+     * index, see {@link DataStorage#findPatients}. Population queries only see
+     * samples within this window of the newest sample of their type.
+     *
+     * @param retention how long samples stay in the population index
+     * @return the modified policy
+     */
+    public RetentionPolicy withIndexRetention(long retention) {
+        return new RetentionPolicy(defaultRawRetention, rawRetentionByType, minuteRollupRetention, hourRollupRetention, retention);
+    }
+
+    /**
+     * @param recordTypeId the {@link RecordType} id
+     * @return how long raw samples of the type are kept
+     */
+    public long getRawRetention(int recordTypeId) {
+        if (recordTypeId < rawRetentionByType.length && rawRetentionByType[recordTypeId] > 0) return rawRetentionByType[recordTypeId];
+        return defaultRawRetention;
+    }
+
+    public long getMinuteRollupRetention() {
+        return minuteRollupRetention;
+    }
+
+    public long getHourRollupRetention() {
+        return hourRollupRetention;
+    }
+
+    public long getIndexRetention() {
+        return indexRetention;
+    }
+
+    //Oldest timestamp still inside a retention window ending at newest
+    static long cutoff(long newest, long retention) {
+        return retention == UNLIMITED || newest < Long.MIN_VALUE + retention ? Long.MIN_VALUE : newest - retention;
+    }
+}
@@ -0,0 +1,200 @@
+package com.data_management;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed-width time buckets holding min/max/sum/count of the samples that fell
+ * into them. A series keeps them up to date on every stored sample, so they
+ * answer aggregate queries without touching raw samples and keep downsampled
+ * history after raw samples are evicted.
+ * Buckets are stored in start order in parallel primitive arrays.
+ * This class is not thread-safe, callers must synchronize on the owning patient.
+ */
+class Rollup {
+    static final long MINUTE = 60 * 1000L;
+    static final long HOUR = 60 * MINUTE;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final long width;
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private double[] mins = new double[INITIAL_CAPACITY];
+    private double[] maxs = new double[INITIAL_CAPACITY];
+    private double[] sums = new double[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param width the bucket width in milliseconds
+     */
+    Rollup(long width) {
+        this.width = width;
+    }
+
+    long width() {
+        return width;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of samples over all buckets
+     */
+    long totalCount() {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += counts[i];
+        return total;
+    }
+
+    /**
+     * @return the start of the oldest bucket, or Long.MAX_VALUE if there is none
+     */
+    long firstStart() {
+        return size == 0 ? Long.MAX_VALUE : starts[0];
+    }
+
+    /**
+     * @return the number of samples in the buckets starting within [startTime, endTime]
+     */
+    long count(long startTime, long endTime) {
+        int i = Arrays.binarySearch(starts, 0, size, startTime);
+        if (i < 0) i = -i - 1;
+        long count = 0;
+        for (; i < size && starts[i] <= endTime; i++) count += counts[i];
+        return count;
+    }
+
+    /**
+     * @return whether a bucket covering the timestamp holds any sample
+     */
+    boolean covers(long timestamp) {
+        return Arrays.binarySearch(starts, 0, size, Math.floorDiv(timestamp, width) * width) >= 0;
+    }
+
+    /**
+     * Folds a sample into the bucket covering its timestamp.
+     */
+    void add(long timestamp, double value) {
+        long start = Math.floorDiv(timestamp, width) * width;
+        int i;
+        if (size > 0 && starts[size - 1] == start) {
+            i = size - 1;
+        } else if (size == 0 || starts[size - 1] < start) {
+            i = insertBucket(size, start);
+        } else {
+            i = Arrays.binarySearch(starts, 0, size, start);
+            if (i < 0) i = insertBucket(-i - 1, start);
+        }
+        if (counts[i] == 0) {
+            mins[i] = value;
+            maxs[i] = value;
+        } else {
+            mins[i] = Math.min(mins[i], value);
+            maxs[i] = Math.max(maxs[i], value);
+        }
+        sums[i] += value;
+        counts[i]++;
+    }
+
+    private int insertBucket(int pos, long start) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        int tail = size - pos;
+        System.arraycopy(starts, pos, starts, pos + 1, tail);
+        System.arraycopy(mins, pos, mins, pos + 1, tail);
+        System.arraycopy(maxs, pos, maxs, pos + 1, tail);
+        System.arraycopy(sums, pos, sums, pos + 1, tail);
+        System.arraycopy(counts, pos, counts, pos + 1, tail);
+        starts[pos] = start;
+        sums[pos] = 0;
+        counts[pos] = 0;
+        size++;
+        return pos;
+    }
+
+    /**
+     * Drops every bucket that ends at or before the cutoff.
+     */
+    void dropBefore(long cutoff) {
+        if (cutoff == Long.MIN_VALUE) return;
+        int drop = 0;
+        while (drop < size && starts[drop] <= cutoff - width) drop++;
+        if (drop == 0) return;
+        int keep = size - drop;
+        System.arraycopy(starts, drop, starts, 0, keep);
+        System.arraycopy(mins, drop, mins, 0, keep);
+        System.arraycopy(maxs, drop, maxs, 0, keep);
+        System.arraycopy(sums, drop, sums, 0, keep);
+        System.arraycopy(counts, drop, counts, 0, keep);
+        size = keep;
+    }
+
+    //Bytes written by writeTo
+    long serializedSize() {
+        return 4 + size * 36L;
+    }
+
+    //Bucket count followed by one column per field
+    void writeTo(ByteBuffer out) {
+        out.putInt(size);
+        out.asLongBuffer().put(starts, 0, size);
+        out.position(out.position() + size * 8);
+        for (double[] column : new double[][]{mins, maxs, sums}) {
+            out.asDoubleBuffer().put(column, 0, size);
+            out.position(out.position() + size * 8);
+        }
+        out.asIntBuffer().put(counts, 0, size);
+        out.position(out.position() + size * 4);
+    }
+
+    static Rollup readFrom(ByteBuffer in, long width) {
+        Rollup rollup = new Rollup(width);
+        int size = in.getInt();
+        if (size > INITIAL_CAPACITY) {
+            rollup.starts = new long[size];
+            rollup.mins = new double[size];
+            rollup.maxs = new double[size];
+            rollup.sums = new double[size];
+            rollup.counts = new int[size];
+        }
+        in.asLongBuffer().get(rollup.starts, 0, size);
+        in.position(in.position() + size * 8);
+        for (double[] column : new double[][]{rollup.mins, rollup.maxs, rollup.sums}) {
+            in.asDoubleBuffer().get(column, 0, size);
+            in.position(in.position() + size * 8);
+        }
+        in.asIntBuffer().get(rollup.counts, 0, size);
+        in.position(in.position() + size * 4);
+        rollup.size = size;
+        return rollup;
+    }
+
+    /**
+     * Feeds every bucket starting within [startTime, endTime] to an aggregate, in order.
+     */
+    void aggregate(long startTime, long endTime, Aggregates out) {
+        int i = Arrays.binarySearch(starts, 0, size, startTime);
+        if (i < 0) i = -i - 1;
+        for (; i < size && starts[i] <= endTime; i++) out.add(starts[i], mins[i], maxs[i], sums[i], counts[i]);
+    }
+
+    /**
+     * Emits one sample per bucket starting within [startTime, endTime], stamped
+     * with the bucket start and carrying the bucket mean.
+     */
+    void visitMeans(long startTime, long endTime, SampleVisitor visitor) {
+        int i = Arrays.binarySearch(starts, 0, size, startTime);
+        if (i < 0) i = -i - 1;
+        for (; i < size && starts[i] <= endTime; i++) {
+            visitor.visit(starts[i], sums[i] / counts[i]);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.data_management;
+
+/**
+ * Receives the samples of a range scan one at a time, in timestamp order, as
+ * primitives. Used by {@link DataStorage#forEachRecord} and
+ * {@link Patient#forEachRecord} to read data without allocating a
+ * {@link PatientRecord} per sample; a visitor that keeps its state in fields can
+ * be reused across scans, so a scan allocates nothing per record.
+ */
+@FunctionalInterface
+public interface SampleVisitor {
+    /**
+     * @param timestamp the time of the sample, in milliseconds since UNIX epoch
+     * @param value     the measured value
+     */
+    void visit(long timestamp, double value);
+}
@@ -0,0 +1,193 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cold tier of a {@link DataStorage}: sealed chunks spilled from the heap are
+ * appended, still Gorilla encoded, to segment files of up to {@link #SEGMENT_BYTES}.
+ * The spilled chunks stay in their series with their bounds, sample count and
+ * file location, which is all the in-memory index a range query needs to find
+ * them; their words are read back on demand. The segment being written is read
+ * through positional FileChannel reads, full segments are memory-mapped, their
+ * channel closed, and never change again. A segment file is deleted once every chunk it holds was evicted
+ * or replaced.
+ * Segments only back the heap, durability still comes from the snapshot and the
+ * write-ahead log, so files left over from an earlier process are deleted on open.
+ */
+final class SegmentStore implements Closeable {
+    static final long SEGMENT_BYTES = 64L << 20;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".dat";
+
+    private final Path directory;
+    private final List<Segment> segments = new ArrayList<>(); // guarded by this
+    private Segment active; // guarded by this
+    private long nextSequence;
+
+    private SegmentStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens an empty store in a directory, deleting segment files left over from
+     * an earlier process.
+     *
+     * @throws IOException if the directory cannot be created or cleaned
+     */
+    static SegmentStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) Files.delete(file);
+        }
+        return new SegmentStore(directory);
+    }
+
+    /**
+     * Appends the encoded words of a chunk to the active segment, starting a new
+     * segment when it is full.
+     *
+     * @return where the words were written
+     * @throws IOException if the segment cannot be written
+     */
+    synchronized Location write(long[] words) throws IOException {
+        long bytes = words.length * 8L;
+        if (active == null || active.size + bytes > SEGMENT_BYTES) {
+            if (active != null) active.seal();
+            Path path = directory.resolve(String.format("%s%010d%s", PREFIX, nextSequence++, SUFFIX));
+            active = new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.add(active);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) bytes).order(ByteOrder.nativeOrder());
+        buffer.asLongBuffer().put(words);
+        long offset = active.size;
+        while (buffer.hasRemaining()) active.channel.write(buffer, offset + buffer.position());
+        active.size += bytes;
+        active.liveChunks.incrementAndGet();
+        return new Location(active, offset, words.length);
+    }
+
+    /**
+     * @return the number of segment files currently on disk
+     */
+    synchronized int segmentCount() {
+        segments.removeIf(Segment::isDeleted);
+        return segments.size();
+    }
+
+    /**
+     * Closes every segment file. Chunks in full segments can still be read through
+     * their mapping, chunks in the active segment can no longer be read.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) segment.channel.close();
+    }
+
+    /**
+     * The place of a spilled chunk's words in a segment.
+     */
+    static final class Location {
+        final Segment segment;
+        final long offset;
+        final int words;
+
+        private Location(Segment segment, long offset, int words) {
+            this.segment = segment;
+            this.offset = offset;
+            this.words = words;
+        }
+
+        /**
+         * Reads the words back.
+         *
+         * @throws UncheckedIOException if the segment cannot be read
+         */
+        long[] read() {
+            return segment.read(offset, words);
+        }
+
+        /**
+         * Marks the chunk as no longer referenced by its series.
+         */
+        void release() {
+            segment.release();
+        }
+    }
+
+    static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicInteger liveChunks = new AtomicInteger();
+        private long size; // guarded by the store
+        private volatile MappedByteBuffer mapped; // set once the segment is full
+        private volatile boolean full;
+        private volatile boolean deleted;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        //Maps the full segment so reads never depend on the channel again, even once the file is deleted
+        private void seal() throws IOException {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.nativeOrder());
+            full = true;
+            channel.close();
+            if (liveChunks.get() == 0) delete();
+        }
+
+        private long[] read(long offset, int words) {
+            long[] out = new long[words];
+            MappedByteBuffer map = mapped;
+            if (map == null) {
+                ByteBuffer buffer = ByteBuffer.allocate(words * 8).order(ByteOrder.nativeOrder());
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("Truncated segment " + path);
+                    }
+                    buffer.flip().asLongBuffer().get(out);
+                    return out;
+                } catch (IOException e) {
+                    //Sealed while reading, which closes the channel once the mapping holds the words
+                    map = mapped;
+                    if (map == null) throw new UncheckedIOException("Cannot read spilled chunk from " + path, e);
+                }
+            }
+            map.duplicate().order(ByteOrder.nativeOrder()).position((int) offset).asLongBuffer().get(out);
+            return out;
+        }
+
+        private void release() {
+            if (liveChunks.decrementAndGet() == 0 && full) delete();
+        }
+
+        private boolean isDeleted() {
+            return deleted;
+        }
+
+        private synchronized void delete() {
+            if (deleted) return;
+            deleted = true;
+            try {
+                //Only full segments are deleted, their channel is closed and their mapping outlives the file
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Cannot delete segment " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Read-only, memory-mapped checkpoint of a {@link DataStorage}.
+ * The file starts with a fixed header and an index of (patient id, offset, length)
+ * sorted by patient id, followed by one block per patient holding a columnar copy
+ * of each of its series, and ends with the dictionary of record type labels used by
+ * the blocks. Opening a snapshot only maps the file and reads the index, patients
+ * are decoded from their block on first access.
+ * Blocks never straddle a mapping region, so files larger than one
+ * MappedByteBuffer are mapped as a few regions without copying.
+ */
+final class Snapshot {
+    static final String FILE_NAME = "snapshot.bin";
+    private static final int MAGIC = 0x534E5031; // "SNP1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 8;
+    private static final int INDEX_ENTRY_BYTES = 4 + 8 + 8;
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_BYTES = 1L << REGION_SHIFT; // 1 GB
+
+    private final long walSequence;
+    private final String[] typeNames; // snapshot type id -> label
+    private final int[] recordTypeIds; // snapshot type id -> RecordType id
+    private final int[] patientIds; // sorted
+    private final long[] offsets;
+    private final long[] lengths;
+    private final MappedByteBuffer[] regions;
+
+    private Snapshot(long walSequence, String[] typeNames, int[] patientIds, long[] offsets, long[] lengths, MappedByteBuffer[] regions) {
+        this.walSequence = walSequence;
+        this.typeNames = typeNames;
+        this.recordTypeIds = new int[typeNames.length];
+        for (int i = 0; i < typeNames.length; i++) recordTypeIds[i] = RecordType.resolve(typeNames[i]);
+        this.patientIds = patientIds;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.regions = regions;
+    }
+
+    /**
+     * Maps a snapshot file and reads its index.
+     *
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be mapped or is not a snapshot
+     */
+    static Snapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((fileSize + REGION_BYTES - 1) >>> REGION_SHIFT)];
+            for (int r = 0; r < regions.length; r++) {
+                long start = (long) r << REGION_SHIFT;
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_BYTES, fileSize - start));
+            }
+            if (fileSize < HEADER_BYTES) throw new IOException("Not a snapshot: " + file);
+            ByteBuffer header = regions[0].duplicate();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException("Not a snapshot: " + file);
+            long walSequence = header.getLong();
+            int patientCount = header.getInt();
+            long dictionaryOffset = header.getLong();
+            if ((long) HEADER_BYTES + (long) patientCount * INDEX_ENTRY_BYTES > REGION_BYTES) throw new IOException("Snapshot index too large: " + file);
+            int[] patientIds = new int[patientCount];
+            long[] offsets = new long[patientCount];
+            long[] lengths = new long[patientCount];
+            for (int i = 0; i < patientCount; i++) {
+                patientIds[i] = header.getInt();
+                offsets[i] = header.getLong();
+                lengths[i] = header.getLong();
+            }
+            ByteBuffer dictionary = slice(regions, dictionaryOffset, fileSize - dictionaryOffset);
+            String[] typeNames = new String[dictionary.getInt()];
+            for (int i = 0; i < typeNames.length; i++) {
+                byte[] label = new byte[dictionary.getShort() & 0xFFFF];
+                dictionary.get(label);
+                typeNames[i] = new String(label, StandardCharsets.UTF_8);
+            }
+            return new Snapshot(walSequence, typeNames, patientIds, offsets, lengths, regions);
+        }
+    }
+
+    /**
+     * @return the first write-ahead log segment that is not covered by this snapshot
+     */
+    long getWalSequence() {
+        return walSequence;
+    }
+
+    /**
+     * @return the ids of every patient in the snapshot, sorted
+     */
+    int[] getPatientIds() {
+        return patientIds.clone();
+    }
+
+    int getPatientCount() {
+        return patientIds.length;
+    }
+
+    /**
+     * @return the id of the patient at a position of the sorted index, without copying it
+     */
+    int getPatientId(int index) {
+        return patientIds[index];
+    }
+
+    boolean contains(int patientId) {
+        return Arrays.binarySearch(patientIds, patientId) >= 0;
+    }
+
+    /**
+     * Decodes a patient from its block.
+     *
+     * @return the patient, or null if the snapshot does not contain it
+     */
+    Patient load(int patientId, RetentionPolicy retention) {
+        int i = Arrays.binarySearch(patientIds, patientId);
+        if (i < 0) return null;
+        return Patient.deserialize(patientId, block(i), recordTypeIds, retention);
+    }
+
+    private ByteBuffer block(int index) {
+        return slice(regions, offsets[index], lengths[index]);
+    }
+
+    private static ByteBuffer slice(MappedByteBuffer[] regions, long offset, long length) {
+        ByteBuffer region = regions[(int) (offset >>> REGION_SHIFT)].duplicate();
+        int start = (int) (offset & (REGION_BYTES - 1));
+        region.limit(start + (int) length).position(start);
+        return region.slice();
+    }
+
+    /**
+     * Writes a snapshot of every patient to a temporary file and atomically moves
+     * it over the target. Each patient is copied under its own lock only, so
+     * ingest continues while the snapshot is written. Patients that were never
+     * loaded from the previous snapshot are copied over as raw blocks without
+     * being decoded, hibernated patients are decoded one at a time from their file.
+     *
+     * @param file        the snapshot file to replace
+     * @param walSequence the first log segment whose samples may be missing from the snapshot
+     * @param patients    the loaded patients
+     * @param hibernated  the patients moved off the heap, or null
+     * @param previous    the snapshot the storage was loaded from, or null
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, long walSequence, Map<Integer, Patient> patients, HibernationStore hibernated, Snapshot previous) throws IOException {
+        TreeSet<Integer> ids = new TreeSet<>(patients.keySet());
+        if (hibernated != null) ids.addAll(hibernated.patientIds());
+        if (previous != null) for (int id : previous.patientIds) ids.add(id);
+        TypeDictionary dictionary = new TypeDictionary(previous == null ? new String[0] : previous.typeNames);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer index = ByteBuffer.allocate(HEADER_BYTES + ids.size() * INDEX_ENTRY_BYTES);
+            index.position(HEADER_BYTES);
+            long position = index.capacity();
+            int count = 0;
+            for (int id : ids) {
+                Patient patient = patients.get(id);
+                //A patient missing from the map after the log rotation has all its earlier samples in its file, if it has one
+                if (patient == null && hibernated != null) patient = hibernated.read(id);
+                ByteBuffer block;
+                if (patient != null) {
+                    block = patient.serialize(dictionary::snapshotTypeId);
+                } else {
+                    int i = Arrays.binarySearch(previous.patientIds, id);
+                    if (i < 0) continue;
+                    block = previous.block(i);
+                }
+                long length = block.remaining();
+                if (length > REGION_BYTES) throw new IOException("Patient " + id + " is too large for a snapshot block");
+                position = align(position, length);
+                index.putInt(id).putLong(position).putLong(length);
+                position = writeFully(channel, block, position);
+                count++;
+            }
+            ByteBuffer types = dictionary.serialize();
+            long dictionaryOffset = align(position, types.remaining());
+            writeFully(channel, types, dictionaryOffset);
+            index.limit(index.position()).position(0);
+            index.putInt(MAGIC).putInt(VERSION).putLong(walSequence).putInt(count).putLong(dictionaryOffset).position(0);
+            writeFully(channel, index, 0);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Moves a block to the next region if it would straddle a region boundary
+    private static long align(long position, long length) {
+        if (position >>> REGION_SHIFT == (position + length - 1) >>> REGION_SHIFT) return position;
+        return ((position >>> REGION_SHIFT) + 1) << REGION_SHIFT;
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+        return position;
+    }
+
+    //Snapshot type ids, keeping the ids of the previous snapshot so its raw blocks stay valid
+    private static final class TypeDictionary {
+        private final List<String> names;
+        private final Map<String, Integer> idsByName = new HashMap<>();
+        private int[] idsByRecordType = new int[0]; // RecordType id -> snapshot type id + 1
+
+        TypeDictionary(String[] previousNames) {
+            names = new ArrayList<>(Arrays.asList(previousNames));
+            for (int i = 0; i < previousNames.length; i++) idsByName.put(previousNames[i], i);
+        }
+
+        //Called under a patient lock, so it never blocks
+        int snapshotTypeId(int recordTypeId) {
+            if (recordTypeId >= idsByRecordType.length) idsByRecordType = Arrays.copyOf(idsByRecordType, RecordType.count());
+            int id = idsByRecordType[recordTypeId] - 1;
+            if (id < 0) {
+                String name = RecordType.name(recordTypeId);
+                id = idsByName.computeIfAbsent(name, n -> {
+                    names.add(n);
+                    return names.size() - 1;
+                });
+                idsByRecordType[recordTypeId] = id + 1;
+            }
+            return id;
+        }
+
+        ByteBuffer serialize() throws IOException {
+            List<byte[]> labels = new ArrayList<>(names.size());
+            int bytes = 4;
+            for (String name : names) {
+                byte[] label = name.getBytes(StandardCharsets.UTF_8);
+                if (label.length > 0xFFFF) throw new IOException("Record type label too long: " + label.length + " bytes");
+                labels.add(label);
+                bytes += 2 + label.length;
+            }
+            ByteBuffer out = ByteBuffer.allocate(bytes).putInt(labels.size());
+            for (byte[] label : labels) out.putShort((short) label.length).put(label);
+            return out.flip();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a growing file, or every file of a directory such as the ones written
+ * by FileOutputStrategy, like tail -F: a {@link WatchService} reports changes and
+ * only the bytes appended since the saved offset of each file are read, parsed by
+ * a {@link CsvRowParser} and stored in batches. A line is only parsed once its
+ * line feed has been written.
+ * Files are told apart by their file key (device and inode), so a file that is
+ * renamed is followed under its new name, and the file replacing it is read
+ * from its start after the rest of the old one. A file shrinking below its
+ * offset was truncated and is read again from its start.
+ * With a checkpoint file, the offset of every file is saved after each pass that
+ * stored rows, atomically like a snapshot, and a restarted reader resumes from
+ * it, also following renames made while it was down. A crash between storing
+ * rows and saving the checkpoint re-reads them, and the storage drops them as
+ * duplicates.
+ * Not thread-safe, apart from {@link #close()} which stops a running
+ * {@link #readData}.
+ */
+public class TailingFileReader implements DataReader, Closeable {
+    static final int READ_BYTES = 1 << 20;
+    //Watch services may poll, or miss events under load, so files are also checked at this interval
+    static final long POLL_MILLIS = 1000;
+
+    private final Path checkpoint;
+    private final Map<Path, Tail> tails = new LinkedHashMap<>();
+    private final CsvRowParser parser = new CsvRowParser(true);
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_BYTES);
+    private boolean checkpointLoaded;
+    private boolean dirty;
+    private long byteCount;
+    private long rotationCount;
+    private volatile boolean closed;
+    private volatile WatchService watcher;
+
+    /**
+     * Creates a reader without a checkpoint, following every file from its start.
+     */
+    public TailingFileReader() {
+        this(null);
+    }
+
+    /**
+     * Creates a reader resuming from a checkpoint file, which is created if missing.
+     *
+     * @param checkpoint the file the offsets are saved to, or null
+     */
+    public TailingFileReader(Path checkpoint) {
+        this.checkpoint = checkpoint == null ? null : checkpoint.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Follows a file or every regular file of a directory, storing rows as they
+     * are appended, until the reader is closed or the thread interrupted.
+     *
+     * @param storage the storage the rows are added to
+     * @param source  a file or a directory
+     * @throws IOException if a file cannot be read or the checkpoint cannot be saved
+     */
+    @Override
+    public void readData(DataStorage storage, String source) throws IOException {
+        Path root = Path.of(source).toAbsolutePath().normalize();
+        Path directory = Files.isDirectory(root) ? root : root.getParent();
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            this.watcher = watcher;
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            while (!closed) {
+                poll(storage, source);
+                //Every change leads to the same pass over the files, so the events themselves are dropped
+                for (WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS); key != null; key = watcher.poll()) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            //Closed by close()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.watcher = null;
+            closeFiles();
+        }
+    }
+
+    /**
+     * Stores the complete lines appended to a file, or to the files of a
+     * directory, since the last pass or the checkpoint, and saves the checkpoint.
+     *
+     * @param storage the storage the rows are added to
+     * @param source  a file or a directory
+     * @return the number of rows parsed
+     * @throws IOException if a file cannot be read or the checkpoint cannot be saved
+     */
+    public long poll(DataStorage storage, String source) throws IOException {
+        long rowsBefore = parser.getRowCount();
+        loadCheckpoint();
+        Map<Path, String> keys = new LinkedHashMap<>();
+        for (Path file : filesOf(Path.of(source).toAbsolutePath().normalize())) {
+            try {
+                keys.put(file, keyOf(Files.readAttributes(file, BasicFileAttributes.class)));
+            } catch (NoSuchFileException e) {
+                //Deleted since it was listed
+            }
+        }
+        //Files renamed, replaced or deleted since the last pass
+        List<Tail> renamed = new ArrayList<>();
+        for (Iterator<Tail> it = tails.values().iterator(); it.hasNext(); ) {
+            Tail tail = it.next();
+            String key = keys.get(tail.path);
+            if (key != null && (key.equals(tail.key) || key.isEmpty() || tail.key.isEmpty())) continue;
+            it.remove();
+            dirty = true;
+            Path newPath = pathOf(keys, tail.key);
+            if (newPath != null) {
+                tail.path = newPath;
+                renamed.add(tail);
+                rotationCount++;
+                continue;
+            }
+            //The rest of a file that is gone comes before the file replacing it
+            if (tail.channel != null) {
+                read(tail, storage, true);
+                tail.channel.close();
+            }
+            if (key != null) rotationCount++;
+        }
+        for (Tail tail : renamed) tails.put(tail.path, tail);
+        for (Map.Entry<Path, String> entry : keys.entrySet()) {
+            Tail tail = tails.get(entry.getKey());
+            if (tail == null) {
+                tail = new Tail(entry.getKey(), entry.getValue(), 0);
+                tails.put(tail.path, tail);
+                dirty = true;
+            }
+            tail.key = entry.getValue();
+            try {
+                if (tail.channel == null) tail.channel = FileChannel.open(tail.path, StandardOpenOption.READ);
+                if (tail.channel.size() < tail.offset) {
+                    tail.offset = 0;
+                    rotationCount++;
+                    dirty = true;
+                }
+            } catch (NoSuchFileException e) {
+                tails.remove(tail.path);
+                continue;
+            }
+            read(tail, storage, false);
+        }
+        if (dirty) saveCheckpoint();
+        return parser.getRowCount() - rowsBefore;
+    }
+
+    /**
+     * Stops a running {@link #readData}, which returns within a moment.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        WatchService watcher = this.watcher;
+        if (watcher == null) return;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            //The loop also checks the flag
+        }
+    }
+
+    /**
+     * @return the rows parsed since the reader was created, including duplicates the storage rejected
+     */
+    public long getRowCount() {
+        return parser.getRowCount();
+    }
+
+    /**
+     * @return the lines that could not be parsed since the reader was created
+     */
+    public long getSkippedLineCount() {
+        return parser.getSkippedLineCount();
+    }
+
+    /**
+     * @return the bytes consumed since the reader was created
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return the number of times a followed file was found renamed, replaced or truncated
+     */
+    public long getRotationCount() {
+        return rotationCount;
+    }
+
+    //Reads from the offset to the end of the file, the last line only if it is complete or the file is done
+    private void read(Tail tail, DataStorage storage, boolean atEnd) throws IOException {
+        while (true) {
+            buffer.clear();
+            int length = tail.channel.read(buffer, tail.offset);
+            if (length <= 0) return;
+            boolean full = length == buffer.capacity();
+            int consumed = parser.parse(buffer, 0, length, atEnd && !full, storage::addPatientDataBatch);
+            parser.flush(storage::addPatientDataBatch);
+            if (consumed == 0 && full) throw new IOException("Line at byte " + tail.offset + " of " + tail.path + " is longer than " + READ_BYTES + " bytes");
+            tail.offset += consumed;
+            byteCount += consumed;
+            if (consumed > 0) dirty = true;
+            if (!full) return;
+        }
+    }
+
+    private List<Path> filesOf(Path source) throws IOException {
+        if (!Files.isDirectory(source)) return Files.exists(source) ? List.of(source) : List.of();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(source, Files::isRegularFile)) {
+            for (Path file : entries) {
+                if (checkpoint != null && file.getFileName().toString().startsWith(checkpoint.getFileName().toString()) && file.getParent().equals(checkpoint.getParent())) continue;
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private Path pathOf(Map<Path, String> keys, String key) {
+        if (key.isEmpty()) return null;
+        for (Map.Entry<Path, String> entry : keys.entrySet()) {
+            if (entry.getValue().equals(key) && !tails.containsKey(entry.getKey())) return entry.getKey();
+        }
+        return null;
+    }
+
+    //File systems without file keys fall back to the path and the size
+    private static String keyOf(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    private void closeFiles() throws IOException {
+        for (Tail tail : tails.values()) {
+            if (tail.channel == null) continue;
+            tail.channel.close();
+            tail.channel = null;
+        }
+    }
+
+    //One "offset<TAB>key<TAB>path" line per file
+    private void loadCheckpoint() throws IOException {
+        if (checkpointLoaded) return;
+        checkpointLoaded = true;
+        if (checkpoint == null || !Files.exists(checkpoint)) return;
+        Map<Path, Tail> loaded = new HashMap<>();
+        for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", 3);
+            if (fields.length != 3) throw new IOException("Corrupt checkpoint line in " + checkpoint + ": " + line);
+            Path path = Path.of(fields[2]);
+            loaded.put(path, new Tail(path, fields[1], Long.parseLong(fields[0])));
+        }
+        tails.putAll(loaded);
+    }
+
+    private void saveCheckpoint() throws IOException {
+        dirty = false;
+        if (checkpoint == null) return;
+        StringBuilder text = new StringBuilder();
+        for (Tail tail : tails.values()) text.append(tail.offset).append('\t').append(tail.key).append('\t').append(tail.path).append('\n');
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.force(true);
+        }
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //A followed file: the offset after its last parsed line, its key and its open channel
+    private static final class Tail {
+        Path path;
+        String key;
+        long offset;
+        FileChannel channel;
+
+        Tail(Path path, String key, long offset) {
+            this.path = path;
+            this.key = key;
+            this.offset = offset;
+        }
+    }
+}
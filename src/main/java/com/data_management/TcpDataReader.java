@@ -0,0 +1,320 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Reads samples from many TCP connections on a single thread with one NIO
+ * {@link Selector}: it accepts producer connections on listening ports and may
+ * also connect out to producers that listen, such as TcpOutputStrategy.
+ * Each connection carries either CSV lines or the binary frames of
+ * {@link BinaryFrameEncoder}, told apart by its first bytes; a producer asked for
+ * frames may send lines until the request reaches it. Bytes are read into
+ * direct buffers of {@link #BUFFER_BYTES} taken from a pool, and lines and frames
+ * are decoded in place by a stream of an {@link IngestPipeline}.
+ * Only the incomplete line or frame at the end of a read is moved to the start of
+ * the buffer; a connection without one returns its buffer to the pool, so idle
+ * feeds hold no buffer. The rows of all connections are handed to an
+ * {@link IngestQueue} in batches, so storage never stalls the selector.
+ */
+public class TcpDataReader implements DataReader, Closeable {
+    static final int BUFFER_BYTES = 64 << 10;
+    static final int MAX_POOLED_BUFFERS = 64;
+    //Frames of a connection are passed on after every read, so a small batch is enough
+    static final int FRAME_BATCH_ROWS = 512;
+
+    private final boolean requestBinary;
+    private final int queueCapacity;
+    private final IngestQueue.OverflowPolicy overflowPolicy;
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+    private volatile Selector selector;
+    private volatile boolean closed;
+    private volatile IngestQueue queue;
+    private volatile IngestPipeline pipeline;
+    private long byteCount;
+    private long acceptedCount;
+    private long droppedConnectionCount;
+    private int connectionCount;
+
+    /**
+     * Creates a reader that asks producers it connects to for CSV.
+     */
+    public TcpDataReader() {
+        this(false, IngestQueue.DEFAULT_CAPACITY, IngestQueue.OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param requestBinary  true to send the "FORMAT binary" hello to producers the reader connects to
+     * @param queueCapacity  the number of samples buffered between the selector and the storage
+     * @param overflowPolicy what to do with samples arriving while the buffer is full
+     */
+    public TcpDataReader(boolean requestBinary, int queueCapacity, IngestQueue.OverflowPolicy overflowPolicy) {
+        this.requestBinary = requestBinary;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Serves the endpoints of a comma separated list until the reader is closed:
+     * "listen:port" or "listen:host:port" accepts producers, "host:port"
+     * connects to a producer. Connections that close or send malformed frames
+     * are dropped without ending the read.
+     *
+     * @param storage the storage the rows are added to
+     * @param source  the endpoints
+     * @throws IOException if a port cannot be bound or the selector fails
+     */
+    @Override
+    public void readData(DataStorage storage, String source) throws IOException {
+        IngestQueue queue = new IngestQueue(storage, queueCapacity, overflowPolicy);
+        this.queue = queue;
+        IngestPipeline pipeline = new IngestPipeline(queue::offer, FRAME_BATCH_ROWS);
+        this.pipeline = pipeline;
+        try (Selector selector = Selector.open()) {
+            this.selector = selector;
+            try {
+                for (String endpoint : source.split(",")) open(selector, pipeline, endpoint.trim());
+                select(selector, pipeline);
+            } finally {
+                for (SelectionKey key : selector.keys()) close(key);
+            }
+        } finally {
+            this.selector = null;
+            queue.close();
+        }
+    }
+
+    private void select(Selector selector, IngestPipeline pipeline) throws IOException {
+        while (!closed) {
+            selector.select();
+            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) continue;
+                try {
+                    if (key.isAcceptable()) accept(selector, pipeline, (ServerSocketChannel) key.channel());
+                    else if (key.isConnectable()) finishConnect(key);
+                    else if (key.isReadable()) read(key);
+                } catch (IOException e) {
+                    //A failing producer is dropped, a failing accept leaves the listener open
+                    if (key.attachment() instanceof Connection) drop(key);
+                    else System.err.println("TCP accept failed: " + e.getMessage());
+                }
+            }
+            //Lines of every connection read in this round go out as one batch
+            pipeline.flush();
+        }
+    }
+
+    /**
+     * Stops a running {@link #readData} after the rows read so far are stored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
+    }
+
+    /**
+     * @return the queue of the current or last read, null before the first one
+     */
+    public IngestQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * @return the pipeline of the current or last read, with its row and error counts, null before the first one
+     */
+    public IngestPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return the producer connections currently open
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @return the connections accepted since the reader was created
+     */
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    /**
+     * @return the connections closed because of an I/O error, an overlong line or a malformed frame
+     */
+    public long getDroppedConnectionCount() {
+        return droppedConnectionCount;
+    }
+
+    /**
+     * @return the rows parsed from lines and frames in the current or last read
+     */
+    public long getRowCount() {
+        IngestPipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getRowCount() : 0;
+    }
+
+    /**
+     * @return the lines and samples that could not be decoded in the current or last read
+     */
+    public long getSkippedLineCount() {
+        IngestPipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getSkippedCount() : 0;
+    }
+
+    /**
+     * @return the lines rejected because their label matches no registered type
+     */
+    public long getUnknownLabelCount() {
+        IngestPipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getUnknownLabelCount() : 0;
+    }
+
+    /**
+     * @return the bytes read since the reader was created
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    private void open(Selector selector, IngestPipeline pipeline, String endpoint) throws IOException {
+        boolean listen = endpoint.startsWith("listen:");
+        String address = listen ? endpoint.substring("listen:".length()) : endpoint;
+        int colon = address.lastIndexOf(':');
+        int port = Integer.parseInt(address.substring(colon + 1));
+        String host = colon > 0 ? address.substring(0, colon) : null;
+        if (listen) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.bind(host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port), 1024);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } else {
+            if (host == null) throw new IllegalArgumentException("Endpoint needs a host: " + endpoint);
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, pipeline.open(IngestPipeline.Format.AUTO));
+            boolean connected = channel.connect(new InetSocketAddress(host, port));
+            if (connected) connected(connection);
+            channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+        }
+    }
+
+    private void accept(Selector selector, IngestPipeline pipeline, ServerSocketChannel server) throws IOException {
+        for (SocketChannel channel; (channel = server.accept()) != null; ) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel, pipeline.open(IngestPipeline.Format.AUTO)));
+            acceptedCount++;
+            connectionCount++;
+        }
+    }
+
+    private void finishConnect(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.channel.finishConnect();
+        connected(connection);
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void connected(Connection connection) throws IOException {
+        connectionCount++;
+        if (requestBinary) {
+            connection.stream.expectFrames();
+            //A hello of a few bytes fits in any socket buffer
+            ByteBuffer hello = StandardCharsets.US_ASCII.encode("FORMAT binary\n");
+            while (hello.hasRemaining()) connection.channel.write(hello);
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.buffer != null ? connection.buffer : take();
+        connection.buffer = buffer;
+        int read = connection.channel.read(buffer);
+        if (read > 0) byteCount += read;
+        boolean atEnd = read < 0;
+        buffer.flip();
+        if (!connection.stream.feed(buffer, atEnd)) throw new IOException("Malformed frame or line longer than " + BUFFER_BYTES + " bytes");
+        if (connection.stream.getFormat() == IngestPipeline.Format.BINARY && buffer.remaining() >= BinaryFrameEncoder.HEADER_BYTES) {
+            //A frame larger than the buffer gets a buffer of its own
+            int frameBytes = BinaryFrameEncoder.HEADER_BYTES + buffer.getInt(buffer.position() + 4);
+            if (frameBytes > buffer.capacity()) {
+                connection.buffer = ByteBuffer.allocateDirect(frameBytes).put(buffer);
+                release(buffer);
+            }
+        }
+        if (connection.buffer == buffer) buffer.compact();
+        if (atEnd) {
+            close(key);
+            return;
+        }
+        if (connection.buffer.position() == 0) {
+            release(connection.buffer);
+            connection.buffer = null;
+        }
+    }
+
+    private void drop(SelectionKey key) {
+        droppedConnectionCount++;
+        close(key);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        Object attachment = key.attachment();
+        if (!(attachment instanceof Connection)) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                //Already unusable
+            }
+            return;
+        }
+        Connection connection = (Connection) attachment;
+        if (connection.channel.isConnected()) connectionCount--;
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            //Already unusable
+        }
+        if (connection.buffer != null) release(connection.buffer);
+        connection.buffer = null;
+    }
+
+    private ByteBuffer take() {
+        ByteBuffer buffer = pool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_BYTES);
+    }
+
+    private void release(ByteBuffer buffer) {
+        buffer.clear();
+        if (buffer.capacity() == BUFFER_BYTES && pool.size() < MAX_POOLED_BUFFERS) pool.push(buffer);
+    }
+
+    //A producer connection and its pending bytes
+    private static final class Connection {
+        final SocketChannel channel;
+        final IngestPipeline.Stream stream;
+        ByteBuffer buffer; // null while nothing is pending
+
+        Connection(SocketChannel channel, IngestPipeline.Stream stream) {
+            this.channel = channel;
+            this.stream = stream;
+        }
+    }
+}
@@ -0,0 +1,689 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Columnar storage for the samples of a single record type of a single patient.
+ * Timestamps and values are kept in parallel primitive arrays that are allocated
+ * in fixed-size chunks, so the store never copies old data when it grows and a
+ * sample costs 16 bytes instead of a full PatientRecord object. The first chunk
+ * starts small and doubles up to the chunk size, so rarely sampled types stay cheap.
+ * Samples are kept in timestamp order across chunks: in-order arrivals are
+ * appended, late arrivals are merged into their chunk (splitting it when full),
+ * and range queries binary search the chunk bounds and then the chunk itself.
+ * Every chunk but the head is sealed: it keeps only a {@link GorillaCodec} encoding
+ * of its samples, typically a few bits per sample instead of 16 bytes, and is
+ * streamed through a decoder on reads. A late sample decodes its chunk, is merged
+ * in and the chunk is encoded again. Old sealed chunks can be spilled to a
+ * {@link SegmentStore}; the series then keeps only their bounds and location and
+ * reads their encoding back from disk when a query reaches them.
+ * Duplicate timestamps are rejected through a {@link RecentTimestampWindow}, so
+ * replayed samples are caught without touching the chunks.
+ * Every stored sample is also folded into minute and hour {@link Rollup}s, which
+ * answer aggregate queries in time proportional to the number of buckets. When a
+ * {@link RetentionPolicy} limits raw retention, whole chunks that fall out of the
+ * window are released and queries over the evicted range are answered from the
+ * rollups.
+ * For snapshots a series serializes to a columnar block (all timestamps, then all
+ * values, then the rollups), which is read back straight into full chunks.
+ *
+ * There is a single writer at a time: every mutating method must be called while
+ * holding the write lock passed to the constructor. Raw samples are read without
+ * locking: the chunk array is immutable once published, sealed chunks never
+ * change, and the head chunk publishes appends through its volatile size, so a
+ * reader works on a consistent snapshot and never blocks the writer. Any other
+ * change (late samples, sealing, eviction) builds new chunks and publishes a new
+ * array. Rollups are updated in place and are only read under the write lock.
+ */
+class TimeSeries {
+    static final int CHUNK_SIZE = 1024; // samples per chunk
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+    private final int recordTypeId;
+    private final String recordType;
+    private final Object writeLock;
+    private final RecentTimestampWindow recent = new RecentTimestampWindow();
+    private final long rawRetention;
+    private final long minuteRollupRetention;
+    private final long hourRollupRetention;
+    private Rollup minutes; // created with the first sample, guarded by writeLock
+    private Rollup hours;
+    private volatile boolean rollupsOnlyHistory; // some samples are kept in the rollups only
+    private volatile Chunk[] chunks = NO_CHUNKS; // never modified once published
+    private int size;
+
+    /**
+     * Creates an empty series.
+     *
+     * @param recordTypeId the {@link RecordType} id of every sample in this series
+     * @param retention    the retention applied to the series
+     * @param writeLock    the lock writers hold, also taken to read the rollups
+     */
+    TimeSeries(int recordTypeId, RetentionPolicy retention, Object writeLock) {
+        this.recordTypeId = recordTypeId;
+        this.recordType = RecordType.name(recordTypeId);
+        this.writeLock = writeLock;
+        this.rawRetention = retention.getRawRetention(recordTypeId);
+        this.minuteRollupRetention = retention.getMinuteRollupRetention();
+        this.hourRollupRetention = retention.getHourRollupRetention();
+    }
+
+    int getRecordTypeId() {
+        return recordTypeId;
+    }
+
+    /**
+     * Stores a sample in timestamp order unless a sample with the same timestamp
+     * already exists. In-order samples take the append fast path, late samples
+     * are merged into the chunk that covers their timestamp. The duplicate check
+     * is constant time for in-order and recent samples and only falls back to a
+     * binary search for samples older than the recent window.
+     * Samples older than the raw retention and than every chunk only go to the
+     * rollups, which cannot tell which timestamps they counted: such a sample is
+     * refused as a possible duplicate if a rollup bucket already covers it. Older
+     * samples within the chunks' range are merged like any late sample.
+     * The caller must hold the write lock.
+     *
+     * @param timestamp the time of the sample, in milliseconds since UNIX epoch
+     * @param value     the measured value
+     * @return true if the sample was stored, false if it was or may be a duplicate
+     */
+    boolean add(long timestamp, double value) {
+        Chunk[] current = chunks;
+        if (current.length == 0 || timestamp > lastTimestamp(current)) {
+            append(current, timestamp, value);
+            rollUp(timestamp, value);
+            recent.add(timestamp, timestamp);
+            return true;
+        }
+        if (timestamp >= recent.floor() && recent.contains(timestamp)) return false;
+        long newest = lastTimestamp(current);
+        if (timestamp < current[0].first() && timestamp < RetentionPolicy.cutoff(newest, rawRetention)) {
+            //Too late for the raw window, keep it in the rollups only, unless a bucket holds evicted samples
+            //around it: those may include it, and folding it in again would count it twice
+            if (minutes.covers(timestamp) || hours.covers(timestamp)) return false;
+            rollUp(timestamp, value);
+            rollupsOnlyHistory = true;
+            return true;
+        }
+        int c = chunkFor(current, timestamp);
+        Chunk chunk = current[c];
+        boolean head = c == current.length - 1;
+        //Merge into a private copy, readers keep seeing the old chunk until the new array is published
+        long[] timestamps = new long[Math.max(chunk.capacity(), chunk.size + 1)];
+        double[] values = new double[timestamps.length];
+        int n = chunk.copyTo(timestamps, values);
+        int pos = Arrays.binarySearch(timestamps, 0, n, timestamp);
+        if (pos >= 0) return false;
+        pos = -pos - 1;
+        System.arraycopy(timestamps, pos, timestamps, pos + 1, n - pos);
+        System.arraycopy(values, pos, values, pos + 1, n - pos);
+        timestamps[pos] = timestamp;
+        values[pos] = value;
+        n++;
+        Chunk[] replacement;
+        if (n > CHUNK_SIZE) {
+            //Split a full chunk in two halves, the upper one stays raw if it is the head
+            int half = CHUNK_SIZE / 2;
+            long[] upperTimestamps = Arrays.copyOfRange(timestamps, half, head ? half + CHUNK_SIZE : n);
+            double[] upperValues = Arrays.copyOfRange(values, half, head ? half + CHUNK_SIZE : n);
+            Chunk upper = head ? Chunk.raw(upperTimestamps, upperValues, n - half) : Chunk.compressed(upperTimestamps, upperValues, n - half);
+            replacement = new Chunk[]{Chunk.compressed(timestamps, values, half), upper};
+        } else {
+            replacement = new Chunk[]{head ? Chunk.raw(timestamps, values, n) : Chunk.compressed(timestamps, values, n)};
+        }
+        Chunk[] updated = new Chunk[current.length - 1 + replacement.length];
+        System.arraycopy(current, 0, updated, 0, c);
+        System.arraycopy(replacement, 0, updated, c, replacement.length);
+        System.arraycopy(current, c + 1, updated, c + replacement.length, current.length - c - 1);
+        chunks = updated;
+        chunk.release();
+        size++;
+        rollUp(timestamp, value);
+        recent.add(timestamp, newest);
+        return true;
+    }
+
+    /**
+     * Checks whether a sample with this timestamp was stored, as {@link #add}
+     * would, without storing anything. Below the raw window a timestamp covered
+     * by a rollup bucket counts as stored, since add refuses it as well.
+     * The caller must hold the write lock.
+     */
+    boolean contains(long timestamp) {
+        Chunk[] current = chunks;
+        if (current.length == 0 || timestamp > lastTimestamp(current)) return false;
+        if (timestamp >= recent.floor()) return recent.contains(timestamp);
+        if (timestamp >= current[0].first()) return holds(current, timestamp);
+        return minutes.covers(timestamp) || hours.covers(timestamp);
+    }
+
+    //Whether a chunk of the view holds a sample with exactly this timestamp
+    private static boolean holds(Chunk[] view, long timestamp) {
+        Chunk chunk = view[chunkFor(view, timestamp)];
+        if (!chunk.isCompressed()) {
+            int n = chunk.size;
+            int i = lowerBound(chunk.timestamps, n, timestamp);
+            return i < n && chunk.timestamps[i] == timestamp;
+        }
+        if (timestamp > chunk.last()) return false;
+        GorillaCodec.Decoder samples = chunk.decoder();
+        while (samples.next()) {
+            if (samples.timestamp() >= timestamp) return samples.timestamp() == timestamp;
+        }
+        return false;
+    }
+
+    private void append(Chunk[] current, long timestamp, double value) {
+        Chunk head = current.length == 0 ? null : current[current.length - 1];
+        if (head != null && head.size < head.capacity()) {
+            //Fast path: the slot is beyond what readers look at until the size is published
+            int n = head.size;
+            head.timestamps[n] = timestamp;
+            head.values[n] = value;
+            head.size = n + 1;
+            size++;
+            return;
+        }
+        Chunk[] updated;
+        if (head == null || head.size == CHUNK_SIZE) {
+            //Seal the full head and open a new one
+            updated = Arrays.copyOf(current, current.length + 1);
+            if (head != null) updated[current.length - 1] = Chunk.compressed(head.timestamps, head.values, head.size);
+            long[] timestamps = new long[head == null ? INITIAL_CAPACITY : CHUNK_SIZE];
+            double[] values = new double[timestamps.length];
+            timestamps[0] = timestamp;
+            values[0] = value;
+            updated[current.length] = Chunk.raw(timestamps, values, 1);
+            if (head != null) updated = enforceRetention(updated, timestamp);
+        } else {
+            //Grow the first chunk into a larger copy
+            int capacity = Math.min(head.size * 2, CHUNK_SIZE);
+            long[] timestamps = Arrays.copyOf(head.timestamps, capacity);
+            double[] values = Arrays.copyOf(head.values, capacity);
+            timestamps[head.size] = timestamp;
+            values[head.size] = value;
+            updated = current.clone();
+            updated[current.length - 1] = Chunk.raw(timestamps, values, head.size + 1);
+        }
+        size++;
+        chunks = updated;
+    }
+
+    //Drops whole chunks older than the raw retention, the rollups already hold them, and trims the rollups
+    private Chunk[] enforceRetention(Chunk[] current, long newest) {
+        long rawCutoff = RetentionPolicy.cutoff(newest, rawRetention);
+        int evicted = 0;
+        while (evicted < current.length - 1 && current[evicted].last() < rawCutoff) {
+            size -= current[evicted].size;
+            current[evicted].release();
+            evicted++;
+        }
+        if (minutes != null) {
+            minutes.dropBefore(RetentionPolicy.cutoff(newest, minuteRollupRetention));
+            hours.dropBefore(RetentionPolicy.cutoff(newest, hourRollupRetention));
+        }
+        if (evicted == 0) return current;
+        rollupsOnlyHistory = true;
+        return Arrays.copyOfRange(current, evicted, current.length);
+    }
+
+    private void rollUp(long timestamp, double value) {
+        if (minutes == null) {
+            minutes = new Rollup(Rollup.MINUTE);
+            hours = new Rollup(Rollup.HOUR);
+        }
+        minutes.add(timestamp, value);
+        hours.add(timestamp, value);
+    }
+
+    private static long lastTimestamp(Chunk[] view) {
+        return view[view.length - 1].last();
+    }
+
+    //Index of the last chunk whose first timestamp is <= timestamp, or 0 if there is none
+    private static int chunkFor(Chunk[] view, long timestamp) {
+        int low = 0, high = view.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (view[mid].first() <= timestamp) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    //Index of the first chunk whose last timestamp is >= timestamp, or view.length if there is none
+    private static int firstChunkEndingAtOrAfter(Chunk[] view, long timestamp) {
+        int low = 0, high = view.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (view[mid].last() < timestamp) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Materializes every sample within [startTime, endTime] as a PatientRecord,
+     * in timestamp order, see {@link #scan}.
+     *
+     * @param patientId the patient the records belong to
+     * @param startTime the start of the time range, inclusive
+     * @param endTime   the end of the time range, inclusive
+     * @param out       the list the records are appended to
+     */
+    void collect(int patientId, long startTime, long endTime, List<PatientRecord> out) {
+        scan(startTime, endTime, (timestamp, value) -> out.add(new PatientRecord(patientId, value, recordType, recordTypeId, timestamp)));
+    }
+
+    /**
+     * Passes every sample within [startTime, endTime] to the visitor, in timestamp
+     * order, without allocating per sample. Costs O(log n + k) for k matching
+     * samples and does not lock, unless the range reaches into samples that are
+     * only kept in the rollups.
+     * The part of the range that was already evicted is served from the rollups,
+     * one sample per bucket stamped with the bucket start and holding its mean:
+     * minute buckets where they are still kept, hour buckets before that. Only
+     * buckets that end before the raw samples begin are used, so no sample is
+     * reported twice.
+     *
+     * @param startTime the start of the time range, inclusive
+     * @param endTime   the end of the time range, inclusive
+     * @param visitor   receives the samples
+     */
+    void scan(long startTime, long endTime, SampleVisitor visitor) {
+        Chunk[] view = chunks;
+        long rawStart = view.length == 0 ? Long.MAX_VALUE : view[0].first();
+        if (rollupsOnlyHistory && startTime < rawStart) {
+            synchronized (writeLock) {
+                long minuteStart = Math.min(minutes.firstStart(), rawStart);
+                hours.visitMeans(startTime, Math.min(endTime, minuteStart - Rollup.HOUR), visitor);
+                minutes.visitMeans(Math.max(startTime, minuteStart), Math.min(endTime, rawStart - Rollup.MINUTE), visitor);
+            }
+        }
+        for (int c = firstChunkEndingAtOrAfter(view, startTime); c < view.length; c++) {
+            Chunk chunk = view[c];
+            if (chunk.isCompressed()) {
+                GorillaCodec.Decoder samples = chunk.decoder();
+                while (samples.next()) {
+                    long timestamp = samples.timestamp();
+                    if (timestamp < startTime) continue;
+                    if (timestamp > endTime) return;
+                    visitor.visit(timestamp, samples.value());
+                }
+                continue;
+            }
+            int n = chunk.size;
+            for (int i = lowerBound(chunk.timestamps, n, startTime); i < n; i++) {
+                long timestamp = chunk.timestamps[i];
+                if (timestamp > endTime) return;
+                visitor.visit(timestamp, chunk.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Passes the newest n raw samples to the visitor, oldest first, without
+     * locking. The newest sample always sits in the raw head chunk, so the latest
+     * value costs O(1); the last n cost O(n) while they fit in the head and one
+     * chunk decode per older chunk they reach into. Samples kept only in the
+     * rollups are not included.
+     *
+     * @param n       the maximum number of samples
+     * @param visitor receives the samples
+     * @return the number of samples visited
+     */
+    int scanLatest(int n, SampleVisitor visitor) {
+        Chunk[] view = chunks;
+        if (view.length == 0 || n <= 0) return 0;
+        Chunk head = view[view.length - 1];
+        int headSize = head.size; // the head may grow while we read, stick to what was published
+        if (n <= headSize) {
+            for (int i = headSize - n; i < headSize; i++) visitor.visit(head.timestamps[i], head.values[i]);
+            return n;
+        }
+        //Walk back to the chunk holding the oldest requested sample
+        int c = view.length - 1;
+        int remaining = n - headSize;
+        while (c > 0 && remaining > 0) {
+            c--;
+            remaining -= view[c].size;
+        }
+        int skip = Math.max(-remaining, 0);
+        int visited = 0;
+        for (; c < view.length - 1; c++) {
+            //Every chunk but the head is sealed
+            GorillaCodec.Decoder samples = view[c].decoder();
+            for (int i = 0; samples.next(); i++) {
+                if (i < skip) continue;
+                visitor.visit(samples.timestamp(), samples.value());
+                visited++;
+            }
+            skip = 0;
+        }
+        for (int i = 0; i < headSize; i++) visitor.visit(head.timestamps[i], head.values[i]);
+        return visited + headSize;
+    }
+
+    /**
+     * Passes the last timestamp of every sealed chunk still on the heap to the
+     * consumer, without locking.
+     *
+     * @return the bytes held by the encodings of those chunks
+     */
+    long hotChunks(LongConsumer lastTimestamps) {
+        Chunk[] view = chunks;
+        long bytes = 0;
+        for (int c = 0; c < view.length - 1; c++) {
+            Chunk chunk = view[c];
+            if (chunk.isSpilled()) continue;
+            lastTimestamps.accept(chunk.lastTimestamp);
+            bytes += chunk.encoded.length * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Moves the sealed chunks whose samples all lie at or before the cutoff to the
+     * segment store, keeping only their bounds and location on the heap. The head
+     * chunk always stays. The caller must hold the write lock.
+     *
+     * @return the bytes of encoding released from the heap
+     * @throws IOException if a chunk cannot be written, nothing is moved then
+     */
+    long spill(long cutoff, SegmentStore store) throws IOException {
+        Chunk[] current = chunks;
+        Chunk[] updated = null;
+        long bytes = 0;
+        try {
+            for (int c = 0; c < current.length - 1 && current[c].lastTimestamp <= cutoff; c++) {
+                Chunk chunk = current[c];
+                if (chunk.isSpilled()) continue;
+                if (updated == null) updated = current.clone();
+                updated[c] = Chunk.spilled(chunk, store.write(chunk.encoded));
+                bytes += chunk.encoded.length * 8L;
+            }
+        } catch (IOException e) {
+            for (int c = 0; updated != null && c < updated.length; c++) {
+                if (updated[c] != current[c]) updated[c].release();
+            }
+            throw e;
+        }
+        if (updated != null) chunks = updated;
+        return bytes;
+    }
+
+    /**
+     * Releases the spilled chunks of a series that is being dropped, such as a
+     * hibernated patient's. The caller must hold the write lock.
+     */
+    void releaseChunks() {
+        for (Chunk chunk : chunks) chunk.release();
+    }
+
+    //Bytes written by writeTo, the caller holds the write lock
+    long serializedSize() {
+        long bytes = 4 + size * 16L + 1;
+        if (minutes != null) bytes += minutes.serializedSize() + hours.serializedSize();
+        return bytes;
+    }
+
+    /**
+     * Writes the sample count, every timestamp, every value and the rollups, if any.
+     * The caller must hold the write lock.
+     */
+    void writeTo(ByteBuffer out) {
+        out.putInt(size);
+        int timestampStart = out.position();
+        int valueStart = timestampStart + size * 8;
+        long[] timestamps = new long[CHUNK_SIZE];
+        double[] values = new double[CHUNK_SIZE];
+        int written = 0;
+        for (Chunk chunk : chunks) {
+            int n = chunk.copyTo(timestamps, values);
+            out.position(timestampStart + written * 8);
+            out.asLongBuffer().put(timestamps, 0, n);
+            out.position(valueStart + written * 8);
+            out.asDoubleBuffer().put(values, 0, n);
+            written += n;
+        }
+        out.position(valueStart + size * 8);
+        out.put((byte) (minutes == null ? 0 : 1));
+        if (minutes != null) {
+            minutes.writeTo(out);
+            hours.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads a series written by {@link #writeTo}, filling full chunks directly.
+     */
+    static TimeSeries readFrom(ByteBuffer in, int recordTypeId, RetentionPolicy retention, Object writeLock) {
+        TimeSeries series = new TimeSeries(recordTypeId, retention, writeLock);
+        int size = in.getInt();
+        int chunkCount = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        long[][] timestamps = new long[chunkCount][];
+        double[][] values = new double[chunkCount][];
+        for (int c = 0; c < chunkCount; c++) {
+            int n = Math.min(CHUNK_SIZE, size - c * CHUNK_SIZE);
+            timestamps[c] = new long[c == chunkCount - 1 ? Math.max(INITIAL_CAPACITY, n) : n];
+            in.asLongBuffer().get(timestamps[c], 0, n);
+            in.position(in.position() + n * 8);
+        }
+        Chunk[] restored = new Chunk[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            int n = Math.min(CHUNK_SIZE, size - c * CHUNK_SIZE);
+            values[c] = new double[timestamps[c].length];
+            in.asDoubleBuffer().get(values[c], 0, n);
+            in.position(in.position() + n * 8);
+            restored[c] = c == chunkCount - 1 ? Chunk.raw(timestamps[c], values[c], n) : Chunk.compressed(timestamps[c], values[c], n);
+        }
+        series.chunks = restored;
+        series.size = size;
+        if (in.get() != 0) {
+            series.minutes = Rollup.readFrom(in, Rollup.MINUTE);
+            series.hours = Rollup.readFrom(in, Rollup.HOUR);
+            series.rollupsOnlyHistory = series.hours.totalCount() != size || series.minutes.totalCount() != size;
+        }
+        return series;
+    }
+
+    /**
+     * Reduces the samples within [startTime, endTime] to buckets of the aggregate's
+     * width. Widths that are whole hours or minutes are served from the rollups and
+     * cost O(log n + buckets); other widths scan the raw samples. Where the finer
+     * level no longer covers the range (evicted raw samples, expired minute
+     * buckets), the next coarser rollup is used, so old buckets carry the coarser
+     * resolution. A rollup bucket counts as within the range if it starts within it.
+     * The caller must hold the write lock.
+     *
+     * @param startTime the start of the time range, inclusive
+     * @param endTime   the end of the time range, inclusive
+     * @param out       receives the buckets in time order
+     */
+    void aggregate(long startTime, long endTime, Aggregates out) {
+        Chunk[] view = chunks;
+        if (view.length == 0) return;
+        long width = out.getBucketWidth();
+        if (width % Rollup.HOUR == 0) {
+            hours.aggregate(startTime, endTime, out);
+            return;
+        }
+        boolean raw = width % Rollup.MINUTE != 0;
+        long rawStart = view[0].first();
+        long from = startTime;
+        Rollup coarse = hours;
+        if (!raw || minutes.firstStart() < rawStart) {
+            //Hours until the minute buckets begin
+            long firstMinute = minutes.firstStart();
+            long hourStart = floor(firstMinute, Rollup.HOUR);
+            long switchover = handOver(hours, firstMinute, minutes.count(hourStart, hourStart + Rollup.HOUR - 1));
+            hours.aggregate(from, Math.min(endTime, switchover - 1), out);
+            from = Math.max(from, switchover);
+            coarse = minutes;
+        }
+        if (!raw) {
+            minutes.aggregate(from, endTime, out);
+            return;
+        }
+        //Coarse buckets until the raw samples begin
+        long bucketEnd = floor(rawStart, coarse.width()) + coarse.width() - 1;
+        long switchover = handOver(coarse, rawStart, rawCount(view, rawStart, bucketEnd));
+        coarse.aggregate(from, Math.min(endTime, switchover - 1), out);
+        from = Math.max(from, switchover);
+        for (int c = firstChunkEndingAtOrAfter(view, from); c < view.length; c++) {
+            Chunk chunk = view[c];
+            if (chunk.isCompressed()) {
+                GorillaCodec.Decoder samples = chunk.decoder();
+                while (samples.next()) {
+                    long timestamp = samples.timestamp();
+                    if (timestamp < from) continue;
+                    if (timestamp > endTime) return;
+                    out.add(timestamp, samples.value(), samples.value(), samples.value(), 1);
+                }
+                continue;
+            }
+            int n = chunk.size;
+            for (int i = lowerBound(chunk.timestamps, n, from); i < n; i++) {
+                long timestamp = chunk.timestamps[i];
+                if (timestamp > endTime) return;
+                double value = chunk.values[i];
+                out.add(timestamp, value, value, value, 1);
+            }
+        }
+    }
+
+    /*
+     * Where a finer level, whose samples begin at first, takes over from a coarse
+     * rollup: at the coarse bucket holding first if the finer level holds all
+     * fineCount samples of that bucket, after it if some were evicted or expired.
+     */
+    private static long handOver(Rollup coarse, long first, long fineCount) {
+        if (first == Long.MAX_VALUE) return first;
+        long bucket = floor(first, coarse.width());
+        if (coarse.count(bucket, bucket) == fineCount) return bucket;
+        return bucket > Long.MAX_VALUE - coarse.width() ? Long.MAX_VALUE : bucket + coarse.width();
+    }
+
+    //Largest multiple of width at or before timestamp
+    private static long floor(long timestamp, long width) {
+        return Math.floorDiv(timestamp, width) * width;
+    }
+
+    //Number of raw samples within [startTime, endTime]
+    private static long rawCount(Chunk[] view, long startTime, long endTime) {
+        long count = 0;
+        for (int c = firstChunkEndingAtOrAfter(view, startTime); c < view.length && view[c].first() <= endTime; c++) {
+            Chunk chunk = view[c];
+            if (chunk.first() >= startTime && chunk.last() <= endTime) {
+                count += chunk.size;
+            } else if (chunk.isCompressed()) {
+                GorillaCodec.Decoder samples = chunk.decoder();
+                while (samples.next()) {
+                    long timestamp = samples.timestamp();
+                    if (timestamp >= startTime && timestamp <= endTime) count++;
+                }
+            } else {
+                count += lowerBound(chunk.timestamps, chunk.size, endTime + 1) - lowerBound(chunk.timestamps, chunk.size, startTime);
+            }
+        }
+        return count;
+    }
+
+    //First position among the first n timestamps that is >= timestamp
+    private static int lowerBound(long[] timestamps, int n, long timestamp) {
+        int low = 0, high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    //Block of sorted samples, either sealed (Gorilla encoded, immutable, on the heap or spilled) or the raw head
+    private static final class Chunk {
+        final long[] timestamps; // null when sealed
+        final double[] values;
+        final long[] encoded; // null for the head and for spilled chunks
+        final SegmentStore.Location spilled; // where a spilled chunk's encoding lives
+        final long firstTimestamp; // bounds of a sealed chunk
+        final long lastTimestamp;
+        //Number of samples; for the head, slots are written before the size that publishes them
+        volatile int size;
+
+        private Chunk(long[] timestamps, double[] values, long[] encoded, SegmentStore.Location spilled, long firstTimestamp, long lastTimestamp, int size) {
+            this.timestamps = timestamps;
+            this.values = values;
+            this.encoded = encoded;
+            this.spilled = spilled;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.size = size;
+        }
+
+        //Head chunk over the arrays, later appends go to the free slots
+        static Chunk raw(long[] timestamps, double[] values, int size) {
+            return new Chunk(timestamps, values, null, null, 0, 0, size);
+        }
+
+        static Chunk compressed(long[] timestamps, double[] values, int size) {
+            return new Chunk(null, null, GorillaCodec.encode(timestamps, values, size), null, timestamps[0], timestamps[size - 1], size);
+        }
+
+        //Same samples as a sealed heap chunk, with the encoding written to a segment
+        static Chunk spilled(Chunk sealed, SegmentStore.Location location) {
+            return new Chunk(null, null, null, location, sealed.firstTimestamp, sealed.lastTimestamp, sealed.size);
+        }
+
+        boolean isCompressed() {
+            return timestamps == null;
+        }
+
+        boolean isSpilled() {
+            return spilled != null;
+        }
+
+        int capacity() {
+            return timestamps == null ? size : timestamps.length;
+        }
+
+        long first() {
+            return timestamps == null ? firstTimestamp : timestamps[0];
+        }
+
+        long last() {
+            return timestamps == null ? lastTimestamp : timestamps[size - 1];
+        }
+
+        private long[] encoding() {
+            return spilled != null ? spilled.read() : encoded;
+        }
+
+        GorillaCodec.Decoder decoder() {
+            return new GorillaCodec.Decoder(encoding(), size);
+        }
+
+        //Copies the samples into the arrays and returns their number
+        int copyTo(long[] timestampsOut, double[] valuesOut) {
+            int n = size;
+            if (timestamps == null) {
+                GorillaCodec.decode(encoding(), n, timestampsOut, valuesOut);
+            } else {
+                System.arraycopy(timestamps, 0, timestampsOut, 0, n);
+                System.arraycopy(values, 0, valuesOut, 0, n);
+            }
+            return n;
+        }
+
+        //Called once the chunk is no longer part of the series
+        void release() {
+            if (spilled != null) spilled.release();
+        }
+    }
+}
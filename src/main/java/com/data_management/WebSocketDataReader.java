@@ -1,49 +1,191 @@
 package com.data_management;
 
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ServerHandshake;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 
 /*
   Reads a live CSV‐stream from a WebSocket server and feeds it into DataStorage.
+  Messages are decoded by an IngestPipeline on the socket's read thread and handed
+  to an IngestQueue, whose drainer stores them in batches, so storage never stalls
+  the socket. Malformed messages are skipped and counted by the pipeline.
+  Appending ?format=binary to the URL asks the server for binary frames
+  instead of CSV text, see BinaryFrameEncoder; either kind of message is read.
+  A connection that is lost is opened again, waiting twice as long after each
+  failed attempt, up to MAX_BACKOFF_MILLIS. The reader asks the server to number
+  its samples with a resume query parameter and reconnects from the first one it
+  has not received, so a server that still buffers them replays exactly what was
+  missed, see WebSocketOutputStrategy; samples numbered below that are dropped
+  as duplicates, and samples the server no longer had are counted as a gap.
+  The read ends when the server closes the connection normally or the reader is closed.
  */
-public class WebSocketDataReader implements DataReader {
+public class WebSocketDataReader implements DataReader, Closeable {
+    static final long INITIAL_BACKOFF_MILLIS = 100;
+    static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final int queueCapacity;
+    private final IngestQueue.OverflowPolicy overflowPolicy;
+    private volatile IngestQueue queue;
+    private volatile IngestPipeline pipeline;
+    private volatile WebSocketClient client;
+    private volatile boolean closed;
+    //Position in the server's sequence, carried from one connection to the next
+    private volatile long sourceId;
+    private volatile long nextSequence;
+    private volatile long reconnectCount;
+    private volatile long duplicateCount;
+    private volatile long gapCount;
+
+    public WebSocketDataReader() {
+        this(IngestQueue.DEFAULT_CAPACITY, IngestQueue.OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param queueCapacity  the number of samples buffered between the socket and the storage
+     * @param overflowPolicy what to do with samples arriving while the buffer is full
+     */
+    public WebSocketDataReader(int queueCapacity, IngestQueue.OverflowPolicy overflowPolicy) {
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the queue of the current or last read, null before the first one
+     */
+    public IngestQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * @return the pipeline of the current or last read, with its row and error counts, null before the first one
+     */
+    public IngestPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return the connections opened again after one was lost
+     */
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * @return the samples received again after a reconnection and dropped
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return the samples lost because the server no longer buffered them when the reader reconnected
+     */
+    public long getGapCount() {
+        return gapCount;
+    }
 
     @Override
     public void readData(DataStorage storage, String wsUrl) throws IOException {
-        URI serverUri = URI.create(wsUrl);
+        IngestQueue queue = new IngestQueue(storage, queueCapacity, overflowPolicy);
+        this.queue = queue;
+        //Used by one connection's read thread at a time
+        IngestPipeline pipeline = new IngestPipeline(queue::offer);
+        this.pipeline = pipeline;
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        try {
+            while (true) {
+                int[] closeCode = new int[1];
+                boolean opened = connect(wsUrl, pipeline, closeCode);
+                if (closed || closeCode[0] == CloseFrame.NORMAL) return;
+                if (opened) backoff = INITIAL_BACKOFF_MILLIS;
+                //Jitter keeps many readers of one server from reconnecting at the same moment
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                if (closed) return;
+                reconnectCount++;
+                System.out.println("Reconnecting to " + wsUrl + " from sample " + nextSequence);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for WS to close", e);
+        } finally {
+            //Stores what is still queued
+            queue.close();
+        }
+    }
+
+    /**
+     * Ends a running {@link #readData} after the samples received so far are stored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        WebSocketClient client = this.client;
+        if (client != null) client.close();
+    }
+
+    //Runs one connection until it closes; returns true if it was opened
+    private boolean connect(String wsUrl, IngestPipeline pipeline, int[] closeCode) throws InterruptedException {
+        URI serverUri = URI.create(wsUrl + (wsUrl.indexOf('?') < 0 ? '?' : '&') + "resume=" + sourceId + "-" + nextSequence);
         CountDownLatch latch = new CountDownLatch(1);
+        //Type ids of binary frames are defined per connection; text messages are CSV whatever the stream's format
+        IngestPipeline.Stream stream = pipeline.open(IngestPipeline.Format.BINARY);
+        boolean[] opened = new boolean[1];
+        boolean[] sequenced = new boolean[1];
 
         WebSocketClient client = new WebSocketClient(serverUri) {
             @Override
             public void onOpen(ServerHandshake handshake) {
+                opened[0] = true;
                 System.out.println("WebSocket connected to " + wsUrl);
             }
 
             @Override
             public void onMessage(String message) {
-                //Parse comma separated message: patientId, timestamp, label, value
-                String[] parts = message.split(",");
-                if (parts.length != 4) return; //Skip malformed messages
-                try {
-                    //Attempt to parse and store incoming data
-                    int    patientId = Integer.parseInt(parts[0]);
-                    long   timestamp = Long.parseLong(parts[1]);
-                    String label     = parts[2];
-                    double value     = Double.parseDouble(parts[3]);
-                    storage.addPatientData(patientId, value, label, timestamp);
-                } catch (NumberFormatException e) {
-                    //Handle corrupted or non-numeric data
-                    System.err.println("Malformed data: " + message);
+                if (message.startsWith("SOURCE ")) {
+                    sequenced[0] = resumed(message);
+                    stream.setNextSequence(nextSequence);
+                    return;
+                }
+                if (!sequenced[0]) {
+                    //Comma separated message: patientId, timestamp, label, value; malformed and dropped ones are skipped
+                    stream.feed(message);
+                    pipeline.flush();
+                    return;
                 }
+                //The same with the sequence number as a fifth field
+                int comma = message.lastIndexOf(',');
+                long sequence = comma < 0 ? -1 : parseSequence(message, comma + 1);
+                if (sequence < 0) return;
+                if (sequence < nextSequence) {
+                    duplicateCount++;
+                    return;
+                }
+                nextSequence = sequence + 1;
+                stream.feed(message, 0, comma);
+                pipeline.flush();
+            }
+
+            @Override
+            public void onMessage(ByteBuffer frames) {
+                //Binary frames, only sent if requested with ?format=binary
+                long duplicates = stream.getDuplicateSampleCount();
+                stream.feed(frames, true);
+                if (sequenced[0]) nextSequence = stream.getNextSequence();
+                duplicateCount += stream.getDuplicateSampleCount() - duplicates;
             }
 
             @Override
             public void onClose(int code, String reason, boolean remote) {
                 System.out.println("WebSocket closed: " + reason);
+                closeCode[0] = code;
                 latch.countDown();
             }
 
@@ -53,14 +195,49 @@ public class WebSocketDataReader implements DataReader {
             }
         };
 
+        this.client = client;
+        if (closed) return false;
         client.connect(); //asynchronous connect call
         try {
             latch.await(); //block until socket is closed
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Interrupted while waiting for WS to close", e);
         } finally {
             client.close();
         }
+        return opened[0];
+    }
+
+    //Parses the digits of message from start to its end in place, -1 if there are none, others or too many to fit a long
+    private static long parseSequence(String message, int start) {
+        int end = message.length();
+        if (start >= end || end - start > 18) return -1;
+        long sequence = 0;
+        for (int i = start; i < end; i++) {
+            int digit = message.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            sequence = sequence * 10 + digit;
+        }
+        return sequence;
+    }
+
+    //Takes the server's "SOURCE <id> <sequence>" answer to the resume request; returns false if it is malformed
+    private boolean resumed(String message) {
+        String[] parts = message.split(" ");
+        long source;
+        long start;
+        try {
+            source = Long.parseLong(parts[1]);
+            start = Long.parseLong(parts[2]);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        if (source != sourceId) {
+            //A new server, or one that restarted: its numbering starts over
+            if (sourceId != 0) System.err.println("WebSocket source changed, samples sent while disconnected may be lost");
+            sourceId = source;
+        } else if (start > nextSequence) {
+            gapCount += start - nextSequence;
+        }
+        nextSequence = start;
+        return true;
     }
 }
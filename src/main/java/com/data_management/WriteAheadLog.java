@@ -0,0 +1,402 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only binary log of every sample stored in a {@link DataStorage}, used to
+ * rebuild the storage after a restart.
+ * Appends only copy the sample into an in-memory buffer. The buffer is written to
+ * the file when it fills up, and a background thread writes and fsyncs it on a
+ * fixed interval (group commit), so one fsync covers every sample of the interval
+ * and durability does not cap ingest throughput. A crash loses at most the last
+ * interval of samples.
+ *
+ * File layout: a 4-byte magic followed by records, each starting with a kind byte.
+ * Sample records are fixed width (patient id, log type id, timestamp, value), type
+ * records map a log type id to a label the first time the type appears in the
+ * file, so the file does not depend on the ids of the process that wrote it.
+ * Every record ends with a CRC32C of its bytes. Recovery truncates a torn or
+ * corrupt record only at the end of the file, where a crash leaves it; one
+ * followed by more data fails the recovery instead of dropping the records after it.
+ * A log can be rotated to a new file, which lets a checkpoint drop the samples
+ * it already covers.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final int MAGIC = 0x57414C32; // "WAL2"
+    private static final byte SAMPLE = 1;
+    private static final byte TYPE = 2;
+    private static final int CHECKSUM_BYTES = 4;
+    static final int SAMPLE_BYTES = 1 + 4 + 4 + 8 + 8 + CHECKSUM_BYTES;
+    private static final int TYPE_HEADER_BYTES = 1 + 4 + 2;
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+
+    /**
+     * Receives the samples found in the log during recovery.
+     */
+    public interface Replay {
+        void sample(int patientId, int recordTypeId, long timestamp, double value);
+    }
+
+    private Path path; // guarded by this
+    private FileChannel channel; // guarded by this
+    private final ScheduledExecutorService flusher;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES); // guarded by this
+    private final CRC32C checksum = new CRC32C(); // guarded by this, used alone by recovery
+    private int[] logTypeIds = new int[0]; // RecordType id -> log type id + 1, 0 when not yet written
+    private int nextLogTypeId;
+    private long recoveredSamples;
+    private IOException failure;
+
+    private WriteAheadLog(Path path, FileChannel channel, long syncIntervalMillis) {
+        this.path = path;
+        this.channel = channel;
+        if (syncIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "wal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Opens a log for appending, first replaying every complete record already in
+     * it. A record torn by a crash at the end of the file is truncated away.
+     *
+     * @param path               the log file, created if it does not exist
+     * @param syncIntervalMillis how often buffered samples are written and fsynced;
+     *                           0 or less fsyncs on every append
+     * @param replay             receives the recovered samples in log order
+     * @return the opened log, positioned at its end
+     * @throws IOException if the file cannot be read or written, or a corrupt record is followed by more data
+     */
+    public static WriteAheadLog open(Path path, long syncIntervalMillis, Replay replay) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            WriteAheadLog log = new WriteAheadLog(path, channel, syncIntervalMillis);
+            log.recover(replay);
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public synchronized Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of samples replayed when the log was opened
+     */
+    public long getRecoveredSamples() {
+        return recoveredSamples;
+    }
+
+    private void recover(Replay replay) throws IOException {
+        if (channel.size() == 0) {
+            writeMagic(channel);
+            return;
+        }
+        ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        while (in.hasRemaining() && channel.read(in, in.position()) > 0) ;
+        in.flip();
+        if (in.remaining() < 4 || in.getInt() != MAGIC) throw new IOException("Not a write-ahead log: " + path);
+        long position = 4; // file offset of in.position()
+        List<Integer> typesByLogId = new ArrayList<>();
+        while (true) {
+            int length = recordLength(in);
+            if (length < 0) {
+                //Incomplete record at the end of the buffer, refill it from the file
+                in.compact();
+                int read = channel.read(in, position + in.position());
+                in.flip();
+                if (read <= 0) break;
+                continue;
+            }
+            if (length == 0 || !intact(in, length)) {
+                //A crash can leave the last record torn and the file padded with zeros after it, nothing else
+                if (!onlyZerosFrom(length == 0 ? position : position + length)) {
+                    throw new IOException("Corrupt record at offset " + position + " in " + path);
+                }
+                break;
+            }
+            int start = in.position();
+            byte kind = in.get();
+            if (kind == SAMPLE) {
+                int patientId = in.getInt();
+                int logTypeId = in.getInt();
+                long timestamp = in.getLong();
+                double value = in.getDouble();
+                if (logTypeId >= typesByLogId.size()) throw new IOException("Undefined type " + logTypeId + " in " + path);
+                replay.sample(patientId, typesByLogId.get(logTypeId), timestamp, value);
+                recoveredSamples++;
+            } else {
+                int logTypeId = in.getInt();
+                byte[] label = new byte[in.getShort() & 0xFFFF];
+                in.get(label);
+                if (logTypeId != typesByLogId.size()) throw new IOException("Out of order type " + logTypeId + " in " + path);
+                int recordTypeId = RecordType.resolve(new String(label, StandardCharsets.UTF_8));
+                typesByLogId.add(recordTypeId);
+                mapType(recordTypeId, logTypeId);
+            }
+            in.position(start + length);
+            position += length;
+        }
+        nextLogTypeId = typesByLogId.size();
+        //Whatever follows the last complete record was torn by a crash
+        channel.truncate(position);
+        channel.position(position);
+    }
+
+    private static void writeMagic(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC).flip();
+        while (header.hasRemaining()) channel.write(header);
+    }
+
+    //Length of the record at the buffer position, -1 if it is not fully buffered, 0 if it is not a record
+    private static int recordLength(ByteBuffer in) {
+        if (!in.hasRemaining()) return -1;
+        byte kind = in.get(in.position());
+        int length;
+        if (kind == SAMPLE) {
+            length = SAMPLE_BYTES;
+        } else if (kind == TYPE) {
+            if (in.remaining() < TYPE_HEADER_BYTES) return -1;
+            length = TYPE_HEADER_BYTES + (in.getShort(in.position() + 5) & 0xFFFF) + CHECKSUM_BYTES;
+        } else {
+            return 0;
+        }
+        return in.remaining() < length ? -1 : length;
+    }
+
+    //Whether the checksum of the record at the buffer position matches its bytes
+    private boolean intact(ByteBuffer in, int length) {
+        int start = in.position();
+        int limit = in.limit();
+        checksum.reset();
+        in.limit(start + length - CHECKSUM_BYTES);
+        checksum.update(in);
+        in.limit(limit).position(start);
+        return (int) checksum.getValue() == in.getInt(start + length - CHECKSUM_BYTES);
+    }
+
+    private boolean onlyZerosFrom(long offset) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        while (offset < channel.size()) {
+            in.clear();
+            int read = channel.read(in, offset);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (in.get(i) != 0) return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    /**
+     * Buffers a sample for the next group commit.
+     *
+     * @throws UncheckedIOException if an earlier write or fsync failed
+     */
+    public void append(int patientId, int recordTypeId, long timestamp, double value) {
+        synchronized (this) {
+            if (failure != null) throw new UncheckedIOException("Write-ahead log failed", failure);
+            try {
+                put(patientId, recordTypeId, timestamp, value);
+                if (flusher == null) {
+                    drain();
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Write-ahead log failed", e);
+            }
+        }
+    }
+
+    /**
+     * Buffers the given rows of a columnar batch for the next group commit, under
+     * a single acquisition of the log lock. Without group commit the whole batch
+     * is covered by one fsync.
+     *
+     * @param rows  the rows to append, in order
+     * @param count the number of rows
+     * @throws UncheckedIOException if an earlier write or fsync failed
+     */
+    public void append(int[] patientIds, int[] recordTypeIds, long[] timestamps, double[] values, int[] rows, int count) {
+        synchronized (this) {
+            if (failure != null) throw new UncheckedIOException("Write-ahead log failed", failure);
+            try {
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    put(patientIds[row], recordTypeIds[row], timestamps[row], values[row]);
+                }
+                if (flusher == null) {
+                    drain();
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Write-ahead log failed", e);
+            }
+        }
+    }
+
+    //Caller holds the lock
+    private void put(int patientId, int recordTypeId, long timestamp, double value) throws IOException {
+        int logTypeId = recordTypeId < logTypeIds.length ? logTypeIds[recordTypeId] - 1 : -1;
+        if (logTypeId < 0) logTypeId = defineType(recordTypeId);
+        if (buffer.remaining() < SAMPLE_BYTES) drain();
+        int start = buffer.position();
+        buffer.put(SAMPLE).putInt(patientId).putInt(logTypeId).putLong(timestamp).putDouble(value);
+        seal(start);
+    }
+
+    //Writes a type record before the first sample of a type, caller holds the lock
+    private int defineType(int recordTypeId) throws IOException {
+        byte[] label = RecordType.name(recordTypeId).getBytes(StandardCharsets.UTF_8);
+        if (label.length > 0xFFFF) throw new IOException("Record type label too long: " + label.length + " bytes");
+        if (buffer.remaining() < TYPE_HEADER_BYTES + label.length + CHECKSUM_BYTES) drain();
+        int logTypeId = nextLogTypeId++;
+        int start = buffer.position();
+        buffer.put(TYPE).putInt(logTypeId).putShort((short) label.length).put(label);
+        seal(start);
+        mapType(recordTypeId, logTypeId);
+        return logTypeId;
+    }
+
+    //Appends the checksum of the record buffered from start, caller holds the lock
+    private void seal(int start) {
+        int end = buffer.position();
+        checksum.reset();
+        buffer.limit(end).position(start);
+        checksum.update(buffer);
+        buffer.limit(buffer.capacity());
+        buffer.putInt((int) checksum.getValue());
+    }
+
+    private void mapType(int recordTypeId, int logTypeId) {
+        if (recordTypeId >= logTypeIds.length) logTypeIds = Arrays.copyOf(logTypeIds, recordTypeId + 16);
+        logTypeIds[recordTypeId] = logTypeId + 1;
+    }
+
+    //Moves the buffered records to the file, caller holds the lock
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes every buffered sample and fsyncs the file. The fsync runs outside the
+     * append lock, so appends continue while the disk catches up.
+     *
+     * @throws IOException if writing or syncing fails
+     */
+    public void sync() throws IOException {
+        FileChannel target;
+        synchronized (this) {
+            if (failure != null) throw failure;
+            try {
+                drain();
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            target = channel;
+        }
+        try {
+            target.force(false);
+        } catch (ClosedChannelException e) {
+            //Rotated away in the meantime, rotate() already forced the file
+            synchronized (this) {
+                if (target == channel) throw e;
+            }
+        }
+    }
+
+    /**
+     * Continues the log in a new, empty file. Every sample appended before the
+     * rotation is written and fsynced to the old file before it is closed, every
+     * sample appended after it goes to the new file.
+     *
+     * @param next the new log file, it must not exist yet
+     * @throws IOException if the old file cannot be synced or the new one created
+     */
+    public void rotate(Path next) throws IOException {
+        synchronized (this) {
+            if (failure != null) throw failure;
+            FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                writeMagic(nextChannel);
+                drain();
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+                nextChannel.close();
+                throw e;
+            }
+            channel.close();
+            channel = nextChannel;
+            path = next;
+            //Type records are per file
+            logTypeIds = new int[0];
+            nextLogTypeId = 0;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (failure == null) failure = e;
+            }
+            System.err.println("Write-ahead log sync failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Syncs the remaining samples and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            //Interrupting a running fsync would close the channel under it, let it finish instead
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            sync();
+        } finally {
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package data_management;
+
+import com.data_management.Aggregates;
+import com.data_management.Aggregates.Function;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+
+import java.util.List;
+
+/**
+ * Compares "mean/min/max of SystolicPressure per minute for the last 6 hours"
+ * computed through aggregate() against pulling every record through getRecords()
+ * and aggregating on the client, as the history behind the window grows.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.AggregateBenchmark
+ */
+public class AggregateBenchmark {
+    private static final long MINUTE = 60 * 1000L;
+    private static final long WINDOW = 6 * 60 * MINUTE;
+    private static final int QUERIES = 2_000;
+
+    public static void main(String[] args) {
+        DataStorage storage = new DataStorage();
+        long start = 1_700_000_000_000L;
+        long hours = 0;
+        for (long targetHours : new long[]{6, 24, 72}) {
+            //1 Hz, well above the simulator's rate, so scans are expensive
+            for (; hours < targetHours; hours++) {
+                for (int s = 0; s < 3600; s++) {
+                    storage.addPatientData(1, 110 + s % 30, "SystolicPressure", start + (hours * 3600 + s) * 1000L);
+                }
+            }
+            long end = start + hours * 3600 * 1000L - 1;
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                Aggregates aggregates = storage.aggregate(1, "SystolicPressure", end - WINDOW, end, MINUTE, Function.MEAN, Function.MIN, Function.MAX);
+                sink += aggregates.size();
+            }
+            double aggregateMicros = (System.nanoTime() - t0) / 1000.0 / QUERIES;
+            t0 = System.nanoTime();
+            for (int q = 0; q < QUERIES / 20; q++) {
+                List<PatientRecord> records = storage.getRecords(1, end - WINDOW, end);
+                long bucket = Long.MIN_VALUE;
+                double min = 0, max = 0, sum = 0;
+                int count = 0;
+                for (PatientRecord record : records) {
+                    long b = record.getTimestamp() / MINUTE;
+                    if (b != bucket) {
+                        sink += count + (long) (min + max + sum);
+                        bucket = b;
+                        min = max = sum = record.getMeasurementValue();
+                        count = 1;
+                    } else {
+                        min = Math.min(min, record.getMeasurementValue());
+                        max = Math.max(max, record.getMeasurementValue());
+                        sum += record.getMeasurementValue();
+                        count++;
+                    }
+                }
+            }
+            double scanMicros = (System.nanoTime() - t0) / 1000.0 / (QUERIES / 20);
+            System.out.printf("history %3dh: aggregate %8.1f us, getRecords + client %10.1f us (%d)%n", hours, aggregateMicros, scanMicros, sink % 10);
+        }
+    }
+}
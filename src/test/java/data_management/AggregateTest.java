@@ -0,0 +1,99 @@
+package data_management;
+
+import com.data_management.Aggregates;
+import com.data_management.Aggregates.Function;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AggregateTest {
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long START = 1_700_000_000_000L - 1_700_000_000_000L % HOUR; // hour aligned
+
+    @Test
+    void testBucketsMatchClientSideAggregation() {
+        DataStorage storage = new DataStorage();
+        Random random = new Random(3);
+        long end = START + 6 * HOUR;
+        for (long ts = START; ts < end; ts += SECOND) {
+            //Some samples arrive late and some are replayed, neither may skew the buckets
+            long late = random.nextInt(20) == 0 ? ts - random.nextInt(300) * SECOND : ts;
+            storage.addPatientData(1, 100 + random.nextInt(60), "SystolicPressure", late);
+            storage.addPatientData(1, 100 + random.nextInt(60), "SystolicPressure", ts);
+        }
+        List<PatientRecord> raw = storage.getRecords(1, START, end);
+
+        for (long width : new long[]{15 * SECOND, MINUTE, 5 * MINUTE, HOUR}) {
+            Aggregates aggregates = storage.aggregate(1, "Systolic", START, end, width,
+                    Function.MIN, Function.MAX, Function.MEAN, Function.COUNT);
+            assertEquals(6 * HOUR / width, aggregates.size(), "width " + width);
+            int r = 0;
+            for (int row = 0; row < aggregates.size(); row++) {
+                long bucketStart = aggregates.getBucketStart(row);
+                assertEquals(START + row * width, bucketStart);
+                double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, sum = 0;
+                int count = 0;
+                for (; r < raw.size() && raw.get(r).getTimestamp() < bucketStart + width; r++) {
+                    double value = raw.get(r).getMeasurementValue();
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += value;
+                    count++;
+                }
+                assertEquals(min, aggregates.get(Function.MIN, row));
+                assertEquals(max, aggregates.get(Function.MAX, row));
+                assertEquals(count, aggregates.get(Function.COUNT, row));
+                assertEquals(sum / count, aggregates.get(Function.MEAN, row), 1e-9);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> storage.aggregate(1, "Systolic", START, end, MINUTE, Function.MIN).get(Function.SUM, 0));
+        assertThrows(IllegalArgumentException.class, () -> storage.aggregate(1, "Systolic", START, end, 0, Function.MIN));
+        assertEquals(0, storage.aggregate(2, "Systolic", START, end, MINUTE, Function.MIN).size());
+        assertEquals(0, storage.aggregate(1, "ECG", START, end, MINUTE, Function.MIN).size());
+    }
+
+    @Test
+    void testSeriesStartingWithinAnHourIsNotServedFromTheHours() {
+        DataStorage storage = new DataStorage();
+        long first = START + 30 * MINUTE;
+        long end = START + 2 * HOUR;
+        for (long ts = first; ts < end; ts += SECOND) storage.addPatientData(1, 1.0, "HeartRate", ts);
+
+        for (long width : new long[]{30 * SECOND, MINUTE}) {
+            Aggregates aggregates = storage.aggregate(1, "HeartRate", first, end, width, Function.COUNT);
+            assertEquals(90 * MINUTE / width, aggregates.size(), "width " + width);
+            for (int row = 0; row < aggregates.size(); row++) {
+                assertEquals(first + row * width, aggregates.getBucketStart(row));
+                assertEquals(width / SECOND, aggregates.get(Function.COUNT, row));
+            }
+        }
+        assertEquals(90, storage.aggregate(1, "HeartRate", START, end, MINUTE, Function.COUNT).size());
+    }
+
+    @Test
+    void testEvictedRangeIsServedFromRollups() {
+        RetentionPolicy policy = new RetentionPolicy(HOUR, 6 * HOUR, 30 * 24 * HOUR);
+        DataStorage storage = new DataStorage(policy);
+        long end = START + 12 * HOUR;
+        for (long ts = START; ts < end; ts += SECOND) storage.addPatientData(1, 1.0, "HeartRate", ts);
+
+        //Minutes cover the last 6 hours, hours cover the rest, raw samples only the last hour
+        Aggregates minutes = storage.aggregate(1, "HeartRate", START, end, MINUTE, Function.COUNT, Function.SUM);
+        assertEquals(6 * 60 + 6, minutes.size());
+        Aggregates seconds = storage.aggregate(1, "HeartRate", START, end, 10 * SECOND, Function.COUNT);
+        double total = 0;
+        for (int row = 0; row < seconds.size(); row++) total += seconds.get(Function.COUNT, row);
+        assertEquals(12 * 3600, total);
+        double sum = 0;
+        for (int row = 0; row < minutes.size(); row++) sum += minutes.get(Function.SUM, row);
+        assertEquals(12 * 3600, sum);
+    }
+}
@@ -0,0 +1,58 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.RecordType;
+
+/**
+ * Compares ingest throughput of addPatientData() one sample at a time against
+ * addPatientDataBatch() with bursts of various sizes, as a reader would deliver
+ * them: many patients interleaved, a few samples per patient per burst.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.BatchInsertBenchmark
+ */
+public class BatchInsertBenchmark {
+    private static final int PATIENTS = 500;
+    private static final int SAMPLES = 4_000_000;
+
+    public static void main(String[] args) {
+        int[] patientIds = new int[SAMPLES];
+        long[] timestamps = new long[SAMPLES];
+        int[] types = new int[SAMPLES];
+        double[] values = new double[SAMPLES];
+        long start = 1_700_000_000_000L;
+        for (int i = 0; i < SAMPLES; i++) {
+            patientIds[i] = 1 + i % PATIENTS;
+            timestamps[i] = start + (i / PATIENTS) * 100L; // 10 Hz per patient
+            types[i] = RecordType.ECG;
+            values[i] = i % 97;
+        }
+        for (int round = 0; round < 2; round++) {
+            DataStorage storage = new DataStorage();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < SAMPLES; i++) storage.addPatientData(patientIds[i], values[i], types[i], timestamps[i]);
+            report("single", t0);
+            for (int batch : new int[]{64, 1024, 16384}) {
+                storage = new DataStorage();
+                int[] ids = new int[batch];
+                long[] ts = new long[batch];
+                int[] typeIds = new int[batch];
+                double[] vals = new double[batch];
+                t0 = System.nanoTime();
+                for (int from = 0; from < SAMPLES; from += batch) {
+                    int n = Math.min(batch, SAMPLES - from);
+                    //Copied like a reader filling its batch arrays
+                    System.arraycopy(patientIds, from, ids, 0, n);
+                    System.arraycopy(timestamps, from, ts, 0, n);
+                    System.arraycopy(types, from, typeIds, 0, n);
+                    System.arraycopy(values, from, vals, 0, n);
+                    storage.addPatientDataBatch(ids, ts, typeIds, vals, n);
+                }
+                report("batch " + batch, t0);
+            }
+        }
+    }
+
+    private static void report(String label, long t0) {
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("%-12s %,12.0f samples/s%n", label, SAMPLES / seconds);
+    }
+}
@@ -0,0 +1,111 @@
+package data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+import com.cardio_generator.outputs.TcpOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.HealthDataWebSocketClient;
+import com.data_management.PatientRecord;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryFrameTest {
+
+    @Test
+    void testFramesRoundTripThroughClient() throws Exception {
+        DataStorage storage = new DataStorage();
+        HealthDataWebSocketClient client = client(storage);
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        for (int i = 0; i < 1200; i++) {
+            assertTrue(encoder.add(1 + i % 3, 1000L + i, i % 2 == 0 ? "ECG" : "Saturation", i % 2 == 0 ? Double.toString(i * 0.25) : (90 + i % 10) + ".0%"));
+            if (encoder.isFull()) client.onMessage(encoder.drain());
+        }
+        assertFalse(encoder.add(2, 5000L, "Alert", "triggered"), "alert states are not numbers");
+        client.onMessage(encoder.drain());
+        assertNull(encoder.drain());
+        client.getQueue().flush();
+
+        assertEquals(400, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+        assertEquals(1198 * 0.25, storage.getLatest(2, "ECG").getMeasurementValue());
+        assertEquals(99.0, storage.getLatest(3, "Saturation").getMeasurementValue());
+        assertEquals(1200, client.getQueue().getAppliedCount());
+    }
+
+    @Test
+    void testTcpNegotiatesBinaryFramesWithHello() throws Exception {
+        TcpOutputStrategy output = new TcpOutputStrategy(8796);
+        try (Socket socket = new Socket("localhost", 8796)) {
+            socket.getOutputStream().write("FORMAT binary\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            //Samples output before the server has read the hello are sent as lines, later ones as frames
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            long timestamp = 1000;
+            while (frameStart(received.toByteArray()) < 0) {
+                output.output(4, timestamp++, "HeartRate", "72.0");
+                Thread.sleep(20);
+                byte[] bytes = new byte[in.available()];
+                received.write(bytes, 0, in.read(bytes));
+            }
+            Thread.sleep(100);
+            byte[] bytes = new byte[in.available()];
+            received.write(bytes, 0, in.read(bytes));
+            bytes = received.toByteArray();
+            int start = frameStart(bytes);
+            for (String line : new String(bytes, 0, start, StandardCharsets.US_ASCII).split("\n")) {
+                if (!line.isEmpty()) assertTrue(line.matches("4,\\d+,HeartRate,72.0"), line);
+            }
+            ByteBuffer frames = ByteBuffer.wrap(bytes, start, bytes.length - start).slice();
+            assertEquals(BinaryFrameEncoder.MAGIC, frames.getShort(0));
+
+            DataStorage storage = new DataStorage();
+            HealthDataWebSocketClient client = client(storage);
+            client.onMessage(frames);
+            client.getQueue().flush();
+            List<PatientRecord> records = storage.getRecords(4, 0, Long.MAX_VALUE);
+            assertFalse(records.isEmpty());
+            for (PatientRecord record : records) assertEquals(72.0, record.getMeasurementValue());
+        }
+    }
+
+    @Test
+    void testTcpDefaultsToCsv() throws Exception {
+        TcpOutputStrategy output = new TcpOutputStrategy(8797);
+        try (Socket socket = new Socket("localhost", 8797)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            long connected = System.currentTimeMillis();
+            while (!in.ready()) {
+                output.output(5, 1000L, "Saturation", "95.0%");
+                Thread.sleep(50);
+            }
+            assertEquals("5,1000,Saturation,95.0%", in.readLine());
+            assertTrue(System.currentTimeMillis() - connected < 400, "lines are sent without waiting for a hello");
+        }
+    }
+
+    //The first frame header at the start of a line, -1 if none arrived yet
+    private static int frameStart(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == (byte) (BinaryFrameEncoder.MAGIC >> 8) && (i == 0 || bytes[i - 1] == '\n')) return i;
+        }
+        return -1;
+    }
+
+    private static HealthDataWebSocketClient client(DataStorage storage) throws Exception {
+        return new HealthDataWebSocketClient("ws://localhost:1234", storage) {
+            @Override public void onOpen(ServerHandshake handshake) {}
+            @Override public void onClose(int code, String reason, boolean remote) {}
+            @Override public void onError(Exception ex) {}
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package data_management;
+
+import com.data_management.DataStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the heap kept by the storage before and after spilling to the cold
+ * tier with a small hot budget, and the latency of range queries over recent
+ * (hot) and old (spilled) data.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.ColdTierBenchmark [patients] [samplesPerPatient] [hotBudgetMB]
+ */
+public class ColdTierBenchmark {
+    private static final int QUERIES = 2_000;
+
+    public static void main(String[] args) throws IOException {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int samplesPerPatient = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        long hotBudget = (args.length > 2 ? Long.parseLong(args[2]) : 4) << 20;
+        long start = 1_700_000_000_000L;
+
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < samplesPerPatient; i++) {
+            for (int p = 1; p <= patients; p++) storage.addPatientData(p, 60 + Math.sin((i + p) / 40.0) * 20, "ECG", start + i * 10L);
+        }
+        long end = start + (samplesPerPatient - 1) * 10L;
+        long hotNanos = query(storage, patients, end - 60_000, end);
+        long oldNanos = query(storage, patients, start, start + 60_000);
+        long before = usedHeap();
+
+        Path directory = Files.createTempDirectory("cold-tier");
+        storage.enableColdTier(directory, hotBudget, Long.MAX_VALUE);
+        long spillStart = System.nanoTime();
+        long released = storage.spillColdChunks();
+        long spillNanos = System.nanoTime() - spillStart;
+        long after = usedHeap();
+        System.out.printf("Heap before spill : %6.1f MB%n", before / 1e6);
+        System.out.printf("Heap after spill  : %6.1f MB (%.1f MB encoded chunks spilled in %d ms)%n", after / 1e6, released / 1e6, spillNanos / 1_000_000);
+
+        System.out.printf("Last minute query : %6.1f us hot%n", hotNanos / 1e3);
+        System.out.printf("First minute query: %6.1f us hot, %6.1f us spilled%n", oldNanos / 1e3, query(storage, patients, start, start + 60_000) / 1e3);
+        storage.close();
+    }
+
+    //Mean time of a range query, after a warm-up round
+    private static long query(DataStorage storage, int patients, long from, long to) {
+        long sink = 0;
+        for (int i = 0; i < QUERIES; i++) sink += storage.getRecords(1 + i % patients, from, to).size();
+        long begin = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) sink += storage.getRecords(1 + i % patients, from, to).size();
+        long nanos = (System.nanoTime() - begin) / QUERIES;
+        if (sink == 42) System.out.println();
+        return nanos;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,99 @@
+package data_management;
+
+import com.data_management.Aggregates;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColdTierTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testQueriesSpanBothTiers() throws IOException {
+        DataStorage storage = DataStorage.open(dir.resolve("data"), RetentionPolicy.KEEP_ALL, 10);
+        for (int i = 0; i < 40000; i++) {
+            for (int patientId = 1; patientId <= 4; patientId++) storage.addPatientData(patientId, Math.sin(i / 50.0) * patientId, "ECG", 1000L + 2 * i);
+        }
+        List<PatientRecord> expected = storage.getRecords(2, 0, Long.MAX_VALUE);
+        Aggregates expectedBuckets = storage.aggregate(2, "ECG", 0, Long.MAX_VALUE, 1500, Aggregates.Function.MEAN);
+
+        storage.enableColdTier(dir.resolve("cold"), 64 * 1024, HOUR);
+        assertThrows(IllegalStateException.class, () -> storage.enableColdTier(dir.resolve("cold"), 0, HOUR));
+        assertTrue(storage.spillColdChunks() > 0);
+        assertEquals(0, storage.spillColdChunks(), "already under the budget");
+        assertEquals(1, storage.getColdSegmentCount());
+        try (Stream<Path> files = Files.list(dir.resolve("cold"))) {
+            assertEquals(1, files.count());
+        }
+
+        assertSameRecords(expected, storage.getRecords(2, 0, Long.MAX_VALUE));
+        assertSameRecords(expected.subList(100, 200), storage.getRecords(2, expected.get(100).getTimestamp(), expected.get(199).getTimestamp()));
+        assertSameRecords(expected.subList(expected.size() - 3000, expected.size()), storage.getLatest(2, "ECG", 3000));
+        Aggregates buckets = storage.aggregate(2, "ECG", 0, Long.MAX_VALUE, 1500, Aggregates.Function.MEAN);
+        assertEquals(expectedBuckets.size(), buckets.size());
+        for (int row = 0; row < buckets.size(); row++) {
+            assertEquals(expectedBuckets.get(Aggregates.Function.MEAN, row), buckets.get(Aggregates.Function.MEAN, row));
+        }
+
+        //A late sample lands in a spilled chunk, a duplicate of a spilled sample is rejected
+        storage.addPatientData(2, 42.0, "ECG", 1001L);
+        storage.addPatientData(2, 43.0, "ECG", 1000L);
+        List<PatientRecord> head = storage.getRecords(2, 1000L, 1002L);
+        assertEquals(3, head.size());
+        assertEquals(expected.get(0).getMeasurementValue(), head.get(0).getMeasurementValue());
+        assertEquals(42.0, head.get(1).getMeasurementValue());
+
+        //Checkpoints read spilled chunks back, the restored storage starts with everything on the heap
+        storage.checkpoint();
+        storage.close();
+        DataStorage recovered = DataStorage.open(dir.resolve("data"), RetentionPolicy.KEEP_ALL, 10);
+        assertEquals(40001, recovered.getRecords(2, 0, Long.MAX_VALUE).size());
+        assertSameRecords(expected.subList(1, expected.size()), recovered.getRecords(2, 1002L, Long.MAX_VALUE));
+        recovered.close();
+    }
+
+    @Test
+    void testEvictionReachesSpilledChunks() throws IOException {
+        DataStorage storage = new DataStorage(new RetentionPolicy(HOUR, 6 * HOUR, 24 * HOUR));
+        storage.enableColdTier(dir, 0, HOUR);
+        long start = 10 * HOUR;
+        for (int i = 0; i < 3 * 3600; i++) {
+            storage.addPatientData(1, i % 100, "HeartRate", start + i * 1000L);
+            if (i % 1800 == 0) storage.spillColdChunks();
+        }
+        //Raw samples cover the last hour, older ones come from the minute rollups
+        List<PatientRecord> records = storage.getRecords(1, start, Long.MAX_VALUE);
+        long rawStart = start + 2 * HOUR;
+        assertEquals(3600, records.stream().filter(r -> r.getTimestamp() >= rawStart).count(), 1024);
+        assertEquals(start, records.get(0).getTimestamp());
+        assertEquals(99.0, storage.getLatest(1, "HeartRate").getMeasurementValue());
+        storage.close();
+    }
+
+    @Test
+    void testSpillNeedsColdTier() {
+        assertThrows(IllegalStateException.class, () -> new DataStorage().spillColdChunks());
+        assertEquals(0, new DataStorage().getColdSegmentCount());
+    }
+
+    private static void assertSameRecords(List<PatientRecord> expected, List<PatientRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package data_management;
+
+import com.data_management.DataStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures ingest and 5-minute range query throughput with writers and readers
+ * running concurrently on the same patients, for 1, 2, 4 and 8 threads of each.
+ * Each writer owns its own patients, like one WebSocket connection per ward.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.ContentionBenchmark
+ */
+public class ContentionBenchmark {
+    private static final int PATIENTS_PER_WRITER = 50;
+    private static final long WINDOW = 5 * 60 * 1000L;
+    private static final long RUN_MILLIS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            DataStorage storage = new DataStorage();
+            long start = 1_700_000_000_000L;
+            int patients = threads * PATIENTS_PER_WRITER;
+            //An hour of 1 Hz history per patient, so queries never run on empty data
+            for (int s = 0; s < 3600; s++) {
+                for (int p = 1; p <= patients; p++) storage.addPatientData(p, s, "ECG", start + s * 1000L);
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            LongAdder writes = new LongAdder();
+            LongAdder reads = new LongAdder();
+            LongAdder sink = new LongAdder();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int firstPatient = 1 + t * PATIENTS_PER_WRITER;
+                workers.add(new Thread(() -> {
+                    for (long s = 3600; !stop.get(); s++) {
+                        for (int p = firstPatient; p < firstPatient + PATIENTS_PER_WRITER; p++) {
+                            storage.addPatientData(p, s, "ECG", start + s * 1000L);
+                        }
+                        writes.add(PATIENTS_PER_WRITER);
+                    }
+                }));
+                workers.add(new Thread(() -> {
+                    long local = 0;
+                    for (int q = 0; !stop.get(); q++) {
+                        int patientId = 1 + q % patients;
+                        long end = start + 3600 * 1000L;
+                        local += storage.getRecords(patientId, end - WINDOW, end).size();
+                        reads.increment();
+                    }
+                    sink.add(local);
+                }));
+            }
+            workers.forEach(Thread::start);
+            Thread.sleep(RUN_MILLIS);
+            stop.set(true);
+            for (Thread worker : workers) worker.join();
+            double seconds = RUN_MILLIS / 1000.0;
+            System.out.printf("%d writers + %d readers: %,.0f samples/s ingested, %,.0f queries/s (%d)%n",
+                    threads, threads, writes.sum() / seconds, reads.sum() / seconds, sink.sum() % 10);
+        }
+    }
+}
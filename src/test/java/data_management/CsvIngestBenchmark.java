@@ -0,0 +1,65 @@
+package data_management;
+
+import com.data_management.DataReader;
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.MappedCsvReader;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares the line-based FileDataReader with the memory-mapped byte-level
+ * MappedCsvReader on a generated CSV, once parsing only (the batches are
+ * dropped) and once storing every row. Use a row count of 60M or more for a
+ * multi-GB file.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.CsvIngestBenchmark [rows] [file]
+ */
+public class CsvIngestBenchmark {
+    private static final String[] LABELS = {"ECG", "HeartRate", "Saturation", "SystolicPressure", "DiastolicPressure"};
+
+    public static void main(String[] args) throws IOException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        Path file = args.length > 1 ? Path.of(args[1]) : Files.createTempFile("ingest", ".csv");
+        if (!Files.exists(file) || Files.size(file) == 0) generate(file, rows);
+        double megabytes = Files.size(file) / 1e6;
+        System.out.printf("%d rows, %.1f MB%n", rows, megabytes);
+
+        DataStorage discard = new DataStorage() {
+            @Override
+            public int addPatientDataBatch(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+                return count;
+            }
+        };
+        report("FileDataReader, parse only ", new FileDataReader(discard), discard, file, rows, megabytes);
+        report("MappedCsvReader, parse only", new MappedCsvReader(), discard, file, rows, megabytes);
+        report("FileDataReader, stored     ", new FileDataReader(null), new DataStorage(), file, rows, megabytes);
+        report("MappedCsvReader, stored    ", new MappedCsvReader(), new DataStorage(), file, rows, megabytes);
+    }
+
+    private static void report(String name, DataReader reader, DataStorage storage, Path file, long rows, double megabytes) throws IOException {
+        long start = System.nanoTime();
+        reader.readData(storage, file.toString());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %6.2f s, %10.0f rows/s, %7.1f MB/s%n", name, seconds, rows / seconds, megabytes / seconds);
+    }
+
+    private static void generate(Path file, long rows) throws IOException {
+        long start = 1_700_000_000_000L;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+            StringBuilder line = new StringBuilder(64);
+            for (long i = 0; i < rows; i++) {
+                int patientId = (int) (i % 1000) + 1;
+                line.setLength(0);
+                line.append(patientId).append(',').append(start + (i / 1000) * 1000).append(',')
+                        .append(LABELS[(int) (i / 1000 % LABELS.length)]).append(',')
+                        .append(60 + (i * 7 % 4000) / 100.0).append('\n');
+                out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+}
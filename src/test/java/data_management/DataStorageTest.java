@@ -4,9 +4,15 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
 import com.data_management.DataStorage;
+import com.data_management.LatestValues;
 import com.data_management.PatientRecord;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 class DataStorageTest {
 
@@ -22,4 +28,162 @@ class DataStorageTest {
         assertEquals(2, records.size()); // Check if two records are retrieved
         assertEquals(100.0, records.get(0).getMeasurementValue()); // Validate first record
     }
+
+    @Test
+    void testRecordsSpanMultipleChunks() {
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < 5000; i++) storage.addPatientData(7, i, "ECG", 1000L + i);
+
+        List<PatientRecord> records = storage.getRecords(7, 1000L, 5999L);
+        assertEquals(5000, records.size());
+        assertEquals(4999.0, records.get(4999).getMeasurementValue());
+        assertEquals(100, storage.getRecords(7, 2000L, 2099L).size());
+    }
+
+    @Test
+    void testDuplicateTypeAndTimestampIgnoredRegardlessOfCase() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 95.0, "Saturation", 1714376789050L);
+        storage.addPatientData(1, 80.0, "saturation", 1714376789050L);
+
+        List<PatientRecord> records = storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(1, records.size());
+        assertEquals(95.0, records.get(0).getMeasurementValue());
+    }
+
+    @Test
+    void testOutOfOrderRecordsAreReturnedSorted() {
+        DataStorage storage = new DataStorage();
+        //Even timestamps in order first, then odd ones arriving late, forcing chunk splits
+        for (int i = 0; i < 4000; i += 2) storage.addPatientData(3, i, "ECG", i);
+        for (int i = 3999; i > 0; i -= 2) storage.addPatientData(3, i, "ECG", i);
+        storage.addPatientData(3, 120.0, "SystolicPressure", 1500L);
+
+        List<PatientRecord> records = storage.getRecords(3, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(4001, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp());
+        }
+
+        List<PatientRecord> window = storage.getRecords(3, 1000L, 1999L);
+        assertEquals(1001, window.size());
+        assertEquals(1000L, window.get(0).getTimestamp());
+        assertEquals(1999L, window.get(window.size() - 1).getTimestamp());
+    }
+
+    @Test
+    void testReplayedAndLateDuplicatesAreRejected() {
+        DataStorage storage = new DataStorage();
+        Random random = new Random(42);
+        Set<Long> distinct = new HashSet<>();
+        long now = 1714376789050L;
+        for (int i = 0; i < 20000; i++) {
+            //Mostly in order at 1 Hz, with replays of recent samples and occasional very late ones
+            long ts;
+            int roll = random.nextInt(10);
+            if (roll < 7) ts = now + i * 1000L;
+            else if (roll < 9) ts = now + Math.max(0, i - random.nextInt(50)) * 1000L;
+            else ts = now + random.nextInt(i + 1) * 1000L;
+            distinct.add(ts);
+            storage.addPatientData(2, i, "Saturation", ts);
+        }
+
+        List<PatientRecord> records = storage.getRecords(2, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(distinct.size(), records.size());
+    }
+
+    @Test
+    void testSealedChunksRoundTripExactly() {
+        DataStorage storage = new DataStorage();
+        Random random = new Random(7);
+        double[] special = {Double.NaN, -0.0, 0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MAX_VALUE, Double.MIN_VALUE};
+        long[] timestamps = new long[10_000];
+        double[] values = new double[timestamps.length];
+        long ts = -5_000_000L;
+        for (int i = 0; i < timestamps.length; i++) {
+            //Regular periods, jitter and the occasional huge gap
+            int roll = random.nextInt(20);
+            ts += roll == 0 ? 1L << 40 : roll < 5 ? 1 + random.nextInt(5000) : 1000;
+            timestamps[i] = ts;
+            values[i] = i % 97 == 0 ? special[i / 97 % special.length] : roll < 10 ? 95 + random.nextInt(3) : random.nextGaussian();
+            storage.addPatientData(1, values[i], "ECG", ts);
+        }
+
+        List<PatientRecord> records = storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(timestamps.length, records.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], records.get(i).getTimestamp());
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(records.get(i).getMeasurementValue()));
+        }
+        //Ranges starting inside a sealed chunk and late inserts into sealed chunks
+        assertEquals(timestamps[1500], storage.getRecords(1, timestamps[1500], timestamps[1600]).get(0).getTimestamp());
+        storage.addPatientData(1, 1.0, "ECG", timestamps[100] + 1);
+        storage.addPatientData(1, 2.0, "ECG", timestamps[100]); // duplicate inside a sealed chunk
+        assertEquals(2, storage.getRecords(1, timestamps[100], timestamps[100] + 1).size());
+        assertEquals(timestamps.length + 1, storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testReadersSeeConsistentDataDuringIngest() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            int lastSize = 0;
+            while (!done.get() && failure.get() == null) {
+                List<PatientRecord> records = storage.getRecords(4, Long.MIN_VALUE, Long.MAX_VALUE);
+                if (records.size() < lastSize) failure.set("shrank from " + lastSize + " to " + records.size());
+                for (int i = 1; i < records.size(); i++) {
+                    if (records.get(i - 1).getTimestamp() >= records.get(i).getTimestamp()) failure.set("unsorted at " + i);
+                    if (records.get(i).getMeasurementValue() != records.get(i).getTimestamp()) failure.set("torn sample at " + i);
+                }
+                PatientRecord latest = storage.getLatest(4, "ECG");
+                if (latest != null && latest.getMeasurementValue() != latest.getTimestamp()) failure.set("torn latest sample");
+                lastSize = records.size();
+            }
+        });
+        reader.start();
+        //Appends, head growth, sealing and late inserts splitting sealed chunks
+        for (int i = 0; i < 20000; i += 2) storage.addPatientData(4, i, "ECG", i);
+        for (int i = 19999; i > 0; i -= 2) storage.addPatientData(4, i, "ECG", i);
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(20000, storage.getRecords(4, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testLatestSamples() {
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < 3000; i++) storage.addPatientData(5, i, "Saturation", 1000L * i);
+        storage.addPatientData(5, -1.0, "Saturation", 1500L); // late, not the newest
+        storage.addPatientData(6, 120.0, "SystolicPressure", 42L);
+
+        assertEquals(2999.0, storage.getLatest(5, "Saturation").getMeasurementValue());
+        assertEquals(2_999_000L, storage.getLatest(5, "Saturation").getTimestamp());
+        assertNull(storage.getLatest(5, "SystolicPressure"));
+        assertNull(storage.getLatest(99, "Saturation"));
+
+        //Reaches back from the head into sealed chunks
+        List<PatientRecord> last = storage.getLatest(5, "Saturation", 2500);
+        assertEquals(2500, last.size());
+        assertEquals(500.0, last.get(0).getMeasurementValue());
+        assertEquals(2999.0, last.get(2499).getMeasurementValue());
+        assertEquals(3001, storage.getLatest(5, "Saturation", 5000).size());
+
+        LatestValues ward = storage.getLatestValues("Saturation", "SystolicPressure");
+        assertEquals(2, ward.size());
+        for (int row = 0; row < ward.size(); row++) {
+            if (ward.getPatientId(row) == 5) {
+                assertEquals(2999.0, ward.getValue("Saturation", row));
+                assertFalse(ward.hasValue("SystolicPressure", row));
+            } else {
+                assertEquals(120.0, ward.getValue("SystolicPressure", row));
+                assertEquals(42L, ward.getTimestamp("SystolicPressure", row));
+                assertTrue(Double.isNaN(ward.getValue("Saturation", row)));
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> ward.getValue("ECG", 0));
+    }
 }
@@ -24,6 +24,7 @@ public class HealthDataWebSocketClientTest {
         };
         String message = "1,1710000000000,HeartRate,78.5";
         client.onMessage(message);
+        client.getQueue().flush(); //stored by the queue's drainer
         Assertions.assertEquals(1, storage.getAllPatients().size());
         Assertions.assertEquals(1, storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
     }
@@ -37,6 +38,7 @@ public class HealthDataWebSocketClientTest {
         };
         String malformedMessage = "bad,input";
         client.onMessage(malformedMessage);
+        client.getQueue().flush();
         assertTrue(storage.getAllPatients().isEmpty(), "No patients should be added");
     }
     @Test
@@ -0,0 +1,54 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the retained heap per sample of the columnar patient storage against
+ * the previous one-PatientRecord-per-sample layout.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.HeapFootprintBenchmark [patients] [samplesPerPatient]
+ */
+public class HeapFootprintBenchmark {
+    private static final String[] TYPES = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure"};
+
+    public static void main(String[] args) {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int samplesPerPatient = args.length > 1 ? Integer.parseInt(args[1]) : 4_000;
+        long total = (long) patients * samplesPerPatient;
+
+        long before = usedHeap();
+        List<PatientRecord> boxed = new ArrayList<>();
+        fill(patients, samplesPerPatient, (id, value, type, ts) -> boxed.add(new PatientRecord(id, value, type, ts)));
+        long boxedBytes = usedHeap() - before;
+        System.out.printf("PatientRecord list : %6.1f bytes/sample (%d samples)%n", (double) boxedBytes / total, boxed.size());
+        boxed.clear();
+
+        before = usedHeap();
+        DataStorage storage = new DataStorage();
+        fill(patients, samplesPerPatient, storage::addPatientData);
+        long columnarBytes = usedHeap() - before;
+        System.out.printf("Columnar storage   : %6.1f bytes/sample (%d patients)%n", (double) columnarBytes / total, storage.getAllPatients().size());
+    }
+
+    private interface Sink {
+        void add(int patientId, double value, String type, long timestamp);
+    }
+
+    private static void fill(int patients, int samplesPerPatient, Sink sink) {
+        long start = 1_700_000_000_000L;
+        for (int i = 0; i < samplesPerPatient; i++) {
+            for (int p = 1; p <= patients; p++) {
+                sink.add(p, 90 + (i % 10), TYPES[i % TYPES.length], start + i * 1000L);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,49 @@
+package data_management;
+
+import com.data_management.DataStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Measures the heap kept by the storage when most patients went idle, before and
+ * after a hibernation sweep, and the cost of reloading a hibernated patient.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.HibernationBenchmark [patients] [samplesPerPatient] [activePercent]
+ */
+public class HibernationBenchmark {
+    public static void main(String[] args) throws IOException {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int samplesPerPatient = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int active = patients * (args.length > 2 ? Integer.parseInt(args[2]) : 10) / 100;
+        long start = 1_700_000_000_000L;
+
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < samplesPerPatient; i++) {
+            for (int p = 1; p <= patients; p++) storage.addPatientData(p, 60 + (i + p) % 40, "HeartRate", start + i * 1000L);
+        }
+        storage.enableHibernation(Files.createTempDirectory("hibernation"), 0, Long.MAX_VALUE);
+        storage.hibernateIdlePatients();
+        //Only the active patients keep receiving data
+        for (int p = 1; p <= active; p++) storage.addPatientData(p, 70, "HeartRate", start + samplesPerPatient * 1000L);
+        long before = usedHeap();
+        long sweepStart = System.nanoTime();
+        int hibernated = storage.hibernateIdlePatients();
+        long sweepNanos = System.nanoTime() - sweepStart;
+        long after = usedHeap();
+        System.out.printf("Heap, all patients loaded : %7.1f MB%n", before / 1e6);
+        System.out.printf("Heap, %5d idle hibernated: %7.1f MB (sweep took %d ms)%n", hibernated, after / 1e6, sweepNanos / 1_000_000);
+
+        long reloadStart = System.nanoTime();
+        int reloads = Math.min(200, patients - active);
+        for (int p = active + 1; p <= active + reloads; p++) storage.getLatest(p, "HeartRate");
+        System.out.printf("Reload                    : %7.1f us/patient (%d reloads counted)%n",
+                (System.nanoTime() - reloadStart) / 1e3 / reloads, storage.getPatientReloadCount());
+        storage.close();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
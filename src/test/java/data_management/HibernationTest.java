@@ -0,0 +1,104 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HibernationTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testIdlePatientsAreHibernatedAndReloaded() throws IOException {
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < 3000; i++) storage.addPatientData(1 + i % 10, i, "ECG", 1000L + i);
+        storage.enableHibernation(dir, 0, HOUR);
+        assertThrows(IllegalStateException.class, () -> storage.enableHibernation(dir, 0, HOUR));
+        assertEquals(0, storage.hibernateIdlePatients(), "the first sweep only starts the idle periods");
+        storage.addPatientData(1, -1.0, "ECG", 9000L);
+        Patient stale = storage.getPatient(5);
+        assertEquals(9, storage.hibernateIdlePatients());
+        assertEquals(9, storage.getHibernatedPatientCount());
+        assertEquals(1, storage.getAllPatients().size());
+        assertEquals(9, fileCount());
+
+        //Reads and writes reload transparently, and count the reload
+        assertEquals(300, storage.getRecords(5, 0, Long.MAX_VALUE).size());
+        assertEquals(2994.0, storage.getLatest(5, "ECG").getMeasurementValue());
+        storage.addPatientData(6, 42.0, "ECG", 9000L);
+        storage.addPatientData(6, 43.0, "ECG", 1005L); // duplicate of a hibernated sample
+        assertEquals(301, storage.getRecords(6, 0, Long.MAX_VALUE).size());
+        assertEquals(2, storage.getPatientReloadCount());
+        assertEquals(7, storage.getHibernatedPatientCount());
+
+        //The old object stays readable but refuses writes that would be lost
+        assertEquals(300, stale.getRecords(0, Long.MAX_VALUE).size());
+        assertThrows(IllegalStateException.class, () -> stale.addRecord(1.0, "ECG", 20000L));
+
+        //The next sweep deletes the files of reloaded patients, and hibernates patient 1, idle since the last one
+        assertEquals(1, storage.hibernateIdlePatients());
+        assertEquals(8, fileCount());
+        assertArrayEquals(new int[]{6}, storage.findPatientsAbove("ECG", 8000L, 10000L, 40.0));
+    }
+
+    @Test
+    void testNoWriteIsLostToConcurrentSweeps() throws Exception {
+        DataStorage storage = new DataStorage();
+        storage.enableHibernation(dir, 0, HOUR);
+        int patients = 50;
+        int rounds = 400;
+        AtomicInteger sweeps = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < rounds; round++) {
+                //Each round only writes to a few patients, so the others go idle between sweeps
+                for (int p = round % 5; p < patients; p += 5) storage.addPatientData(p, round, "HeartRate", 1000L + round);
+                int seen = sweeps.get();
+                while (sweeps.get() == seen) Thread.yield();
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            storage.hibernateIdlePatients();
+            sweeps.incrementAndGet();
+        }
+        writer.join();
+        assertTrue(storage.getPatientReloadCount() > 0);
+        int total = 0;
+        for (int p = 0; p < patients; p++) total += storage.getRecords(p, 0, Long.MAX_VALUE).size();
+        assertEquals(rounds * patients / 5, total);
+    }
+
+    @Test
+    void testCheckpointIncludesHibernatedPatients() throws IOException {
+        DataStorage storage = DataStorage.open(dir.resolve("data"), RetentionPolicy.KEEP_ALL, 10);
+        storage.enableHibernation(dir.resolve("idle"), 0, HOUR);
+        for (int i = 0; i < 2000; i++) storage.addPatientData(1 + i % 4, i, "Saturation", 1000L + i);
+        storage.hibernateIdlePatients();
+        assertEquals(4, storage.hibernateIdlePatients());
+        storage.checkpoint();
+        storage.close();
+
+        DataStorage recovered = DataStorage.open(dir.resolve("data"), RetentionPolicy.KEEP_ALL, 10);
+        assertEquals(4, recovered.getAllPatients().size());
+        assertEquals(500, recovered.getRecords(3, 0, Long.MAX_VALUE).size());
+        recovered.close();
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.IngestPipeline;
+import com.data_management.IngestQueue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestPipelineTest {
+
+    @Test
+    void testDecodesLinesFramesAndTextMessagesAlike() {
+        DataStorage storage = new DataStorage();
+        IngestPipeline pipeline = new IngestPipeline(storage::addPatientDataBatch);
+        IngestPipeline.Stream csv = pipeline.open(IngestPipeline.Format.AUTO);
+        IngestPipeline.Stream binary = pipeline.open(IngestPipeline.Format.AUTO);
+        IngestPipeline.Stream messages = pipeline.open(IngestPipeline.Format.CSV);
+
+        //Lines split across feeds, the incomplete one is left for the next
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put("1,1000,HeartRate,70.0\n1,10".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertTrue(csv.feed(buffer, false));
+        assertEquals(IngestPipeline.Format.CSV, csv.getFormat());
+        buffer.compact().put("01,HeartRate,71.0\nbad line\n".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertTrue(csv.feed(buffer, true));
+        assertFalse(buffer.hasRemaining());
+
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        encoder.add(2, 1000, "Saturation", "97.5%");
+        encoder.add(2, 1001, "Alert", "triggered");
+        assertTrue(binary.feed(encoder.drain(), true));
+        assertEquals(IngestPipeline.Format.BINARY, binary.getFormat());
+
+        messages.feed(" 3 , 1000 , Saturation , 96.0% ");
+        messages.feed("3,1001,ECG,0.5,42", 0, "3,1001,ECG,0.5".length());
+        messages.feed("3,1002,ECG");
+        pipeline.flush();
+
+        assertEquals(71.0, storage.getLatest(1, "HeartRate").getMeasurementValue());
+        assertEquals(97.5, storage.getLatest(2, "Saturation").getMeasurementValue());
+        assertEquals(96.0, storage.getLatest(3, "Saturation").getMeasurementValue());
+        assertEquals(0.5, storage.getLatest(3, "ECG").getMeasurementValue());
+        assertEquals(5, pipeline.getRowCount());
+        assertEquals(2, pipeline.getSkippedCount(), "the bad line and the message without value");
+        assertEquals(0, pipeline.getMalformedCount());
+    }
+
+    @Test
+    void testFeedsAnIngestQueue() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        IngestQueue queue = new IngestQueue(storage);
+        IngestPipeline pipeline = new IngestPipeline(queue::offer);
+        IngestPipeline.Stream messages = pipeline.open(IngestPipeline.Format.CSV);
+        messages.feed(" 7 , 1000 , Saturation , 97.5% ");
+        messages.feed("7,1001,Alert,triggered");
+        messages.feed("7,1002,ECG");
+        messages.feed("7,1003,ECG,1.0,extra");
+        messages.feed("x,1004,ECG,1.0");
+        pipeline.flush();
+        queue.flush();
+        assertEquals(97.5, storage.getLatest(7, "Saturation").getMeasurementValue());
+        assertEquals(1, storage.getRecords(7, 0, Long.MAX_VALUE).size());
+        assertEquals(4, pipeline.getSkippedCount());
+        queue.close();
+    }
+
+    @Test
+    void testReportsMalformedStreams() {
+        IngestPipeline pipeline = new IngestPipeline((patientIds, timestamps, recordTypeIds, values, count) -> { });
+        ByteBuffer corrupt = ByteBuffer.wrap(new byte[]{'H', 'D', BinaryFrameEncoder.VERSION, 0, 127, 127, 127, 127});
+        assertFalse(pipeline.open(IngestPipeline.Format.AUTO).feed(corrupt, false));
+
+        ByteBuffer truncated = ByteBuffer.wrap(new byte[]{'H', 'D', BinaryFrameEncoder.VERSION, 0, 0, 0, 0, 22, 1});
+        assertFalse(pipeline.open(IngestPipeline.Format.BINARY).feed(truncated, true), "the frame can no longer complete");
+
+        ByteBuffer overlong = ByteBuffer.wrap("1,1000,HeartRate,70.00000".getBytes(StandardCharsets.US_ASCII));
+        assertFalse(pipeline.open(IngestPipeline.Format.CSV).feed(overlong, false), "the line fills the whole buffer");
+        assertEquals(3, pipeline.getMalformedCount());
+    }
+
+    @Test
+    void testFileReaderSkipsMalformedLines(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("data.csv");
+        Files.writeString(file, "1,1000,HeartRate,70.0\n1,x,HeartRate,71.0\n"
+                + "Patient ID: 1, Timestamp: 1002, Label: Saturation, Data: 98.0%\n1,1003,HeartRate,72.0");
+        DataStorage storage = new DataStorage();
+        FileDataReader reader = new FileDataReader(storage);
+        reader.readData(storage, file.toString());
+        assertEquals(3, reader.getPipeline().getRowCount());
+        assertEquals(1, reader.getPipeline().getSkippedCount());
+        assertEquals(Files.size(file), reader.getPipeline().getByteCount());
+        assertEquals(72.0, storage.getLatest(1, "HeartRate").getMeasurementValue());
+        assertEquals(98.0, storage.getLatest(1, "Saturation").getMeasurementValue());
+    }
+}
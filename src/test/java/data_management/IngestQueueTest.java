@@ -0,0 +1,80 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.IngestPipeline;
+import com.data_management.IngestQueue;
+import com.data_management.RecordType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestQueueTest {
+
+    @Test
+    void testBlockingQueueStoresEveryMessageFromConcurrentProducers() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        IngestQueue queue = new IngestQueue(storage, 64, IngestQueue.OverflowPolicy.BLOCK);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 1; p <= 4; p++) {
+            int patientId = p;
+            Thread producer = new Thread(() -> {
+                //One pipeline per producer thread, each passing its rows on as it parses them
+                IngestPipeline pipeline = new IngestPipeline(queue::offer);
+                IngestPipeline.Stream messages = pipeline.open(IngestPipeline.Format.CSV);
+                for (int i = 0; i < 5000; i++) {
+                    messages.feed(patientId + "," + (1000 + i) + ",HeartRate," + (60 + i % 40));
+                    pipeline.flush();
+                }
+                assertEquals(5000, pipeline.getRowCount());
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) producer.join();
+        queue.flush();
+        for (int p = 1; p <= 4; p++) assertEquals(5000, storage.getRecords(p, 0, Long.MAX_VALUE).size());
+        assertEquals(20000, queue.getAppliedCount());
+        assertEquals(0, queue.getDroppedCount());
+        queue.close();
+        assertFalse(queue.offer(1, 1L, RecordType.resolve("HeartRate"), 1.0), "a closed queue rejects samples");
+    }
+
+    @Test
+    void testDropPoliciesWhileStorageStalls() throws InterruptedException {
+        for (IngestQueue.OverflowPolicy policy : new IngestQueue.OverflowPolicy[]{IngestQueue.OverflowPolicy.DROP_NEWEST, IngestQueue.OverflowPolicy.DROP_OLDEST}) {
+            CountDownLatch release = new CountDownLatch(1);
+            DataStorage storage = new DataStorage() {
+                @Override
+                public int addPatientDataBatch(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.addPatientDataBatch(patientIds, timestamps, recordTypeIds, values, count);
+                }
+            };
+            IngestQueue queue = new IngestQueue(storage, 16, policy);
+            int ecg = RecordType.resolve("ECG");
+            //The first sample is taken by the drainer, which then stalls in storage
+            queue.offer(1, 1000, ecg, 0.0);
+            while (queue.size() > 0) Thread.sleep(1);
+            for (int i = 1; i <= 100; i++) queue.offer(1, 1000 + i, ecg, i);
+            assertEquals(16, queue.size());
+            assertEquals(84, queue.getDroppedCount());
+            release.countDown();
+            queue.close();
+            List<Long> timestamps = new ArrayList<>();
+            storage.getRecords(1, 0, Long.MAX_VALUE).forEach(record -> timestamps.add(record.getTimestamp()));
+            assertEquals(17, timestamps.size());
+            //DROP_NEWEST keeps what was queued first, DROP_OLDEST the most recent samples
+            long firstKept = policy == IngestQueue.OverflowPolicy.DROP_NEWEST ? 1001 : 1085;
+            assertEquals(firstKept, timestamps.get(1));
+            assertEquals(firstKept + 15, timestamps.get(16));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.LatestValues;
+import com.data_management.PatientRecord;
+
+import java.util.List;
+
+/**
+ * Measures a whole-ward "current vitals" snapshot through getLatestValues()
+ * against finding the newest samples with a full getRecords() scan per patient.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.LatestValuesBenchmark
+ */
+public class LatestValuesBenchmark {
+    private static final int PATIENTS = 5_000;
+    private static final int SAMPLES = 600; // 10 minutes at 1 Hz
+    private static final int SNAPSHOTS = 200;
+
+    public static void main(String[] args) {
+        DataStorage storage = new DataStorage();
+        long start = 1_700_000_000_000L;
+        for (int s = 0; s < SAMPLES; s++) {
+            for (int p = 1; p <= PATIENTS; p++) {
+                long ts = start + s * 1000L;
+                storage.addPatientData(p, 95 + s % 3, "Saturation", ts);
+                storage.addPatientData(p, 110 + s % 20, "SystolicPressure", ts);
+                storage.addPatientData(p, 70 + s % 15, "DiastolicPressure", ts);
+            }
+        }
+        long sink = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long t0 = System.nanoTime();
+            for (int q = 0; q < SNAPSHOTS; q++) {
+                LatestValues ward = storage.getLatestValues("Saturation", "SystolicPressure", "DiastolicPressure");
+                sink += (long) ward.getValue("Saturation", q % ward.size());
+            }
+            double snapshotMicros = (System.nanoTime() - t0) / 1000.0 / SNAPSHOTS;
+
+            t0 = System.nanoTime();
+            for (int q = 0; q < SNAPSHOTS / 20; q++) {
+                for (int p = 1; p <= PATIENTS; p++) {
+                    List<PatientRecord> records = storage.getRecords(p, Long.MIN_VALUE, Long.MAX_VALUE);
+                    //Newest of each type, as a caller without getLatest would do
+                    double saturation = 0, systolic = 0, diastolic = 0;
+                    for (PatientRecord record : records) {
+                        switch (record.getRecordType()) {
+                            case "Saturation": saturation = record.getMeasurementValue(); break;
+                            case "SystolicPressure": systolic = record.getMeasurementValue(); break;
+                            default: diastolic = record.getMeasurementValue();
+                        }
+                    }
+                    sink += (long) (saturation + systolic + diastolic);
+                }
+            }
+            double scanMicros = (System.nanoTime() - t0) / 1000.0 / (SNAPSHOTS / 20);
+            System.out.printf("%d patients x 3 types: getLatestValues %,.0f us, getRecords scan %,.0f us (%d)%n",
+                    PATIENTS, snapshotMicros, scanMicros, sink % 10);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.MappedCsvReader;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedCsvReaderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testParsesEdgeCasesAndSkipsMalformedLines() throws IOException {
+        Path file = dir.resolve("data.csv");
+        Files.writeString(file, String.join("\n",
+                "1,1620000000000,SystolicPressure,120.5",
+                "1,1620000005000,DiastolicPressure, 50.0",
+                " 2 , 1620000000000 , Oxygen Saturation , 97 \r",
+                "2,1620000001000,Saturation,-1.25e-3",
+                "",
+                "3,1620000000000,ECG,0.000123456789012345678",
+                "3,1620000001000,ECG,1E5",
+                "3,abc,ECG,1.0",
+                "3,1620000002000,ECG",
+                "3,1620000003000,ECG,1.0,extra",
+                "99999999999,1620000004000,ECG,1.0",
+                "4,1620000000000,ECG,NaN") // no trailing line feed
+        );
+        DataStorage storage = new DataStorage();
+        MappedCsvReader reader = new MappedCsvReader();
+        reader.readData(storage, file.toString());
+
+        assertEquals(7, reader.getRowCount());
+        assertEquals(4, reader.getSkippedLineCount());
+        assertEquals(Files.size(file), reader.getByteCount());
+        assertEquals(50.0, storage.getRecords(1, 1620000005000L, 1620000005000L).get(0).getMeasurementValue());
+        List<PatientRecord> saturation = storage.getRecords(2, 0, Long.MAX_VALUE);
+        assertEquals("Saturation", saturation.get(0).getRecordType());
+        assertEquals(97.0, saturation.get(0).getMeasurementValue());
+        assertEquals(-1.25e-3, saturation.get(1).getMeasurementValue());
+        List<PatientRecord> ecg = storage.getRecords(3, 0, Long.MAX_VALUE);
+        assertEquals(0.000123456789012345678, ecg.get(0).getMeasurementValue());
+        assertEquals(1e5, ecg.get(1).getMeasurementValue());
+        assertTrue(Double.isNaN(storage.getLatest(4, "ECG").getMeasurementValue()));
+    }
+
+    @Test
+    void testValuesMatchTheJdkAcrossWindows() throws IOException {
+        Random random = new Random(17);
+        StringBuilder csv = new StringBuilder();
+        double[] expected = new double[20000];
+        for (int i = 0; i < expected.length; i++) {
+            String value;
+            switch (i % 4) {
+                case 0: value = Double.toString(random.nextGaussian() * 100); break;
+                case 1: value = String.format(Locale.ROOT, "%.2f", 50 + random.nextDouble() * 100); break;
+                case 2: value = Integer.toString(random.nextInt(300)); break;
+                default: value = Double.toString(random.nextDouble() * 1e-9); break;
+            }
+            expected[i] = Double.parseDouble(value);
+            csv.append(1 + i % 7).append(',').append(1000L + i).append(",HeartRate,").append(value).append('\n');
+        }
+        Path file = dir.resolve("random.csv");
+        Files.writeString(file, csv);
+
+        //A small window makes lines straddle window boundaries
+        DataStorage storage = new DataStorage();
+        MappedCsvReader reader = new MappedCsvReader(4096);
+        reader.readData(storage, file.toString());
+        assertEquals(expected.length, reader.getRowCount());
+        for (int p = 1; p <= 7; p++) {
+            for (PatientRecord record : storage.getRecords(p, 0, Long.MAX_VALUE)) {
+                assertEquals(expected[(int) (record.getTimestamp() - 1000L)], record.getMeasurementValue());
+            }
+        }
+        assertThrows(IOException.class, () -> new MappedCsvReader(10).readData(new DataStorage(), file.toString()));
+    }
+}
@@ -12,7 +12,10 @@ import java.util.concurrent.CountDownLatch;
 public class MockServer extends WebSocketServer{
     private final CountDownLatch connectionLatch = new CountDownLatch(1);
     private WebSocket connectedClient;
-    public MockServer(InetSocketAddress address){super(address);}
+    public MockServer(InetSocketAddress address){
+        super(address);
+        setReuseAddr(true); //tests rebind the same port right after the previous server stopped
+    }
     @Override
     public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
         this.connectedClient = webSocket;
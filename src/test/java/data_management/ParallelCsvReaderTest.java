@@ -0,0 +1,80 @@
+package data_management;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.MappedCsvReader;
+import com.data_management.ParallelCsvReader;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelCsvReaderTest {
+    private static final String[] LABELS = {"ECG", "HeartRate", "Saturation"};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testContentMatchesSerialLoad() throws IOException {
+        Random random = new Random(3);
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            //Late samples and duplicates with other values, whose first occurrence must win
+            long timestamp = 1000L + i - random.nextInt(50);
+            csv.append(1 + random.nextInt(40)).append(',').append(timestamp).append(',')
+                    .append(LABELS[random.nextInt(LABELS.length)]).append(',').append(random.nextInt(1000) / 10.0).append('\n');
+            if (i % 1000 == 0) csv.append("garbage line\n");
+        }
+        Path file = dir.resolve("data.csv");
+        Files.writeString(file, csv);
+
+        DataStorage serial = new DataStorage();
+        MappedCsvReader serialReader = new MappedCsvReader();
+        serialReader.readData(serial, file.toString());
+        DataStorage parallel = new DataStorage();
+        ParallelCsvReader reader = new ParallelCsvReader(new ForkJoinPool(4), 4096);
+        reader.readData(parallel, file.toString());
+
+        assertEquals(serialReader.getRowCount(), reader.getRowCount());
+        assertEquals(30, reader.getSkippedLineCount());
+        assertEquals(Files.size(file), reader.getByteCount());
+        for (int patientId = 1; patientId <= 40; patientId++) {
+            List<PatientRecord> expected = serial.getRecords(patientId, 0, Long.MAX_VALUE);
+            List<PatientRecord> actual = parallel.getRecords(patientId, 0, Long.MAX_VALUE);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals(expected.get(i).getRecordType(), actual.get(i).getRecordType());
+                assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+            }
+        }
+    }
+
+    @Test
+    void testReadsFileOutputStrategyDirectory() throws IOException {
+        FileOutputStrategy output = new FileOutputStrategy(dir.toString());
+        for (int i = 0; i < 200; i++) {
+            output.output(1 + i % 5, 1000L + i, "ECG", Double.toString(i * 0.5));
+            output.output(1 + i % 5, 1000L + i, "Saturation", (90 + i % 10) + ".0%");
+        }
+        output.output(3, 5000L, "Alert", "triggered");
+
+        DataStorage storage = new DataStorage();
+        ParallelCsvReader reader = new ParallelCsvReader(new ForkJoinPool(2), 1024);
+        reader.readData(storage, dir.toString());
+        assertEquals(400, reader.getRowCount());
+        assertEquals(1, reader.getSkippedLineCount(), "alerts carry no value");
+        assertEquals(80, storage.getRecords(2, 0, Long.MAX_VALUE).size());
+        assertEquals(99.0, storage.getLatest(5, "Saturation").getMeasurementValue());
+        assertEquals(99.5, storage.getLatest(5, "ECG").getMeasurementValue());
+    }
+}
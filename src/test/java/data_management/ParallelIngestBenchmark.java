@@ -0,0 +1,64 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.MappedCsvReader;
+import com.data_management.ParallelCsvReader;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how ParallelCsvReader scales with the number of cores, from one
+ * thread up to all available processors, against the serial MappedCsvReader,
+ * storing every row of a generated CSV.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.ParallelIngestBenchmark [rows] [file]
+ */
+public class ParallelIngestBenchmark {
+    private static final String[] LABELS = {"ECG", "HeartRate", "Saturation", "SystolicPressure", "DiastolicPressure"};
+
+    public static void main(String[] args) throws IOException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        Path file = args.length > 1 ? Path.of(args[1]) : Files.createTempFile("parallel-ingest", ".csv");
+        if (!Files.exists(file) || Files.size(file) == 0) generate(file, rows);
+        double megabytes = Files.size(file) / 1e6;
+        System.out.printf("%d rows, %.1f MB%n", rows, megabytes);
+
+        //Warm-up, so that neither reader pays for the compilation of the parser
+        new MappedCsvReader().readData(new DataStorage(), file.toString());
+        new ParallelCsvReader().readData(new DataStorage(), file.toString());
+
+        long start = System.nanoTime();
+        new MappedCsvReader().readData(new DataStorage(), file.toString());
+        double serialSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("serial     : %6.2f s, %10.0f rows/s, %7.1f MB/s%n", serialSeconds, rows / serialSeconds, megabytes / serialSeconds);
+
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            start = System.nanoTime();
+            new ParallelCsvReader(pool, 16L << 20).readData(new DataStorage(), file.toString());
+            double seconds = (System.nanoTime() - start) / 1e9;
+            pool.shutdown();
+            System.out.printf("%2d threads : %6.2f s, %10.0f rows/s, %7.1f MB/s, %.2fx serial%n",
+                    threads, seconds, rows / seconds, megabytes / seconds, serialSeconds / seconds);
+        }
+    }
+
+    private static void generate(Path file, long rows) throws IOException {
+        long start = 1_700_000_000_000L;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+            StringBuilder line = new StringBuilder(64);
+            for (long i = 0; i < rows; i++) {
+                line.setLength(0);
+                line.append(i % 1000 + 1).append(',').append(start + (i / 1000) * 1000).append(',')
+                        .append(LABELS[(int) (i / 1000 % LABELS.length)]).append(',')
+                        .append(60 + (i * 7 % 4000) / 100.0).append('\n');
+                out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+}
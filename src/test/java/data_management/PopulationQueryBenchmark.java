@@ -0,0 +1,51 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+
+/**
+ * Compares "which patients had Saturation below 92 in the last 5 minutes"
+ * answered by findPatientsBelow() against scanning every patient through
+ * getRecords(), as the ward grows.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.PopulationQueryBenchmark
+ */
+public class PopulationQueryBenchmark {
+    private static final long WINDOW = 5 * 60 * 1000L;
+    private static final int SAMPLES = 30 * 60 / 5; // 30 minutes, one sample every 5 s
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) {
+        long start = 1_700_000_000_000L;
+        for (int patients : new int[]{1_000, 10_000, 30_000}) {
+            DataStorage storage = new DataStorage();
+            for (int s = 0; s < SAMPLES; s++) {
+                for (int p = 1; p <= patients; p++) {
+                    //About one patient in 200 desaturates at some point
+                    double saturation = (p * 31 + s) % (200 * SAMPLES) == 0 ? 88 : 94 + (p + s) % 5;
+                    storage.addPatientData(p, saturation, "Saturation", start + s * 5000L);
+                }
+            }
+            long end = start + SAMPLES * 5000L;
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) sink += storage.findPatientsBelow("Saturation", end - WINDOW - q, end, 92).length;
+            double indexMicros = (System.nanoTime() - t0) / 1000.0 / QUERIES;
+
+            t0 = System.nanoTime();
+            int scans = Math.max(1, QUERIES / 20);
+            for (int q = 0; q < scans; q++) {
+                for (Patient patient : storage.getAllPatients()) {
+                    for (PatientRecord record : patient.getRecords("Saturation", end - WINDOW - q, end)) {
+                        if (record.getMeasurementValue() < 92) {
+                            sink++;
+                            break;
+                        }
+                    }
+                }
+            }
+            double scanMicros = (System.nanoTime() - t0) / 1000.0 / scans;
+            System.out.printf("%,6d patients: index %,8.0f us, full scan %,10.0f us (%d)%n", patients, indexMicros, scanMicros, sink % 10);
+        }
+    }
+}
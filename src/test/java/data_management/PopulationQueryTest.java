@@ -0,0 +1,84 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PopulationQueryTest {
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long START = 1_700_000_000_000L - 1_700_000_000_000L % HOUR; // hour aligned
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testQueriesMatchAFullScan() {
+        DataStorage storage = new DataStorage();
+        Random random = new Random(11);
+        long end = START + 30 * MINUTE;
+        for (long ts = START; ts < end; ts += 5 * SECOND) {
+            for (int patient = 1; patient <= 200; patient++) {
+                //Mostly normal, with the odd dip
+                double saturation = random.nextInt(100) == 0 ? 80 + random.nextInt(12) : 92 + random.nextInt(8);
+                storage.addPatientData(patient, saturation, "Saturation", ts + random.nextInt(5000));
+            }
+        }
+
+        //Ranges cutting buckets, covering whole buckets, one- and two-sided value ranges
+        long[][] ranges = {{end - 5 * MINUTE, end}, {START + 90 * SECOND, START + 7 * MINUTE + 1234}, {START, end}};
+        double[][] values = {{Double.NEGATIVE_INFINITY, Math.nextDown(92)}, {85, 88}, {99, Double.POSITIVE_INFINITY}, {93, 93}};
+        for (long[] range : ranges) {
+            for (double[] bounds : values) {
+                int[] expected = IntStream.rangeClosed(1, 200).filter(patient -> {
+                    for (PatientRecord record : storage.getPatient(patient).getRecords("Saturation", range[0], range[1])) {
+                        if (record.getMeasurementValue() >= bounds[0] && record.getMeasurementValue() <= bounds[1]) return true;
+                    }
+                    return false;
+                }).toArray();
+                assertArrayEquals(expected, storage.findPatients("Saturation", range[0], range[1], bounds[0], bounds[1]));
+            }
+        }
+        assertArrayEquals(storage.findPatients("Saturation", START, end, Double.NEGATIVE_INFINITY, Math.nextDown(92)),
+                storage.findPatientsBelow("Saturation", START, end, 92));
+        assertEquals(0, storage.findPatientsAbove("Saturation", START, end, 100).length);
+        assertEquals(0, storage.findPatients("HeartRate", START, end, 0, 1000).length);
+    }
+
+    @Test
+    void testIndexKeepsOnlyItsWindow() {
+        DataStorage storage = new DataStorage(RetentionPolicy.KEEP_ALL.withIndexRetention(10 * MINUTE));
+        storage.addPatientData(1, 80.0, "Saturation", START);
+        storage.addPatientData(2, 80.0, "Saturation", START + HOUR);
+
+        //Patient 1 is still stored, but older than the index window
+        assertEquals(1, storage.getRecords(1, START, START).size());
+        assertArrayEquals(new int[]{2}, storage.findPatientsBelow("Saturation", START, START + HOUR, 92));
+        assertThrows(IllegalArgumentException.class, () -> RetentionPolicy.KEEP_ALL.withIndexRetention(0));
+    }
+
+    @Test
+    void testPatientsRestoredFromSnapshotAreIndexedOnAccess() throws IOException {
+        DataStorage storage = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 10);
+        storage.addPatientData(1, 85.0, "Saturation", START);
+        storage.addPatientData(2, 97.0, "Saturation", START);
+        storage.checkpoint();
+        storage.close();
+
+        DataStorage recovered = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 10);
+        assertEquals(0, recovered.findPatientsBelow("Saturation", START, START, 92).length);
+        recovered.getAllPatients();
+        assertArrayEquals(new int[]{1}, recovered.findPatientsBelow("Saturation", START, START, 92));
+        recovered.close();
+    }
+}
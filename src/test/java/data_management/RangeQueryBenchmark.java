@@ -0,0 +1,37 @@
+package data_management;
+
+import com.data_management.Patient;
+
+/**
+ * Measures the cost of a 5-minute range query on one record type as a patient's
+ * history grows, which should stay flat with the sorted time index.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.RangeQueryBenchmark
+ */
+public class RangeQueryBenchmark {
+    private static final long WINDOW = 5 * 60 * 1000L;
+    private static final int QUERIES = 20_000;
+
+    public static void main(String[] args) {
+        long start = 1_700_000_000_000L;
+        Patient patient = new Patient(1);
+        long hours = 0;
+        for (long targetHours : new long[]{1, 6, 24, 72}) {
+            //1 Hz ECG and saturation, like HealthDataSimulator
+            for (; hours < targetHours; hours++) {
+                for (int s = 0; s < 3600; s++) {
+                    long ts = start + (hours * 3600 + s) * 1000L;
+                    patient.addRecord(Math.sin(s), "ECG", ts);
+                    patient.addRecord(95 + s % 3, "Saturation", ts);
+                }
+            }
+            long end = start + hours * 3600 * 1000L;
+            long sink = 0;
+            long t0 = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                sink += patient.getRecords("ECG", end - WINDOW, end).size();
+            }
+            double micros = (System.nanoTime() - t0) / 1000.0 / QUERIES;
+            System.out.printf("history %3dh: %8.2f us per 5-minute query (%d records)%n", hours, micros, sink / QUERIES);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.IngestPipeline;
+import com.data_management.PatientRecord;
+import com.data_management.RecordType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordTypeTest {
+    @Test
+    void testAliasesResolveToCanonicalType() {
+        assertEquals(RecordType.SATURATION, RecordType.resolve("Saturation"));
+        assertEquals(RecordType.SATURATION, RecordType.resolve("BloodSaturation"));
+        assertEquals(RecordType.SATURATION, RecordType.resolve("Oxygen Saturation"));
+        assertEquals(RecordType.SYSTOLIC_PRESSURE, RecordType.resolve("systolic blood pressure"));
+        assertEquals(RecordType.ECG, RecordType.resolve(" ecg "));
+        assertEquals("Saturation", RecordType.name(RecordType.resolve("oxygen_saturation")));
+    }
+
+    @Test
+    void testUnknownLabelIsRegisteredOnce() {
+        assertEquals(-1, RecordType.lookup("Respiratory Rate"));
+        int id = RecordType.resolve("RespiratoryRate");
+        assertEquals(id, RecordType.resolve("respiratory rate"));
+        assertEquals(id, RecordType.lookup("Respiratory-Rate"));
+        assertEquals("RespiratoryRate", RecordType.name(id));
+    }
+
+    @Test
+    void testAliasedLabelsShareOneSeries() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 97.0, "Saturation", 1000L);
+        storage.addPatientData(1, 96.0, "Oxygen Saturation", 2000L);
+        storage.addPatientData(1, 50.0, "BloodSaturation", 2000L); // duplicate of the previous sample
+
+        List<PatientRecord> records = storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals("Saturation", records.get(1).getRecordType());
+        assertEquals(RecordType.SATURATION, records.get(1).getRecordTypeId());
+        assertEquals(96.0, records.get(1).getMeasurementValue());
+    }
+
+    @Test
+    void testReceivedLabelsNeverRegisterTypes() {
+        DataStorage storage = new DataStorage();
+        IngestPipeline pipeline = new IngestPipeline(storage::addPatientDataBatch);
+        IngestPipeline.Stream stream = pipeline.open(IngestPipeline.Format.CSV);
+        int types = RecordType.count();
+        StringBuilder lines = new StringBuilder("1,1000,ECG,0.5\n");
+        for (int i = 0; i < 5000; i++) lines.append("1,").append(2000 + i).append(",Junk").append(i).append(",1.0\n");
+        stream.feed(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.US_ASCII)), true);
+        pipeline.flush();
+
+        assertEquals(types, RecordType.count());
+        assertEquals(-1, RecordType.lookup("Junk42"));
+        assertEquals(1, pipeline.getRowCount());
+        assertEquals(0, pipeline.getSkippedCount());
+        assertEquals(5000, pipeline.getUnknownLabelCount());
+        assertEquals(1, storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        //A type registered later is accepted on the same stream
+        RecordType.resolve("Junk7");
+        stream.feed(ByteBuffer.wrap("1,9000,Junk7,2.0\n".getBytes(StandardCharsets.US_ASCII)), true);
+        pipeline.flush();
+        assertEquals(2, pipeline.getRowCount());
+        assertEquals(2.0, storage.getLatest(1, "Junk7").getMeasurementValue());
+    }
+
+    @Test
+    void testFileLabelsAreRegistered(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("data.csv");
+        Files.writeString(file, "1,1000,Lactate,1.8\n1,1001,ECG,0.5\n");
+        DataStorage storage = new DataStorage();
+        FileDataReader reader = new FileDataReader(storage);
+        reader.readData(storage, file.toString());
+        assertEquals(2, reader.getPipeline().getRowCount());
+        assertEquals(1.8, storage.getLatest(1, "Lactate").getMeasurementValue());
+    }
+}
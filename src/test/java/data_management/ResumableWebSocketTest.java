@@ -0,0 +1,198 @@
+package data_management;
+
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.WebSocketDataReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResumableWebSocketTest {
+
+    @Test
+    void testResumesCsvWithoutGapsOrDuplicates() throws Exception {
+        assertResumes(8803, 8804, "");
+    }
+
+    @Test
+    void testResumesBinaryFramesWithoutGapsOrDuplicates() throws Exception {
+        assertResumes(8805, 8806, "?format=binary");
+    }
+
+    @Test
+    void testCountsSamplesNoLongerBuffered() throws Exception {
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(8807, 100);
+        AtomicLong stored = new AtomicLong();
+        AtomicLong probed = new AtomicLong();
+        try (Proxy proxy = new Proxy(8808, 8807)) {
+            WebSocketDataReader reader = new WebSocketDataReader();
+            Thread thread = start(reader, counting(stored, probed), "ws://localhost:8808");
+            long timestamp = awaitConnected(output, probed);
+
+            proxy.refuse(true);
+            proxy.dropConnections();
+            for (int i = 0; i < 1000; i++) output.output(1, timestamp++, "HeartRate", "70.0");
+            proxy.refuse(false);
+            long emitted = 1000;
+            long deadline = System.currentTimeMillis() + 10_000;
+            //Live samples reach the reader once it is back
+            while (stored.get() == 0) {
+                assertTrue(System.currentTimeMillis() < deadline, "reader did not reconnect in time");
+                output.output(1, timestamp++, "HeartRate", "70.0");
+                emitted++;
+                Thread.sleep(20);
+            }
+            reader.close();
+            thread.join(10_000);
+            assertTrue(reader.getReconnectCount() >= 1);
+            assertTrue(reader.getGapCount() >= 900, "the buffer held only the last 100 samples");
+            assertEquals(emitted, stored.get() + reader.getGapCount(), "every sample was either stored or counted as lost");
+        }
+    }
+
+    //Drops the connection in the middle of a stream and checks every sample is stored exactly once
+    private static void assertResumes(int port, int proxyPort, String query) throws Exception {
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port);
+        AtomicLong stored = new AtomicLong();
+        AtomicLong probed = new AtomicLong();
+        try (Proxy proxy = new Proxy(proxyPort, port)) {
+            WebSocketDataReader reader = new WebSocketDataReader();
+            Thread thread = start(reader, counting(stored, probed), "ws://localhost:" + proxyPort + query);
+            long timestamp = awaitConnected(output, probed);
+
+            for (int i = 0; i < 3000; i++) {
+                output.output(1, timestamp++, "HeartRate", Double.toString(i));
+                if (i == 1000) proxy.dropConnections();
+                if (i == 2000) {
+                    //The second cut comes after the reader is back
+                    while (reader.getReconnectCount() == 0) Thread.sleep(10);
+                    Thread.sleep(100);
+                    proxy.dropConnections();
+                }
+                if (i % 100 == 0) Thread.sleep(5);
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (stored.get() < 3000) {
+                assertTrue(System.currentTimeMillis() < deadline, "only " + stored.get() + " samples stored in time");
+                Thread.sleep(10);
+            }
+            Thread.sleep(100); //a duplicate would arrive by now
+            reader.close();
+            thread.join(10_000);
+            assertFalse(thread.isAlive());
+            assertEquals(3000, stored.get(), "no sample reached the storage twice");
+            assertTrue(reader.getReconnectCount() >= 2);
+            assertEquals(0, reader.getGapCount());
+        }
+    }
+
+    //Storage that counts the rows of patient 1 handed to it, and those of the probes in probed
+    private static DataStorage counting(AtomicLong stored, AtomicLong probed) {
+        return new DataStorage() {
+            @Override
+            public int addPatientDataBatch(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+                for (int i = 0; i < count; i++) (patientIds[i] == 1 ? stored : probed).incrementAndGet();
+                return super.addPatientDataBatch(patientIds, timestamps, recordTypeIds, values, count);
+            }
+        };
+    }
+
+    private static Thread start(WebSocketDataReader reader, DataStorage storage, String url) {
+        Thread thread = new Thread(() -> {
+            try {
+                reader.readData(storage, url);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    //Sends samples of patient 99 until one is stored, the reader only gets what is sent after it connected
+    private static long awaitConnected(WebSocketOutputStrategy output, AtomicLong probed) throws InterruptedException {
+        long timestamp = 1000;
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (probed.get() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "reader did not connect in time");
+            output.output(99, timestamp++, "HeartRate", "60.0");
+            Thread.sleep(20);
+        }
+        Thread.sleep(100); //lets the last probes arrive
+        return timestamp;
+    }
+
+    //Forwards connections to a port and can cut them, like a network failure
+    private static final class Proxy implements AutoCloseable {
+        private final ServerSocket server;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private volatile boolean refusing;
+
+        Proxy(int port, int target) throws IOException {
+            server = new ServerSocket(port);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket client = server.accept();
+                        if (refusing) {
+                            client.close();
+                            continue;
+                        }
+                        Socket upstream = new Socket("localhost", target);
+                        sockets.add(client);
+                        sockets.add(upstream);
+                        pump(client, upstream);
+                        pump(upstream, client);
+                    }
+                } catch (IOException e) {
+                    //Closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        void refuse(boolean refusing) {
+            this.refusing = refusing;
+        }
+
+        void dropConnections() {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //Already closed
+                }
+            }
+            sockets.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            dropConnections();
+        }
+
+        private static void pump(Socket from, Socket to) {
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[8192];
+                try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                    for (int read; (read = in.read(buffer)) > 0; ) out.write(buffer, 0, read);
+                } catch (IOException e) {
+                    //Cut
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
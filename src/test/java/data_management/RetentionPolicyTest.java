@@ -0,0 +1,121 @@
+package data_management;
+
+import com.data_management.Aggregates;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordType;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetentionPolicyTest {
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long START = 1_700_000_000_000L - 1_700_000_000_000L % HOUR; // hour aligned
+
+    @Test
+    void testOldRawSamplesAreReadFromRollups() {
+        RetentionPolicy policy = new RetentionPolicy(RetentionPolicy.UNLIMITED, 24 * HOUR, 30 * 24 * HOUR)
+                .withRawRetention("ECG", HOUR);
+        DataStorage storage = new DataStorage(policy);
+        long end = START + 3 * HOUR;
+        for (long ts = START; ts < end; ts += SECOND) {
+            storage.addPatientData(1, 1.0, "ECG", ts);
+            storage.addPatientData(1, 97.0, "Saturation", ts);
+        }
+
+        //The first hour was compacted into minute buckets holding the mean
+        List<PatientRecord> firstHour = storage.getPatient(1).getRecords("ECG", START, START + HOUR - 1);
+        assertEquals(60, firstHour.size());
+        assertEquals(START + MINUTE, firstHour.get(1).getTimestamp());
+        assertEquals(1.0, firstHour.get(1).getMeasurementValue());
+
+        //The last hour is still raw, and types without a specific retention keep everything
+        assertEquals(3600, storage.getPatient(1).getRecords("ECG", end - HOUR, end).size());
+        assertEquals(3 * 3600, storage.getPatient(1).getRecords("Saturation", START, end).size());
+    }
+
+    @Test
+    void testReplayedSamplesOlderThanTheRawWindowAreNotCountedTwice() {
+        DataStorage storage = new DataStorage(new RetentionPolicy(HOUR, 24 * HOUR, 48 * HOUR));
+        long end = START + 2 * HOUR;
+        for (long ts = START; ts < end; ts += SECOND) storage.addPatientData(1, 10.0, "ECG", ts);
+        int ecg = RecordType.resolve("ECG");
+
+        //A reconnecting feed replays the first minute, long evicted to the rollups
+        int[] patientIds = new int[60];
+        long[] timestamps = new long[60];
+        int[] recordTypeIds = new int[60];
+        double[] values = new double[60];
+        for (int i = 0; i < 60; i++) {
+            patientIds[i] = 1;
+            timestamps[i] = START + i * SECOND;
+            recordTypeIds[i] = ecg;
+            values[i] = 1000.0;
+        }
+        assertEquals(0, storage.addPatientDataBatch(patientIds, timestamps, recordTypeIds, values, 60));
+        storage.addPatientData(1, 1000.0, "ECG", START + 30 * SECOND);
+        List<PatientRecord> firstMinute = storage.getRecords(1, START, START + MINUTE - 1);
+        assertEquals(1, firstMinute.size());
+        assertEquals(10.0, firstMinute.get(0).getMeasurementValue());
+        assertEquals(60.0, storage.aggregate(1, "ECG", START, START + MINUTE - 1, MINUTE, Aggregates.Function.COUNT).get(Aggregates.Function.COUNT, 0));
+
+        //Below the cutoff but within the oldest chunk kept, a replay is found in the chunk
+        long kept = START + HOUR - 10 * SECOND;
+        storage.addPatientData(1, 1000.0, "ECG", kept);
+        assertEquals(10.0, storage.getRecords(1, kept, kept).get(0).getMeasurementValue());
+        assertEquals(60.0, storage.aggregate(1, "ECG", START + 59 * MINUTE, START + HOUR - 1, MINUTE, Aggregates.Function.COUNT).get(Aggregates.Function.COUNT, 0));
+
+        //An old sample no bucket has seen yet is still kept
+        storage.addPatientData(1, 5.0, "ECG", START - 3 * HOUR);
+        assertEquals(5.0, storage.getRecords(1, START - 3 * HOUR, START - 3 * HOUR).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void testMemoryStaysBoundedAtSteadyState() {
+        RetentionPolicy policy = new RetentionPolicy(HOUR, 6 * HOUR, 24 * HOUR);
+        DataStorage storage = new DataStorage(policy);
+        long end = START + 4 * 24 * HOUR;
+        for (long ts = START; ts < end; ts += SECOND) storage.addPatientData(1, ts % 7, "ECG", ts);
+
+        List<PatientRecord> records = storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE);
+        //At most one hour of raw samples plus a chunk, 6 hours of minutes and a day of hours
+        assertTrue(records.size() <= 3600 + 1024 + 6 * 60 + 24 + 2, "retained " + records.size());
+        assertTrue(records.get(0).getTimestamp() >= end - 25 * HOUR);
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() < records.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    void testVisitorSeesTheSameSamplesAsGetRecords() {
+        DataStorage storage = new DataStorage(new RetentionPolicy(HOUR, 6 * HOUR, 24 * HOUR));
+        long end = START + 3 * HOUR;
+        for (long ts = START; ts < end; ts += SECOND) storage.addPatientData(1, ts % 11, "ECG", ts);
+
+        List<PatientRecord> records = storage.getRecords(1, START + 30 * MINUTE, end);
+        List<Long> timestamps = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        storage.forEachRecord(1, "ECG", START + 30 * MINUTE, end, (timestamp, value) -> {
+            timestamps.add(timestamp);
+            values.add(value);
+        });
+        assertEquals(records.size(), timestamps.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(records.get(i).getTimestamp(), timestamps.get(i));
+            assertEquals(records.get(i).getMeasurementValue(), values.get(i));
+        }
+        storage.forEachRecord(2, "ECG", START, end, (timestamp, value) -> fail("unknown patient"));
+    }
+
+    @Test
+    void testRejectsNonPositiveRetention() {
+        assertThrows(IllegalArgumentException.class, () -> new RetentionPolicy(0, HOUR, HOUR));
+        assertThrows(IllegalArgumentException.class, () -> RetentionPolicy.KEEP_ALL.withRawRetention("ECG", -1));
+    }
+}
@@ -0,0 +1,62 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.RetentionPolicy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a storage with a checkpoint takes to become ready after a
+ * restart, compared with writing the checkpoint, and the cost of the first access
+ * to a patient that is still in the snapshot.
+ * Run manually: java -Xmx8g -cp "target/classes;target/test-classes" data_management.SnapshotStartupBenchmark [patients] [samplesPerPatient] [dir]
+ */
+public class SnapshotStartupBenchmark {
+    private static final String[] TYPES = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure"};
+
+    public static void main(String[] args) throws Exception {
+        int patients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int samplesPerPatient = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        Path dir = args.length > 2 ? Paths.get(args[2]) : Files.createTempDirectory("snapshot-benchmark");
+        long start = 1_700_000_000_000L;
+
+        DataStorage storage = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 50);
+        for (int tick = 0; tick < samplesPerPatient; tick++) {
+            for (int patient = 1; patient <= patients; patient++) {
+                storage.addPatientData(patient, 90 + tick % 10, TYPES[tick % TYPES.length], start + tick);
+            }
+        }
+        long t0 = System.nanoTime();
+        storage.checkpoint();
+        double checkpointSeconds = (System.nanoTime() - t0) / 1e9;
+        storage.close();
+        long bytes = Files.size(dir.resolve("snapshot.bin"));
+        System.out.printf("checkpoint : %,d samples in %.2f s, snapshot %.1f MB%n",
+                (long) patients * samplesPerPatient, checkpointSeconds, bytes / 1e6);
+        storage = null;
+        System.gc();
+
+        t0 = System.nanoTime();
+        DataStorage recovered = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 50);
+        double openMillis = (System.nanoTime() - t0) / 1e6;
+        t0 = System.nanoTime();
+        int records = recovered.getRecords(patients / 2, Long.MIN_VALUE, Long.MAX_VALUE).size();
+        double firstAccessMicros = (System.nanoTime() - t0) / 1e3;
+        t0 = System.nanoTime();
+        int loaded = recovered.getAllPatients().size();
+        double loadAllSeconds = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("open       : %.1f ms for %d patients%n", openMillis, patients);
+        System.out.printf("first read : %.0f us for %d records%n", firstAccessMicros, records);
+        System.out.printf("load all   : %d patients in %.2f s%n", loaded, loadAllSeconds);
+        recovered.close();
+        if (args.length < 3) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRestartFromSnapshotAndLogTail() throws IOException {
+        DataStorage storage = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 10);
+        for (int i = 0; i < 5000; i++) storage.addPatientData(1 + i % 50, i, "ECG", 1000L + i);
+        storage.addPatientData(7, 12.5, "LactateLevel", 500L); // type unknown to a fresh process
+        storage.checkpoint();
+        storage.addPatientData(7, 93.0, "Saturation", 9000L); // only in the log tail
+        storage.addPatientData(51, 80.0, "HeartRate", 9000L); // new patient after the checkpoint
+        storage.close();
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count(), "the snapshot and the current log segment");
+        }
+
+        DataStorage recovered = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 10);
+        assertEquals(100, recovered.getPatient(7).getRecords("ECG", Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(12.5, recovered.getPatient(7).getRecords("LactateLevel", 500L, 500L).get(0).getMeasurementValue());
+        assertEquals(93.0, recovered.getPatient(7).getRecords("Saturation", 9000L, 9000L).get(0).getMeasurementValue());
+        assertEquals(1006L, recovered.getRecords(7, 1000L, 1100L).get(0).getTimestamp());
+        assertEquals(4956.0, recovered.getLatest(7, "ECG").getMeasurementValue()); // cache rebuilt from the block
+        assertNull(recovered.getPatient(52));
+        assertEquals(51, recovered.getAllPatients().size());
+
+        //Duplicates of snapshot samples are still rejected, and a second checkpoint keeps unloaded patients
+        recovered.addPatientData(1, -1.0, "ECG", 1000L);
+        assertEquals(0.0, recovered.getRecords(1, 1000L, 1000L).get(0).getMeasurementValue());
+        recovered.checkpoint();
+        recovered.close();
+        DataStorage again = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 10);
+        assertEquals(100, again.getRecords(50, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        again.checkpoint();
+        again.close();
+        assertEquals(51, DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 10).getAllPatients().size());
+    }
+
+    @Test
+    void testCheckpointWhileIngesting() throws Exception {
+        DataStorage storage = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 5);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200_000; i++) storage.addPatientData(1 + i % 20, i % 100, "ECG", 1000L * (i / 20));
+            done.set(true);
+        });
+        writer.start();
+        while (!done.get()) storage.checkpoint();
+        writer.join();
+        storage.close();
+
+        DataStorage recovered = DataStorage.open(dir, RetentionPolicy.KEEP_ALL, 5);
+        for (int patient = 1; patient <= 20; patient++) {
+            assertEquals(storage.getRecords(patient, Long.MIN_VALUE, Long.MAX_VALUE).size(),
+                    recovered.getRecords(patient, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+        recovered.close();
+    }
+
+    @Test
+    void testRollupsSurviveSnapshot() throws IOException {
+        RetentionPolicy retention = new RetentionPolicy(60_000L, RetentionPolicy.UNLIMITED, RetentionPolicy.UNLIMITED);
+        DataStorage storage = DataStorage.open(dir, retention, 10);
+        for (int i = 0; i < 10_000; i++) storage.addPatientData(1, i % 60, "HeartRate", 1000L * i);
+        List<PatientRecord> before = storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE);
+        storage.checkpoint();
+        storage.close();
+
+        List<PatientRecord> after = DataStorage.open(dir, retention, 10).getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(before.size() < 10_000, "old samples were rolled up");
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).getTimestamp(), after.get(i).getTimestamp());
+            assertEquals(before.get(i).getMeasurementValue(), after.get(i).getMeasurementValue());
+        }
+    }
+}
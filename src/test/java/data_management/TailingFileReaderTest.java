@@ -0,0 +1,110 @@
+package data_management;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.TailingFileReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TailingFileReaderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testFollowsAppendsRotationAndResumesFromCheckpoint() throws IOException {
+        Path file = dir.resolve("data.csv");
+        Path checkpoint = dir.resolve("tail.checkpoint");
+        DataStorage storage = new DataStorage();
+        TailingFileReader reader = new TailingFileReader(checkpoint);
+
+        append(file, "1,1000,ECG,0.5\n1,1001,ECG,0.6\n1,1002,E");
+        assertEquals(2, reader.poll(storage, file.toString()));
+        assertEquals(0, reader.poll(storage, file.toString()), "an incomplete line waits for its line feed");
+        append(file, "CG,0.7\n");
+        assertEquals(1, reader.poll(storage, file.toString()));
+        assertEquals(3, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+
+        //Rotation: the rest of the renamed file is read before the new one
+        append(file, "1,1003,ECG,0.8\n");
+        Files.move(file, dir.resolve("data.csv.1"));
+        append(file, "1,1004,ECG,0.9\n");
+        assertEquals(2, reader.poll(storage, file.toString()));
+        assertEquals(1, reader.getRotationCount());
+
+        //Truncation in place
+        Files.writeString(file, "2,1000,ECG,1\n");
+        assertEquals(1, reader.poll(storage, file.toString()));
+        assertEquals(2, reader.getRotationCount());
+        assertEquals(5, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+
+        //A restarted reader only reads what was appended since the checkpoint
+        append(file, "2,1001,ECG,1.1\n");
+        TailingFileReader restarted = new TailingFileReader(checkpoint);
+        assertEquals(1, restarted.poll(storage, file.toString()));
+        assertEquals(0, restarted.poll(storage, file.toString()));
+        assertEquals(2, storage.getRecords(2, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testResumesDirectoryAcrossRenameWhileStopped() throws IOException {
+        Path checkpoint = dir.resolve("tail.checkpoint");
+        FileOutputStrategy output = new FileOutputStrategy(dir.toString());
+        for (int i = 0; i < 10; i++) output.output(1, 1000L + i, "ECG", Double.toString(i));
+        TailingFileReader reader = new TailingFileReader(checkpoint);
+        assertEquals(10, reader.poll(new DataStorage(), dir.toString()));
+
+        //Rotated while no reader runs: the renamed file resumes at its offset, the new one starts at 0
+        for (int i = 10; i < 15; i++) output.output(1, 1000L + i, "ECG", Double.toString(i));
+        Files.move(dir.resolve("ECG.txt"), dir.resolve("ECG.txt.1"));
+        for (int i = 15; i < 18; i++) output.output(1, 1000L + i, "ECG", Double.toString(i));
+        output.output(2, 2000L, "Saturation", "97%");
+        TailingFileReader restarted = new TailingFileReader(checkpoint);
+        DataStorage storage = new DataStorage();
+        assertEquals(9, restarted.poll(storage, dir.toString()));
+        assertEquals(8, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+        assertEquals(97.0, storage.getLatest(2, "Saturation").getMeasurementValue());
+    }
+
+    @Test
+    void testReadDataStreamsAppendedRowsUntilClosed() throws Exception {
+        Path file = dir.resolve("live.csv");
+        Files.writeString(file, "3,1000,HeartRate,70\n");
+        DataStorage storage = new DataStorage();
+        TailingFileReader reader = new TailingFileReader();
+        Thread follower = new Thread(() -> {
+            try {
+                reader.readData(storage, file.toString());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        follower.start();
+        for (int i = 1; i <= 5; i++) {
+            append(file, "3," + (1000 + i) + ",HeartRate," + (70 + i) + "\n");
+            awaitRecords(storage, 1 + i);
+        }
+        reader.close();
+        follower.join(10_000);
+        assertFalse(follower.isAlive());
+        assertEquals(6, reader.getRowCount());
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.writeString(file, text, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void awaitRecords(DataStorage storage, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (storage.getRecords(3, 0, Long.MAX_VALUE).size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "rows not streamed in time");
+            Thread.sleep(10);
+        }
+    }
+}
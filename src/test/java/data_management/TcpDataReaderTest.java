@@ -0,0 +1,126 @@
+package data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+import com.cardio_generator.outputs.TcpOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.IngestQueue;
+import com.data_management.TcpDataReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TcpDataReaderTest {
+    private final BinaryFrameEncoder[] encoders = new BinaryFrameEncoder[201];
+
+    @Test
+    void testFansInCsvAndBinaryProducers() throws Exception {
+        DataStorage storage = new DataStorage();
+        TcpDataReader reader = new TcpDataReader();
+        Thread selector = start(reader, storage, "listen:localhost:8801");
+        List<Socket> producers = new ArrayList<>();
+        for (int p = 1; p <= 200; p++) producers.add(connect(8801));
+        //Every producer sends its rows in pieces that split lines and frames
+        for (int round = 0; round < 5; round++) {
+            for (int p = 1; p <= 200; p++) {
+                byte[] bytes = p % 2 == 0 ? csv(p, round) : frames(p, round);
+                OutputStream out = producers.get(p - 1).getOutputStream();
+                out.write(bytes, 0, bytes.length / 3);
+                out.flush();
+                out.write(bytes, bytes.length / 3, bytes.length - bytes.length / 3);
+            }
+        }
+        try (Socket malformed = connect(8801)) {
+            malformed.getOutputStream().write(new byte[]{'H', 'D', BinaryFrameEncoder.VERSION, 0, 127, 127, 127, 127});
+            for (Socket producer : producers) producer.close();
+            for (int p = 1; p <= 200; p++) awaitRecords(storage, p, 50);
+            Thread.sleep(100); //lets the selector see the malformed frame and the closed producers
+        }
+        reader.close();
+        selector.join(10_000);
+        assertFalse(selector.isAlive());
+        assertEquals(201, reader.getAcceptedCount());
+        assertEquals(0, reader.getConnectionCount());
+        assertEquals(1, reader.getDroppedConnectionCount());
+        assertEquals(10000, reader.getRowCount());
+        assertEquals(0, reader.getSkippedLineCount());
+        assertEquals(10.0 * 7 + 9, storage.getLatest(7, "HeartRate").getMeasurementValue());
+    }
+
+    @Test
+    void testConnectsToSimulatorWithBinaryHello() throws Exception {
+        TcpOutputStrategy output = new TcpOutputStrategy(8802);
+        DataStorage storage = new DataStorage();
+        TcpDataReader reader = new TcpDataReader(true, 1024, IngestQueue.OverflowPolicy.BLOCK);
+        Thread selector = start(reader, storage, "localhost:8802");
+        long deadline = System.currentTimeMillis() + 10_000;
+        for (long timestamp = 1000; storage.getRecords(9, 0, Long.MAX_VALUE).isEmpty(); timestamp++) {
+            assertTrue(System.currentTimeMillis() < deadline, "no frames received in time");
+            output.output(9, timestamp, "Saturation", "96.0%");
+            Thread.sleep(20);
+        }
+        reader.close();
+        selector.join(10_000);
+        assertFalse(selector.isAlive());
+        assertEquals(96.0, storage.getLatest(9, "Saturation").getMeasurementValue());
+        assertEquals(0, reader.getSkippedLineCount(), "the simulator answered the hello with frames");
+    }
+
+    private static Thread start(TcpDataReader reader, DataStorage storage, String source) throws InterruptedException {
+        Thread selector = new Thread(() -> {
+            try {
+                reader.readData(storage, source);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        selector.start();
+        Thread.sleep(200); //gives the reader time to bind
+        return selector;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    //Ten rows per round, the value encodes the patient and the row
+    private static byte[] csv(int patientId, int round) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            int row = round * 10 + i;
+            lines.append(patientId).append(',').append(1000 + row).append(",HeartRate,").append(10.0 * patientId + row % 10).append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    //One encoder per producer connection, as type ids are defined per connection
+    private byte[] frames(int patientId, int round) {
+        if (encoders[patientId] == null) encoders[patientId] = new BinaryFrameEncoder();
+        BinaryFrameEncoder encoder = encoders[patientId];
+        for (int i = 0; i < 10; i++) {
+            int row = round * 10 + i;
+            encoder.add(patientId, 1000 + row, "HeartRate", Double.toString(10.0 * patientId + row % 10));
+        }
+        ByteBuffer frames = encoder.drain();
+        byte[] bytes = new byte[frames.remaining()];
+        frames.get(bytes);
+        return bytes;
+    }
+
+    private static void awaitRecords(DataStorage storage, int patientId, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (storage.getRecords(patientId, 0, Long.MAX_VALUE).size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "rows of patient " + patientId + " not stored in time");
+            Thread.sleep(5);
+        }
+    }
+}
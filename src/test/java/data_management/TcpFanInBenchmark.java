@@ -0,0 +1,119 @@
+package data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+import com.data_management.DataStorage;
+import com.data_management.TcpDataReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures TcpDataReader with many concurrent bedside feeds on its single
+ * selector thread: each feed is a connection sending bursts of CSV lines, or of
+ * binary frames, from a few producer threads, and the time until every row has
+ * been stored is reported.
+ * Run manually: java -cp "target/classes;target/test-classes" data_management.TcpFanInBenchmark [connections] [rows per connection]
+ */
+public class TcpFanInBenchmark {
+    private static final String[] LABELS = {"ECG", "HeartRate", "Saturation", "SystolicPressure", "DiastolicPressure"};
+    private static final int PRODUCER_THREADS = 4;
+    private static final int BURST_ROWS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int rowsPerConnection = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int port = 8810;
+        for (int round = 0; round < 4; round++) { // the first two rounds warm up
+            boolean binary = round % 2 == 1;
+            AtomicLong stored = new AtomicLong();
+            DataStorage storage = new DataStorage() {
+                @Override
+                public int addPatientDataBatch(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+                    int n = super.addPatientDataBatch(patientIds, timestamps, recordTypeIds, values, count);
+                    stored.addAndGet(count);
+                    return n;
+                }
+            };
+            TcpDataReader reader = new TcpDataReader();
+            String source = "listen:localhost:" + port++;
+            Thread selector = new Thread(() -> {
+                try {
+                    reader.readData(storage, source);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            selector.start();
+            Thread.sleep(300);
+
+            List<Socket> sockets = new ArrayList<>(connections);
+            for (int c = 0; c < connections; c++) sockets.add(new Socket("localhost", port - 1));
+            long total = (long) connections * rowsPerConnection;
+            long[] bytes = new long[PRODUCER_THREADS];
+            long start = System.nanoTime();
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < PRODUCER_THREADS; t++) {
+                int thread = t;
+                Thread producer = new Thread(() -> bytes[thread] = produce(sockets, thread, rowsPerConnection, binary));
+                producers.add(producer);
+                producer.start();
+            }
+            for (Thread producer : producers) producer.join();
+            while (stored.get() < total) Thread.sleep(1);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (Socket socket : sockets) socket.close();
+            reader.close();
+            selector.join();
+            if (round < 2) continue;
+            long sent = 0;
+            for (long b : bytes) sent += b;
+            System.out.printf("%d connections, %s: %6.2f s, %10.0f rows/s, %6.1f MB/s%n",
+                    connections, binary ? "binary" : "CSV   ", seconds, total / seconds, sent / 1e6 / seconds);
+        }
+    }
+
+    //Sends bursts to the connections of one producer thread in turn, like feeds interleaving
+    private static long produce(List<Socket> sockets, int thread, int rowsPerConnection, boolean binary) {
+        long sent = 0;
+        try {
+            List<BinaryFrameEncoder> encoders = new ArrayList<>();
+            for (int c = thread; c < sockets.size(); c += PRODUCER_THREADS) encoders.add(new BinaryFrameEncoder());
+            for (int from = 0; from < rowsPerConnection; from += BURST_ROWS) {
+                for (int c = thread, i = 0; c < sockets.size(); c += PRODUCER_THREADS, i++) {
+                    byte[] burst = binary ? frames(encoders.get(i), c + 1, from) : lines(c + 1, from);
+                    OutputStream out = sockets.get(c).getOutputStream();
+                    out.write(burst);
+                    sent += burst.length;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sent;
+    }
+
+    private static byte[] lines(int patientId, int from) {
+        StringBuilder lines = new StringBuilder(BURST_ROWS * 40);
+        for (int row = from; row < from + BURST_ROWS; row++) {
+            lines.append(patientId).append(',').append(1_700_000_000_000L + row).append(',')
+                    .append(LABELS[row % LABELS.length]).append(',').append(60 + row % 40 + 0.5).append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] frames(BinaryFrameEncoder encoder, int patientId, int from) {
+        for (int row = from; row < from + BURST_ROWS; row++) {
+            encoder.add(patientId, 1_700_000_000_000L + row, LABELS[row % LABELS.length], Double.toString(60 + row % 40 + 0.5));
+        }
+        ByteBuffer frames = encoder.drain();
+        byte[] bytes = new byte[frames.remaining()];
+        frames.get(bytes);
+        return bytes;
+    }
+}
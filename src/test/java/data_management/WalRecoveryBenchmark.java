@@ -0,0 +1,48 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.RetentionPolicy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Measures ingest throughput with the write-ahead log enabled and the time it takes
+ * to recover the storage from the resulting log. 100M samples give a ~2.5 GB log.
+ * Run manually: java -Xmx8g -cp "target/classes;target/test-classes" data_management.WalRecoveryBenchmark [samples] [logFile]
+ */
+public class WalRecoveryBenchmark {
+    private static final String[] TYPES = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure"};
+
+    public static void main(String[] args) throws Exception {
+        long samples = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000L;
+        Path logFile = args.length > 1 ? Paths.get(args[1]) : Files.createTempFile("wal-benchmark", ".wal");
+        Files.deleteIfExists(logFile);
+        int patients = 500;
+        long start = 1_700_000_000_000L;
+
+        long t0 = System.nanoTime();
+        DataStorage storage = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 50);
+        for (long i = 0; i < samples; i++) {
+            int patient = (int) (i % patients) + 1;
+            long tick = i / patients;
+            storage.addPatientData(patient, 90 + tick % 10, TYPES[(int) (tick % TYPES.length)], start + tick);
+        }
+        storage.close();
+        double ingestSeconds = (System.nanoTime() - t0) / 1e9;
+        long bytes = Files.size(logFile);
+        System.out.printf("ingest  : %,d samples in %.2f s (%,.0f samples/s), log %.1f MB%n",
+                samples, ingestSeconds, samples / ingestSeconds, bytes / 1e6);
+        storage = null;
+        System.gc();
+
+        t0 = System.nanoTime();
+        DataStorage recovered = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 50);
+        double recoverySeconds = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("recovery: %d patients in %.2f s (%,.0f samples/s, %.0f MB/s)%n",
+                recovered.getAllPatients().size(), recoverySeconds, samples / recoverySeconds, bytes / 1e6 / recoverySeconds);
+        recovered.close();
+        if (args.length < 2) Files.delete(logFile);
+    }
+}
@@ -0,0 +1,107 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WatermarkTest {
+
+    @Test
+    void testLateSamplesWithinTheWindowAreMergedInOrder() {
+        DataStorage storage = new DataStorage();
+        List<long[]> revisions = new ArrayList<>();
+        storage.enableWatermarks(5000, null, (patientId, earliest) -> revisions.add(new long[]{patientId, earliest}));
+        assertThrows(IllegalStateException.class, () -> storage.enableWatermarks(5000, null, null));
+
+        //The rows of sample.csv, timestamps going backwards, and a systolic sample sent late
+        storage.addPatientData(1, 120.5, "SystolicPressure", 1620000000000L);
+        storage.addPatientData(1, 80.1, "DiastolicPressure", 1620000005000L);
+        storage.addPatientData(1, 185, "SystolicPressure", 1620000001000L);
+        storage.addPatientData(1, 200.0, "SystolicPressure", 1620000000000L); // duplicate
+        storage.addPatientData(1, 150.0, "SystolicPressure", 1620000000500L);
+
+        List<PatientRecord> records = storage.getRecords(1, 0, Long.MAX_VALUE);
+        assertEquals(4, records.size());
+        assertEquals(1620000000000L, records.get(0).getTimestamp());
+        assertEquals(150.0, records.get(1).getMeasurementValue());
+        assertEquals(185.0, records.get(2).getMeasurementValue());
+        assertEquals(1620000005000L, records.get(3).getTimestamp());
+        assertEquals(1, storage.getOutOfOrderSampleCount(), "the diastolic sample is ahead of its own series only");
+        assertEquals(0, storage.getLateSampleCount());
+        assertEquals(1, revisions.size());
+        assertArrayEquals(new long[]{1, 1620000000500L}, revisions.get(0));
+    }
+
+    @Test
+    void testSamplesBelowTheWatermarkGoToTheSideChannel() {
+        DataStorage storage = new DataStorage();
+        List<long[]> late = new ArrayList<>();
+        List<long[]> revisions = new ArrayList<>();
+        storage.enableWatermarks(1000,
+                (patientIds, timestamps, recordTypeIds, values, count) -> {
+                    for (int i = 0; i < count; i++) late.add(new long[]{patientIds[i], timestamps[i]});
+                },
+                (patientId, earliest) -> revisions.add(new long[]{patientId, earliest}));
+        int ecg = RecordType.resolve("ECG");
+
+        //Every series is its own source: patient 2 lagging behind patient 1 is not late
+        storage.addPatientDataBatch(new int[]{1, 2, 1}, new long[]{10000, 2000, 10500}, new int[]{ecg, ecg, ecg}, new double[]{1, 2, 3}, 3);
+        int stored = storage.addPatientDataBatch(new int[]{1, 1, 2, 1, 1}, new long[]{9000, 9600, 1500, 9800, 8000},
+                new int[]{ecg, ecg, ecg, ecg, ecg}, new double[]{4, 5, 6, 7, 8}, 5);
+        assertEquals(3, stored);
+        assertEquals(2, late.size());
+        assertArrayEquals(new long[]{1, 9000}, late.get(0));
+        assertArrayEquals(new long[]{1, 8000}, late.get(1));
+        assertEquals(2, storage.getLateSampleCount());
+        assertEquals(3, storage.getOutOfOrderSampleCount());
+
+        //Told once per patient, from the oldest revised sample
+        assertEquals(2, revisions.size());
+        assertArrayEquals(new long[]{1, 9600}, revisions.get(0));
+        assertArrayEquals(new long[]{2, 1500}, revisions.get(1));
+
+        double[] ecgValues = storage.getRecords(1, 0, Long.MAX_VALUE).stream().mapToDouble(PatientRecord::getMeasurementValue).toArray();
+        assertArrayEquals(new double[]{5, 7, 1, 3}, ecgValues);
+
+        storage.addPatientData(2, 9.0, "ECG", 900L);
+        assertEquals(3, late.size());
+        assertEquals(2, storage.getRecords(2, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testSourcesOfOnePatientKeepTheirOwnWatermarks() {
+        DataStorage storage = new DataStorage();
+        storage.enableWatermarks(1000, null, null);
+        //Files of one patient read one after another, ECG first
+        for (long ts = 0; ts < 100_000; ts += 1000) storage.addPatientData(1, 1.0, "ECG", ts);
+        for (long ts = 0; ts < 100_000; ts += 1000) storage.addPatientData(1, 70.0, "HeartRate", ts);
+        assertEquals(0, storage.getLateSampleCount());
+        assertEquals(100, storage.getRecords(1, 0, Long.MAX_VALUE).stream().filter(r -> r.getRecordType().equals("HeartRate")).count());
+    }
+
+    @Test
+    void testReplayedSamplesAreDuplicatesRatherThanLate() {
+        DataStorage storage = new DataStorage();
+        List<long[]> late = new ArrayList<>();
+        storage.enableWatermarks(1000, (patientIds, timestamps, recordTypeIds, values, count) -> late.add(new long[]{timestamps[0]}), null);
+        int ecg = RecordType.resolve("ECG");
+        for (long ts = 0; ts < 10_000; ts += 100) storage.addPatientData(1, 1.0, "ECG", ts);
+
+        //A reconnecting feed sends old samples again, well below the watermark
+        storage.addPatientData(1, 1.0, "ECG", 2000L);
+        assertEquals(0, storage.addPatientDataBatch(new int[]{1, 1}, new long[]{3000, 4000}, new int[]{ecg, ecg}, new double[]{1, 1}, 2));
+        assertEquals(0, storage.getLateSampleCount());
+        assertTrue(late.isEmpty());
+
+        //Only samples that were never stored are late
+        storage.addPatientData(1, 1.0, "ECG", 2050L);
+        assertEquals(1, storage.getLateSampleCount());
+        assertEquals(100, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+    }
+}
@@ -0,0 +1,142 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.HealthDataWebSocketClient;
+import com.data_management.WebSocketDataReader;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Measures the messages/s ceiling of the two WebSocket clients: a local server
+ * sends a burst of messages as fast as the socket takes them and closes, and the
+ * time until the client has stored all of them is reported. The stalling run
+ * pauses storage for 20 ms every 50000 rows, like a snapshot or a spill would.
+ * Run manually: java -cp "target/classes;target/test-classes;target/dependency/*" data_management.WebSocketIngestBenchmark [messages] > out.txt
+ */
+public class WebSocketIngestBenchmark {
+    private static final String[] LABELS = {"ECG", "HeartRate", "Saturation", "SystolicPressure", "DiastolicPressure"};
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        String[] burst = new String[messages];
+        for (int i = 0; i < messages; i++) {
+            burst[i] = (i % 1000 + 1) + "," + (1_700_000_000_000L + i / 1000 * 1000) + "," + LABELS[i / 1000 % LABELS.length] + "," + (60 + i % 40) + ".5";
+        }
+        int port = 8790;
+        for (boolean stalling : new boolean[]{false, true}) {
+            for (int round = 0; round < 2; round++) { // the first round warms up
+                report("HealthDataWebSocketClient", stalling, round, messages, runClient(burst, port++, stalling));
+                report("WebSocketDataReader      ", stalling, round, messages, runReader(burst, port++, stalling));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static long runClient(String[] burst, int port, boolean stalling) throws Exception {
+        Burst server = new Burst(port, burst);
+        server.start();
+        Thread.sleep(200);
+        DataStorage storage = storage(stalling);
+        long start = System.nanoTime();
+        HealthDataWebSocketClient client = new HealthDataWebSocketClient("ws://localhost:" + port, storage);
+        client.connectBlocking();
+        client.closeLatch.await();
+        long nanos = System.nanoTime() - start;
+        server.stop(100);
+        check(storage, burst.length);
+        return nanos;
+    }
+
+    private static long runReader(String[] burst, int port, boolean stalling) throws Exception {
+        Burst server = new Burst(port, burst);
+        server.start();
+        Thread.sleep(200);
+        DataStorage storage = storage(stalling);
+        long start = System.nanoTime();
+        new WebSocketDataReader().readData(storage, "ws://localhost:" + port);
+        long nanos = System.nanoTime() - start;
+        server.stop(100);
+        check(storage, burst.length);
+        return nanos;
+    }
+
+    private static DataStorage storage(boolean stalling) {
+        if (!stalling) return new DataStorage();
+        return new DataStorage() {
+            private long rows;
+
+            @Override
+            public void addPatientData(int patientId, double measurementValue, int recordTypeId, long timestamp) {
+                stall(1);
+                super.addPatientData(patientId, measurementValue, recordTypeId, timestamp);
+            }
+
+            @Override
+            public int addPatientDataBatch(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+                stall(count);
+                return super.addPatientDataBatch(patientIds, timestamps, recordTypeIds, values, count);
+            }
+
+            private void stall(int count) {
+                if (rows / 50_000 != (rows += count) / 50_000) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
+    private static void check(DataStorage storage, int messages) {
+        long stored = 0;
+        for (int patientId = 1; patientId <= 1000; patientId++) stored += storage.getRecords(patientId, 0, Long.MAX_VALUE).size();
+        if (stored != messages) throw new IllegalStateException("Stored " + stored + " of " + messages + " messages");
+    }
+
+    private static void report(String name, boolean stalling, int round, int messages, long nanos) {
+        if (round == 0) return;
+        double seconds = nanos / 1e9;
+        System.err.printf("%s%s: %6.2f s, %9.0f messages/s%n", name, stalling ? ", stalling storage" : "                  ", seconds, messages / seconds);
+    }
+
+    //Sends its burst to the first client, then closes the connection
+    private static final class Burst extends WebSocketServer {
+        private final String[] burst;
+
+        Burst(int port, String[] burst) {
+            super(new InetSocketAddress("localhost", port));
+            setReuseAddr(true);
+            this.burst = burst;
+        }
+
+        @Override
+        public void onOpen(WebSocket connection, ClientHandshake handshake) {
+            new Thread(() -> {
+                for (String message : burst) connection.send(message);
+                connection.close(1000, "done");
+            }).start();
+        }
+
+        @Override
+        public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onMessage(WebSocket connection, String message) {
+        }
+
+        @Override
+        public void onError(WebSocket connection, Exception e) {
+            e.printStackTrace();
+        }
+
+        @Override
+        public void onStart() {
+        }
+    }
+}
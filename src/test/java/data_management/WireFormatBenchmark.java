@@ -0,0 +1,104 @@
+package data_management;
+
+import com.cardio_generator.outputs.BinaryFrameEncoder;
+import com.data_management.DataStorage;
+import com.data_management.HealthDataWebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares CSV text messages with binary frames on simulator-like samples:
+ * bytes on the wire, WebSocket frame headers included, and CPU per sample to
+ * encode on the sender and to decode and queue on the receiver. The storage
+ * drops the batches, so only the wire format is measured.
+ * Run manually: java -cp "target/classes;target/test-classes;target/dependency/*" data_management.WireFormatBenchmark [samples]
+ */
+public class WireFormatBenchmark {
+    private static final String[] LABELS = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure", "Cholesterol", "WhiteBloodCells", "RedBloodCells"};
+
+    public static void main(String[] args) throws Exception {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Random random = new Random(1);
+        int[] patientIds = new int[samples];
+        long[] timestamps = new long[samples];
+        String[] labels = new String[samples];
+        String[] data = new String[samples];
+        for (int i = 0; i < samples; i++) {
+            patientIds[i] = 1 + random.nextInt(100);
+            timestamps[i] = 1_700_000_000_000L + i;
+            labels[i] = LABELS[random.nextInt(LABELS.length)];
+            //As the generators format them: full doubles, and saturation as a whole percentage
+            data[i] = labels[i].equals("Saturation") ? (90 + random.nextInt(11)) + ".0%" : Double.toString(random.nextGaussian() * 20 + 80);
+        }
+
+        for (int round = 0; round < 3; round++) { // the first rounds warm up
+            boolean report = round == 2;
+
+            long start = System.nanoTime();
+            List<String> messages = new ArrayList<>(samples);
+            long csvBytes = 0;
+            for (int i = 0; i < samples; i++) {
+                String message = String.format("%d,%d,%s,%s", patientIds[i], timestamps[i], labels[i], data[i]);
+                messages.add(message);
+                csvBytes += webSocketBytes(message.getBytes(StandardCharsets.UTF_8).length);
+            }
+            long csvEncode = System.nanoTime() - start;
+            HealthDataWebSocketClient client = client();
+            start = System.nanoTime();
+            for (String message : messages) client.onMessage(message);
+            client.getQueue().flush();
+            long csvDecode = System.nanoTime() - start;
+            client.getQueue().close();
+            messages = null;
+
+            start = System.nanoTime();
+            List<ByteBuffer> frames = new ArrayList<>();
+            long binaryBytes = 0;
+            BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+            for (int i = 0; i < samples; i++) {
+                encoder.add(patientIds[i], timestamps[i], labels[i], data[i]);
+                if (encoder.isFull()) frames.add(encoder.drain());
+            }
+            if (!encoder.isEmpty()) frames.add(encoder.drain());
+            for (ByteBuffer frame : frames) binaryBytes += webSocketBytes(frame.remaining());
+            long binaryEncode = System.nanoTime() - start;
+            client = client();
+            start = System.nanoTime();
+            for (ByteBuffer frame : frames) client.onMessage(frame);
+            client.getQueue().flush();
+            long binaryDecode = System.nanoTime() - start;
+            client.getQueue().close();
+
+            if (!report) continue;
+            System.out.printf("%d samples%n", samples);
+            System.out.printf("CSV   : %6.1f bytes/sample, encode %6.1f ns/sample, decode %6.1f ns/sample%n",
+                    (double) csvBytes / samples, (double) csvEncode / samples, (double) csvDecode / samples);
+            System.out.printf("binary: %6.1f bytes/sample, encode %6.1f ns/sample, decode %6.1f ns/sample%n",
+                    (double) binaryBytes / samples, (double) binaryEncode / samples, (double) binaryDecode / samples);
+        }
+    }
+
+    //A server-to-client WebSocket frame adds 2, 4 or 10 bytes of header to its payload
+    private static long webSocketBytes(int payload) {
+        return payload + (payload < 126 ? 2 : payload <= 0xFFFF ? 4 : 10);
+    }
+
+    private static HealthDataWebSocketClient client() throws Exception {
+        DataStorage discard = new DataStorage() {
+            @Override
+            public int addPatientDataBatch(int[] patientIds, long[] timestamps, int[] recordTypeIds, double[] values, int count) {
+                return count;
+            }
+        };
+        return new HealthDataWebSocketClient("ws://localhost:1234", discard) {
+            @Override public void onOpen(ServerHandshake handshake) {}
+            @Override public void onClose(int code, String reason, boolean remote) {}
+            @Override public void onError(Exception ex) {}
+        };
+    }
+}
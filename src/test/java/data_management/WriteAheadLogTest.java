@@ -0,0 +1,140 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.RecordType;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRecoveryRebuildsPatients() throws IOException {
+        Path logFile = dir.resolve("storage.wal");
+        DataStorage storage = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 10);
+        for (int i = 0; i < 10_000; i++) storage.addPatientData(1 + i % 3, i, "ECG", 1000L + i);
+        storage.addPatientData(2, 93.0, "Oxygen Saturation", 5000L);
+        storage.addPatientData(2, 12.5, "LactateLevel", 5000L); // type unknown to a fresh process
+        storage.addPatientData(2, 94.0, "Saturation", 5000L); // duplicate, not logged
+        storage.close();
+
+        DataStorage recovered = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 10);
+        assertEquals(3, recovered.getAllPatients().size());
+        List<PatientRecord> records = recovered.getRecords(2, 5000L, 5000L);
+        assertEquals(3, records.size());
+        assertEquals(93.0, recovered.getPatient(2).getRecords("Saturation", 5000L, 5000L).get(0).getMeasurementValue());
+        assertEquals(12.5, recovered.getPatient(2).getRecords("LactateLevel", 5000L, 5000L).get(0).getMeasurementValue());
+        assertEquals(3334, recovered.getPatient(1).getRecords("ECG", Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        //Samples appended after recovery are logged after the recovered ones
+        recovered.addPatientData(4, 1.0, "ECG", 1L);
+        recovered.close();
+        DataStorage again = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 10);
+        assertEquals(4, again.getAllPatients().size());
+        again.close();
+    }
+
+    @Test
+    void testTornTailIsTruncated() throws IOException {
+        Path logFile = dir.resolve("torn.wal");
+        DataStorage storage = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0);
+        storage.addPatientData(1, 80.0, "HeartRate", 1000L);
+        storage.addPatientData(1, 81.0, "HeartRate", 2000L);
+        storage.close();
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5); // crash in the middle of the last record
+        }
+
+        DataStorage recovered = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0);
+        assertEquals(1, recovered.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        recovered.addPatientData(1, 82.0, "HeartRate", 3000L);
+        recovered.close();
+        assertEquals(2, DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0).getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testCorruptRecordIsTruncatedOnlyAtTheEnd() throws IOException {
+        Path logFile = dir.resolve("corrupt.wal");
+        DataStorage storage = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0);
+        for (int i = 0; i < 100; i++) storage.addPatientData(1, 80.0, "HeartRate", 1000L + i);
+        storage.close();
+        long size = Files.size(logFile);
+
+        //A flipped bit in the last record, then zeros a crash left after it, lose only that record
+        flipBit(logFile, size - 2);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4096), size);
+        }
+        DataStorage recovered = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0);
+        assertEquals(99, recovered.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        recovered.close();
+
+        //One in the middle fails instead of silently dropping the records after it
+        flipBit(logFile, size / 2);
+        IOException failure = assertThrows(IOException.class, () -> DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0));
+        assertTrue(failure.getMessage().startsWith("Corrupt record"), failure.getMessage());
+        assertTrue(Files.size(logFile) > size / 2, "nothing was truncated");
+    }
+
+    private static void flipBit(Path file, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, offset);
+            b.put(0, (byte) (b.get(0) ^ 0x10)).position(0);
+            channel.write(b, offset);
+        }
+    }
+
+    @Test
+    void testBatchMatchesPerSampleInserts() throws IOException {
+        Path logFile = dir.resolve("batch.wal");
+        DataStorage batched = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0);
+        DataStorage single = new DataStorage();
+        int count = 5000;
+        int[] patientIds = new int[count];
+        long[] timestamps = new long[count];
+        int[] types = new int[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            //Interleaved patients, late samples and duplicates within the batch
+            patientIds[i] = 1 + i % 7;
+            timestamps[i] = i % 10 == 9 ? 1000L * (i - 40) : 1000L * i;
+            types[i] = i % 2 == 0 ? RecordType.ECG : RecordType.SATURATION;
+            values[i] = i;
+            single.addPatientData(patientIds[i], values[i], types[i], timestamps[i]);
+        }
+        int stored = batched.addPatientDataBatch(patientIds, timestamps, types, values, count);
+        batched.close();
+
+        DataStorage recovered = DataStorage.recover(logFile, RetentionPolicy.KEEP_ALL, 0);
+        int expected = 0;
+        for (int patient = 1; patient <= 7; patient++) {
+            List<PatientRecord> records = single.getRecords(patient, Long.MIN_VALUE, Long.MAX_VALUE);
+            List<PatientRecord> batch = recovered.getRecords(patient, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(records.size(), batch.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(records.get(i).getTimestamp(), batch.get(i).getTimestamp());
+                assertEquals(records.get(i).getMeasurementValue(), batch.get(i).getMeasurementValue());
+            }
+            expected += records.size();
+        }
+        assertEquals(expected, stored);
+        recovered.close();
+        assertThrows(IllegalArgumentException.class, () -> single.addPatientDataBatch(patientIds, timestamps, types, values, count + 1));
+        assertThrows(IllegalArgumentException.class, () -> single.addPatientData(1, 1.0, RecordType.count(), 1L));
+        assertThrows(IllegalArgumentException.class, () -> single.addPatientData(1, 1.0, -1, 1L));
+    }
+}